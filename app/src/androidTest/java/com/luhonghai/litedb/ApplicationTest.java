@@ -27,29 +27,49 @@
 package com.luhonghai.litedb;
 
 import android.app.Application;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.test.ApplicationTestCase;
 import android.util.Log;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.luhonghai.litedb.annotation.LiteDatabase;
+import com.luhonghai.litedb.bulk.AbstractBulk;
 import com.luhonghai.litedb.example.db.ContactDao;
 import com.luhonghai.litedb.example.db.MainDatabaseHelper;
+import com.luhonghai.litedb.example.db.PrepackagedDatabaseHelper;
 import com.luhonghai.litedb.example.entity.BlobData;
+import com.luhonghai.litedb.example.entity.BookCategory;
+import com.luhonghai.litedb.example.entity.Bookmark;
 import com.luhonghai.litedb.example.entity.ComicBook;
 import com.luhonghai.litedb.example.entity.Contact;
 import com.luhonghai.litedb.exception.AnnotationNotFound;
 import com.luhonghai.litedb.exception.InvalidAnnotationData;
 import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.exception.QueryCanceledException;
 
 import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 /**
  * <a href="http://d.android.com/tools/testing/testing_android.html">Testing Fundamentals</a>
@@ -160,6 +180,7 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
 
         contactDao.deleteByKey(id);
         assertEquals(0, contactDao.count());
+        assertNull(contactDao.get(id));
     }
 
     public void testBulkInsertAndUpdate() throws AnnotationNotFound, InvalidAnnotationData, LiteDatabaseException, IOException {
@@ -181,4 +202,870 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
         Log.i(TAG, "testBulkUpdate. Execution time: " + (System.currentTimeMillis() - start)
                 + "ms. Data size: " + comicBooks.size());
     }
-}
\ No newline at end of file
+
+    public void testWriteQueue() throws Exception {
+        ContactDao contactDao = new ContactDao(databaseHelper);
+        contactDao.deleteAll();
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Contact contact = new Contact();
+            contact.setName("Async " + i);
+            futures.add(contactDao.insertAsync(contact));
+        }
+        for (Future<Long> future : futures) {
+            assertTrue(future.get() > 0);
+        }
+        assertEquals(100, contactDao.count());
+        Contact contact = contactDao.get(futures.get(0).get());
+        contact.setJob("Queued job");
+        contactDao.updateAsync(contact);
+        contactDao.deleteByKeyAsync(futures.get(1).get());
+        databaseHelper.getWriteQueue().flush();
+        assertEquals("Queued job", contactDao.get(contact.getId()).getJob());
+        assertEquals(99, contactDao.count());
+        contactDao.deleteAll();
+    }
+
+    public void testWriteQueueShutdown() throws Exception {
+        final ContactDao contactDao = new ContactDao(databaseHelper);
+        contactDao.deleteAll();
+        final LiteWriteQueue writeQueue = new LiteWriteQueue(databaseHelper, 4, 2, 5);
+        final List<Future<Long>> futures = Collections.synchronizedList(new ArrayList<Future<Long>>());
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200; i++) {
+                    Contact contact = new Contact();
+                    contact.setName("Queued " + i);
+                    try {
+                        futures.add(writeQueue.insert(contactDao, contact));
+                    } catch (LiteDatabaseException e) {
+                        // Queue is shut down
+                        return;
+                    }
+                }
+            }
+        });
+        producer.start();
+        writeQueue.shutdown();
+        producer.join();
+        assertFalse(writeQueue.isAccepting());
+        // Every accepted write is committed or failed, none is left pending
+        for (Future<Long> future : futures) {
+            assertTrue(future.isDone());
+        }
+        try {
+            writeQueue.insert(contactDao, new Contact());
+            fail("Write must be rejected after shutdown");
+        } catch (LiteDatabaseException e) {
+            // Expected
+        }
+        contactDao.deleteAll();
+    }
+
+    public void testUnitOfWork() throws Exception {
+        ContactDao contactDao = new ContactDao(databaseHelper);
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        contactDao.deleteAll();
+        bookDao.deleteAll();
+        LiteTransaction transaction = databaseHelper.beginTransaction();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Contact contact = new Contact();
+                contact.setName("Unit " + i);
+                contactDao.insert(contact);
+                bookDao.insert(new ComicBook("book-" + i, "source " + i));
+            }
+            transaction.success();
+        } finally {
+            transaction.end();
+        }
+        assertNull(databaseHelper.getCurrentTransaction());
+        assertEquals(10, contactDao.count());
+        assertEquals(10, bookDao.count());
+
+        transaction = databaseHelper.beginTransaction();
+        try {
+            contactDao.deleteAll();
+            bookDao.insert(new ComicBook("book-rollback", "rollback"));
+        } finally {
+            transaction.end();
+        }
+        assertEquals(10, contactDao.count());
+        assertEquals(10, bookDao.count());
+        contactDao.deleteAll();
+        bookDao.deleteAll();
+    }
+
+    public void testChunkedBulkInsert() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            books.add(new ComicBook("book-" + i, "chunk " + i));
+        }
+        final List<Long> checkpoints = new ArrayList<>();
+        bookDao.insert(books, 100, 0, new AbstractBulk.ProgressListener() {
+            @Override
+            public void onChunkCommitted(long checkpoint, long bytes) {
+                checkpoints.add(checkpoint);
+            }
+        });
+        assertEquals(3, checkpoints.size());
+        assertEquals(250L, (long) checkpoints.get(2));
+        assertEquals(250, bookDao.count());
+        // Resume from checkpoint only inserts the remaining rows
+        bookDao.deleteAll();
+        bookDao.insert(books, 100, 200, null);
+        assertEquals(50, bookDao.count());
+        bookDao.deleteAll();
+    }
+
+    public void testStreamingJsonImport() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        String data = IOUtils.toString(getContext().getAssets().open("comic/comic-v1.json"), "UTF-8");
+        List<ComicBook> comicBooks = new Gson().fromJson(data, new TypeToken<List<ComicBook>>() {
+        }.getType());
+        long start = System.currentTimeMillis();
+        InputStream inputStream = getContext().getAssets().open("comic/comic-v1.json");
+        try {
+            assertEquals(comicBooks.size(), bookDao.importJson(inputStream, 200));
+        } finally {
+            inputStream.close();
+        }
+        Log.i(TAG, "testStreamingJsonImport. Execution time: " + (System.currentTimeMillis() - start)
+                + "ms. Data size: " + comicBooks.size());
+        assertEquals(comicBooks.size(), bookDao.count());
+        ComicBook expected = comicBooks.get(0);
+        List<ComicBook> imported = bookDao.toList(bookDao.query("bookId = ?", new String[]{expected.getBookId()}));
+        assertEquals(1, imported.size());
+        assertEquals(expected.getName(), imported.get(0).getName());
+        assertEquals(expected.getRate(), imported.get(0).getRate());
+        bookDao.deleteAll();
+    }
+
+    public void testReconcile() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            ComicBook book = new ComicBook(String.format(Locale.US, "book-%05d", i), "source");
+            book.setName("Book " + i);
+            books.add(book);
+        }
+        LiteBaseDao.ReconcileResult result = bookDao.reconcile(books.iterator(), "bookId");
+        assertEquals(1200, result.getInserted());
+        // Re-sync with no change
+        result = bookDao.reconcile(books.iterator(), "bookId");
+        assertFalse(result.isChanged());
+        assertEquals(1200, result.getUnchanged());
+        // Change one, remove one and add one
+        books.get(10).setName("Changed");
+        books.remove(20);
+        ComicBook book = new ComicBook("book-99999", "source");
+        books.add(book);
+        result = bookDao.reconcile(books.iterator(), "bookId");
+        assertEquals(1, result.getInserted());
+        assertEquals(1, result.getUpdated());
+        assertEquals(1, result.getDeleted());
+        assertEquals(1200, bookDao.count());
+        assertEquals(1, bookDao.count("name = ?", new String[]{"Changed"}));
+        // Row changed outside of bulk writes has no valid hash, reconcile writes it back
+        ContentValues values = new ContentValues();
+        values.put("name", "Edited");
+        assertEquals(1, bookDao.update(values, "bookId = ?", new String[]{"book-00030"}));
+        result = bookDao.reconcile(books.iterator(), "bookId");
+        assertEquals(1, result.getUpdated());
+        assertEquals(0, bookDao.count("name = ?", new String[]{"Edited"}));
+        // Incoming objects are not changed by reconcile
+        assertEquals("book-00030", books.get(29).getBookId());
+        bookDao.deleteAll();
+    }
+
+    public void testGetAll() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            ComicBook book = new ComicBook("book-" + i, "source");
+            book.setName("Book " + i);
+            books.add(book);
+        }
+        bookDao.insert(books);
+        List<String> ids = new ArrayList<>();
+        for (ComicBook book : bookDao.listAll()) {
+            ids.add(book.getBookId());
+        }
+        ids.add("missing");
+        Map<Object, ComicBook> found = bookDao.getAll(ids);
+        assertEquals(1500, found.size());
+        assertFalse(found.containsKey("missing"));
+        List<ComicBook> list = bookDao.getAllAsList(ids);
+        assertEquals(ids.size(), list.size());
+        assertEquals(ids.get(0), list.get(0).getBookId());
+        assertNull(list.get(list.size() - 1));
+        // Chunk larger than SQLite variable limit is clamped
+        LiteLazyList<ComicBook> lazy = bookDao.lazyList(null, null, null, 2000, 2000);
+        assertEquals(ids.get(1400), lazy.get(1400).getBookId());
+        bookDao.deleteAll();
+    }
+
+    public void testQueryBuilder() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ComicBook book = new ComicBook("book-" + i, i % 2 == 0 ? "even" : "odd");
+            book.setName("Book " + i);
+            book.setRate(i);
+            books.add(book);
+        }
+        bookDao.insert(books);
+        LiteQuery.Builder builder = bookDao.newQuery()
+                .where("source", "even")
+                .and("rate", LiteQuery.Operator.GREATER_OR_EQUAL, 50)
+                .orderBy("rate", false)
+                .limit(10);
+        assertEquals(25, bookDao.count(builder));
+        List<ComicBook> list = bookDao.list(builder);
+        assertEquals(10, list.size());
+        assertEquals(98f, list.get(0).getRate());
+        // Same shape, different values share the plan
+        LiteQuery.Builder other = bookDao.newQuery()
+                .where("source", "odd")
+                .and("rate", LiteQuery.Operator.GREATER_OR_EQUAL, 90)
+                .orderBy("rate", false)
+                .limit(3);
+        assertEquals(builder.getTemplate(), other.getTemplate());
+        assertSame(builder.getPlan(), other.getPlan());
+        assertEquals(3, bookDao.list(other).size());
+        assertEquals(2, bookDao.count(bookDao.newQuery().in("name", Arrays.asList("Book 1", "Book 2"))));
+        // Conditions are joined from left to right
+        LiteQuery.Builder grouped = bookDao.newQuery()
+                .where("rate", LiteQuery.Operator.LESS, 10)
+                .or("rate", LiteQuery.Operator.GREATER_OR_EQUAL, 98)
+                .and("source", LiteQuery.Operator.EQUAL, "even");
+        assertEquals(" WHERE ([rate] < ? OR [rate] >= ?) AND [source] = ?", grouped.getTemplate());
+        assertEquals(6, bookDao.count(grouped));
+        assertSame(grouped.getPlan(), grouped.getPlan());
+        try {
+            bookDao.newQuery().where("unknownField", 1);
+            fail("Unknown field must be rejected");
+        } catch (LiteDatabaseException e) {
+            // expected
+        }
+        bookDao.deleteAll();
+    }
+
+    public void testKeysetPage() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 95; i++) {
+            ComicBook book = new ComicBook("book-" + i, "source");
+            book.setName("Book " + i);
+            // Duplicated order key to check the tiebreaker
+            book.setRate(i % 10);
+            books.add(book);
+        }
+        bookDao.insert(books);
+        String token = null;
+        int total = 0;
+        int pages = 0;
+        float lastRate = Float.MAX_VALUE;
+        Set<String> ids = new HashSet<>();
+        do {
+            Page<ComicBook> page = bookDao.page(new String[]{"rate DESC"}, token, 10);
+            for (ComicBook book : page.getItems()) {
+                assertTrue(book.getRate() <= lastRate);
+                lastRate = book.getRate();
+                assertTrue(ids.add(book.getBookId()));
+            }
+            total += page.getItems().size();
+            token = page.getNextToken();
+            pages++;
+        } while (token != null);
+        assertEquals(95, total);
+        assertEquals(10, pages);
+        try {
+            bookDao.page(new String[]{"name"}, bookDao.page(new String[]{"rate"}, null, 10).getNextToken(), 10);
+            fail("Token of other order must be rejected");
+        } catch (LiteDatabaseException e) {
+            // expected
+        }
+        bookDao.deleteAll();
+    }
+
+    public void testLazyList() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            ComicBook book = new ComicBook("book-" + i, "source");
+            book.setName("Book " + i);
+            book.setRate(i);
+            books.add(book);
+        }
+        bookDao.insert(books);
+        LiteLazyList<ComicBook> list = bookDao.lazyList("[source] = ?", new String[]{"source"}, "[rate] DESC", 20, 40);
+        assertEquals(500, list.size());
+        assertEquals(499f, list.get(0).getRate());
+        assertEquals(0f, list.get(499).getRate());
+        assertEquals(250f, list.get(249).getRate());
+        list.release();
+        assertEquals(498f, list.get(1).getRate());
+        bookDao.deleteAll();
+    }
+
+    public void testAggregate() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            ComicBook book = new ComicBook("book-" + i, i <= 4 ? "a" : "b");
+            book.setName("Book " + i);
+            book.setRate(i);
+            books.add(book);
+        }
+        bookDao.insert(books);
+        assertEquals(55.0, bookDao.sum("rate", null, null), 0.001);
+        assertEquals(2.5, bookDao.avg("rate", "[source] = ?", new String[]{"a"}), 0.001);
+        assertEquals(1.0, bookDao.min("rate", null, null));
+        assertEquals("Book 9", bookDao.max("name", null, null));
+        assertNull(bookDao.avg("rate", "[source] = ?", new String[]{"none"}));
+        // Expression has no affinity, number argument must be bound as number
+        assertEquals(34.0, bookDao.sum("rate", "[rate] * 2 > ?", new Object[]{12}), 0.001);
+        Map<Object, Double> highRates = bookDao.groupAggregate("source", LiteAggregate.COUNT, null,
+                "[rate] * 2 > ?", new Object[]{12});
+        assertNull(highRates.get("a"));
+        assertEquals(4.0, highRates.get("b"), 0.001);
+        Map<Object, Long> counts = bookDao.groupCount("source");
+        assertEquals(4L, (long) counts.get("a"));
+        assertEquals(6L, (long) counts.get("b"));
+        Map<Object, Double> avgRates = bookDao.groupAggregate("source", LiteAggregate.AVG, "rate", null, null);
+        assertEquals(2.5, avgRates.get("a"), 0.001);
+        assertEquals(7.5, avgRates.get("b"), 0.001);
+        bookDao.deleteAll();
+    }
+
+    public void testExistsAndMaintainedCount() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        assertEquals(0, bookDao.count());
+        assertFalse(bookDao.exists(null, null));
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ComicBook book = new ComicBook("book-" + i, "source");
+            book.setName("Book " + i);
+            books.add(book);
+        }
+        bookDao.insert(books);
+        assertEquals(20, bookDao.count());
+        assertTrue(bookDao.exists("[name] = ?", new String[]{"Book 5"}));
+        assertFalse(bookDao.exists("[name] = ?", new String[]{"Book 50"}));
+        bookDao.delete("[name] = ?", new String[]{"Book 5"});
+        assertEquals(19, bookDao.count());
+        assertEquals(bookDao.count(null, null), bookDao.count());
+        // Counter is seeded again only when its triggers are created
+        String tableName = bookDao.getTableMeta().getTableName();
+        SQLiteDatabase db = databaseHelper.getDatabase();
+        db.execSQL("DROP TRIGGER [lite_count_insert_" + tableName + "]");
+        db.execSQL("UPDATE [lite_counts] SET [row_count] = 100 WHERE [table_name] = ?", new Object[]{tableName});
+        db.execSQL("UPDATE [lite_meta] SET [value] = 'stale'");
+        databaseHelper.close();
+        databaseHelper.open();
+        assertEquals(19, bookDao.count());
+        bookDao.deleteAll();
+        assertEquals(0, bookDao.count());
+    }
+
+    public void testQueryDeadline() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ComicBook book = new ComicBook("book-" + i, "source");
+            book.setName("Book " + i);
+            books.add(book);
+        }
+        bookDao.insert(books);
+        assertEquals(10, bookDao.list(null, null, null, SystemClock.uptimeMillis() + 60000).size());
+        try {
+            bookDao.list(null, null, null, SystemClock.uptimeMillis() - 1);
+            fail("Query must be canceled after deadline");
+        } catch (QueryCanceledException e) {
+            // expected
+        }
+        bookDao.deleteAll();
+    }
+
+    public void testIndexes() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        String tableName = bookDao.getTableMeta().getTableName();
+        Set<String> names = new HashSet<>();
+        Cursor cursor = databaseHelper.getDatabase().rawQuery(
+                "SELECT [name] FROM [sqlite_master] WHERE [type] = 'index' AND [tbl_name] = ?",
+                new String[]{tableName});
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(names.contains("lite_idx_" + tableName + "_source"));
+        assertTrue(names.contains("lite_idx_" + tableName + "_favorite"));
+    }
+
+    public void testIndexAdvisor() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        LiteIndexAdvisor advisor = databaseHelper.enableIndexAdvisor(false);
+        try {
+            for (int i = 0; i < 5; i++) {
+                bookDao.query("[author] = 'Author " + i + "'", null).close();
+                bookDao.query("[bookId] = ?", new String[]{"book-" + i}).close();
+            }
+            List<LiteIndexAdvisor.Suggestion> suggestions = advisor.analyze(5);
+            assertEquals(1, suggestions.size());
+            assertEquals("[author] = ?", suggestions.get(0).getSelection());
+            assertEquals(5, suggestions.get(0).getCount());
+            assertEquals("author", suggestions.get(0).getColumns()[0]);
+        } finally {
+            databaseHelper.disableIndexAdvisor();
+        }
+    }
+
+    public void testFullTextSearch() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ComicBook book = new ComicBook("book-" + i, "source");
+            book.setName("Book " + i);
+            book.setDescription(i % 5 == 0 ? "dragon story" : "other story");
+            books.add(book);
+        }
+        ComicBook ranked = new ComicBook("book-ranked", "source");
+        ranked.setName("Dragon dragon");
+        ranked.setDescription("dragon story");
+        books.add(ranked);
+        // Fewer matches at large offsets have a longer offsets() string but must rank lower
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() < 100000) longText.append("filler ");
+        ComicBook longBook = new ComicBook("book-long", "source");
+        longBook.setName("Long");
+        longBook.setDescription(longText + "dragon dragon");
+        books.add(longBook);
+        bookDao.insert(books);
+        List<ComicBook> found = bookDao.search("dragon", 10);
+        assertEquals(6, found.size());
+        assertEquals("Dragon dragon", found.get(0).getName());
+        assertEquals("Long", found.get(1).getName());
+        bookDao.delete("[name] = ?", new String[]{"Long"});
+        assertEquals(1, bookDao.search("dragon", 1).size());
+        bookDao.delete("[name] = ?", new String[]{"Dragon dragon"});
+        assertEquals(4, bookDao.search("dragon", 10).size());
+        bookDao.deleteAll();
+        assertTrue(bookDao.search("story", 10).isEmpty());
+    }
+
+    public void testUpsertKeepsRow() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        ComicBook first = new ComicBook("book-1", "source");
+        first.setName("First");
+        first.setUrl("http://comic/1");
+        first.setCategories(Arrays.asList("Action"));
+        bookDao.insert(first);
+        ComicBook second = new ComicBook("book-2", "source");
+        second.setUrl("http://comic/2");
+        bookDao.insert(second);
+        // Existing row is updated in place, delete triggers do not fire
+        first.setName("Updated");
+        first.setCategories(Arrays.asList("Drama"));
+        assertEquals(0, bookDao.upsert(first));
+        assertEquals(2, bookDao.count());
+        assertEquals(bookDao.count(null, null), bookDao.count());
+        assertEquals("Updated", bookDao.get("book-1").getName());
+        assertEquals(1, bookDao.search("updated", 10).size());
+        assertEquals(0, bookDao.count(bookDao.newQuery().whereJson("categories", "$[*]", "Action")));
+        assertEquals(1, bookDao.count(bookDao.newQuery().whereJson("categories", "$[*]", "Drama")));
+        // Conflict on other unique index fails instead of replacing the other row
+        ComicBook conflict = new ComicBook("book-3", "source");
+        conflict.setUrl("http://comic/2");
+        try {
+            bookDao.upsert(conflict);
+            fail("Conflict on unique url must be rejected");
+        } catch (SQLiteConstraintException e) {
+            // expected
+        }
+        assertEquals(2, bookDao.count());
+        assertNotNull(bookDao.get("book-2"));
+        bookDao.deleteAll();
+    }
+
+    public void testUpsertWithoutRowId() throws Exception {
+        LiteBaseDao<Bookmark> bookmarkDao = new LiteBaseDao<>(databaseHelper, Bookmark.class);
+        bookmarkDao.deleteAll();
+        assertEquals(1, bookmarkDao.upsert(new Bookmark("book-1", 10)));
+        long[] upserted = bookmarkDao.upsert(Arrays.asList(new Bookmark("book-1", 20), new Bookmark("book-2", 5)));
+        assertEquals(0, upserted[0]);
+        assertEquals(1, upserted[1]);
+        assertEquals(2, bookmarkDao.count());
+        Bookmark bookmark = bookmarkDao.get("book-1");
+        assertNotNull(bookmark);
+        assertEquals(20, bookmark.getPage());
+        List<Bookmark> lazy = bookmarkDao.lazyList(null, null, "[bookId]");
+        assertEquals(2, lazy.size());
+        assertEquals("book-2", lazy.get(1).getBookId());
+        bookmarkDao.deleteAll();
+    }
+
+    public void testCompositePrimaryKey() throws Exception {
+        LiteBaseDao<BookCategory> linkDao = new LiteBaseDao<>(databaseHelper, BookCategory.class);
+        linkDao.deleteAll();
+        linkDao.insert(Arrays.asList(new BookCategory("book-1", "action", 0),
+                new BookCategory("book-1", "comedy", 1),
+                new BookCategory("book-2", "action", 0)));
+        BookCategory link = linkDao.get(new Object[]{"book-1", "comedy"});
+        assertNotNull(link);
+        assertEquals(1, link.getPosition());
+        assertNull(linkDao.get(Arrays.asList("book-2", "comedy")));
+        link.setPosition(5);
+        linkDao.update(link);
+        assertEquals(5, linkDao.get(new Object[]{"book-1", "comedy"}).getPosition());
+        List<BookCategory> links = linkDao.getAllAsList(Arrays.asList(
+                new Object[]{"book-2", "action"}, new Object[]{"book-3", "action"}, new Object[]{"book-1", "action"}));
+        assertEquals("book-2", links.get(0).getBookId());
+        assertNull(links.get(1));
+        assertEquals("book-1", links.get(2).getBookId());
+        linkDao.delete(link);
+        linkDao.deleteByKey(new Object[]{"book-2", "action"});
+        assertEquals(1, linkDao.count());
+        try {
+            linkDao.get("book-1");
+            fail("Composite primary key requires all key values");
+        } catch (LiteDatabaseException e) {
+            // expected
+        }
+        linkDao.deleteAll();
+    }
+
+    public void testSchemaSnapshot() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        String tableName = bookDao.getTableMeta().getTableName();
+        LiteSchema schema = LiteSchema.load(databaseHelper.getDatabase());
+        LiteSchema.Table table = schema.getTable(tableName.toUpperCase(Locale.US));
+        assertNotNull(table);
+        assertTrue(table.hasColumn("bookId"));
+        assertTrue(table.hasColumn("BOOKID"));
+        assertFalse(table.hasColumn("missing"));
+        assertEquals(1, table.getColumn("bookId").getPrimaryKey());
+        assertFalse(table.hasColumn("_id"));
+        assertTrue(schema.hasTrigger("lite_count_insert_" + tableName));
+        assertNull(schema.getTable("missing_table"));
+    }
+
+    public void testSchemaFingerprint() throws Exception {
+        String fingerprint = databaseHelper.getSchemaFingerprint();
+        assertNotNull(fingerprint);
+        assertEquals(fingerprint, getStoredFingerprint());
+        // Simulate schema drift: index is missing and stored fingerprint is stale
+        String tableName = databaseHelper.getTableMeta(ComicBook.class).getTableName();
+        String indexName = "lite_idx_" + tableName + "_source";
+        databaseHelper.getDatabase().execSQL("DROP INDEX [" + indexName + "]");
+        databaseHelper.getDatabase().execSQL("UPDATE [lite_meta] SET [value] = 'stale'");
+        databaseHelper.close();
+        databaseHelper.open();
+        assertEquals(fingerprint, getStoredFingerprint());
+        LiteSchema schema = LiteSchema.load(databaseHelper.getDatabase());
+        assertTrue(schema.getTable(tableName).getIndexes().containsKey(indexName));
+    }
+
+    public void testTableRebuild() throws Exception {
+        LiteBaseDao<Bookmark> bookmarkDao = new LiteBaseDao<>(databaseHelper, Bookmark.class);
+        String tableName = bookmarkDao.getTableMeta().getTableName();
+        SQLiteDatabase db = databaseHelper.getDatabase();
+        // Legacy table has rowid and a column that is removed from class
+        String createQuery = databaseHelper.getAnnotationHelper(Bookmark.class).getCreateTableQuery();
+        db.execSQL("DROP TABLE [" + tableName + "]");
+        db.execSQL(createQuery.replace(") WITHOUT ROWID;", ", [legacy] TEXT);"));
+        for (int i = 0; i < 3; i++) {
+            db.execSQL("INSERT INTO [" + tableName + "] ([bookId], [page], [legacy]) VALUES (?, ?, 'old')",
+                    new Object[]{"book-" + i, i * 10});
+        }
+        db.execSQL("UPDATE [lite_meta] SET [value] = 'stale'");
+        final long[] progress = new long[2];
+        databaseHelper.setMigrationListener(new LiteMigration.MigrationListener() {
+            @Override
+            public void onMigrationStart(String tableName, String reason, long totalRows) {
+                progress[0] = totalRows;
+            }
+
+            @Override
+            public void onMigrationProgress(String tableName, long copiedRows, long totalRows) {
+            }
+
+            @Override
+            public void onMigrationComplete(String tableName, long copiedRows) {
+                progress[1] = copiedRows;
+            }
+        });
+        databaseHelper.close();
+        databaseHelper.open();
+        databaseHelper.setMigrationListener(null);
+        assertEquals(3, progress[0]);
+        assertEquals(3, progress[1]);
+        LiteSchema.Table table = LiteSchema.load(databaseHelper.getDatabase()).getTable(tableName);
+        assertFalse(table.hasColumn("legacy"));
+        assertTrue(table.getSql().toUpperCase(Locale.US).contains("WITHOUT ROWID"));
+        assertEquals(3, bookmarkDao.count());
+        assertEquals(20, bookmarkDao.get("book-2").getPage());
+        bookmarkDao.deleteAll();
+    }
+
+    public void testMigrationKeysetBatches() throws Exception {
+        LiteBaseDao<Bookmark> bookmarkDao = new LiteBaseDao<>(databaseHelper, Bookmark.class);
+        String tableName = bookmarkDao.getTableMeta().getTableName();
+        SQLiteDatabase db = databaseHelper.getDatabase();
+        String createQuery = databaseHelper.getAnnotationHelper(Bookmark.class).getCreateTableQuery();
+        db.execSQL("DROP TABLE [" + tableName + "]");
+        db.execSQL(createQuery.replace(") WITHOUT ROWID;", ", [legacy] TEXT);"));
+        // Sparse rowids must not produce empty batches
+        long[] rowIds = {1, 5, 7, 1000000, 2000000};
+        for (int i = 0; i < rowIds.length; i++) {
+            db.execSQL("INSERT INTO [" + tableName + "] (rowid, [bookId], [page]) VALUES (?, ?, ?)",
+                    new Object[]{rowIds[i], "book-" + i, i});
+        }
+        final List<Long> batches = new ArrayList<>();
+        LiteMigration migration = new LiteMigration(db, databaseHelper.getAnnotationHelper(Bookmark.class),
+                LiteSchema.load(db).getTable(tableName));
+        long copied = migration.migrate(new LiteMigration.MigrationListener() {
+            @Override
+            public void onMigrationStart(String tableName, String reason, long totalRows) {
+            }
+
+            @Override
+            public void onMigrationProgress(String tableName, long copiedRows, long totalRows) {
+                batches.add(copiedRows);
+            }
+
+            @Override
+            public void onMigrationComplete(String tableName, long copiedRows) {
+            }
+        }, 2);
+        assertEquals(5, copied);
+        assertEquals(Arrays.asList(2L, 4L, 5L), batches);
+        assertEquals(5, bookmarkDao.count());
+        assertEquals(4, bookmarkDao.get("book-4").getPage());
+        bookmarkDao.deleteAll();
+    }
+
+    public void testJsonIndex() throws Exception {
+        LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(databaseHelper, ComicBook.class);
+        bookDao.deleteAll();
+        List<ComicBook> books = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ComicBook book = new ComicBook("book-" + i, "source");
+            book.setName("Book " + i);
+            book.setCategories(i % 2 == 0 ? Arrays.asList("Action", "Comedy") : Arrays.asList("Drama"));
+            books.add(book);
+        }
+        bookDao.insert(books);
+        LiteQuery.Builder action = bookDao.newQuery().whereJson("categories", "$[*]", "Action");
+        assertEquals(5, bookDao.count(action));
+        List<ComicBook> found = bookDao.list(action);
+        assertEquals(5, found.size());
+        assertEquals(Arrays.asList("Action", "Comedy"), found.get(0).getCategories());
+        // Query plan uses index of JSON index table instead of scanning table
+        String indexTable = bookDao.getTableMeta().getJsonIndexes().get(0).getTableName();
+        Cursor plan = databaseHelper.getDatabase().rawQuery("EXPLAIN QUERY PLAN SELECT [doc] FROM ["
+                + indexTable + "] WHERE [path] = ? AND [value] = ?", new String[]{"$[*]", "Action"});
+        try {
+            assertTrue(plan.moveToFirst());
+            assertTrue(plan.getString(plan.getColumnCount() - 1).contains(indexTable + "_value"));
+        } finally {
+            plan.close();
+        }
+        // Updated and deleted rows are removed from the index
+        ComicBook book = found.get(0);
+        book.setCategories(Arrays.asList("Drama"));
+        bookDao.update(book);
+        assertEquals(4, bookDao.count(action));
+        bookDao.delete(found.get(1));
+        assertEquals(3, bookDao.count(action));
+        assertEquals(6, bookDao.count(bookDao.newQuery().whereJson("categories", "$[*]", "Drama")));
+        // Rows updated by ContentValues and raw SQL are indexed again before the next JSON query
+        String column = bookDao.getTableMeta().getColumns().get("categories").getColumnName();
+        String nameColumn = bookDao.getTableMeta().getColumns().get("name").getColumnName();
+        ContentValues values = new ContentValues();
+        values.put(column, "[\"Horror\"]");
+        assertEquals(1, bookDao.update(values, "[" + nameColumn + "] = ?", new String[]{found.get(2).getName()}));
+        LiteQuery.Builder horror = bookDao.newQuery().whereJson("categories", "$[*]", "Horror");
+        assertEquals(1, bookDao.count(horror));
+        assertEquals(2, bookDao.count(action));
+        databaseHelper.getDatabase().execSQL("UPDATE [" + bookDao.getTableName() + "] SET [" + column
+                + "] = ? WHERE [" + nameColumn + "] = ?", new Object[]{"[\"Horror\",\"Action\"]",
+                found.get(3).getName()});
+        assertEquals(2, bookDao.list(horror).size());
+        assertEquals(2, bookDao.count(action));
+        bookDao.deleteAll();
+        assertEquals(0, bookDao.count(action));
+    }
+
+    public void testPrepackagedDatabase() throws Exception {
+        final List<SQLiteDatabase> errorDatabases = new ArrayList<>();
+        getContext().deleteDatabase("prepackaged");
+        PrepackagedDatabaseHelper prepackagedHelper = new PrepackagedDatabaseHelper(getContext(),
+                newErrorListener(errorDatabases));
+        prepackagedHelper.open();
+        try {
+            assertTrue(errorDatabases.isEmpty());
+            // Rows of the asset are kept
+            LiteBaseDao<Bookmark> bookmarkDao = new LiteBaseDao<>(prepackagedHelper, Bookmark.class);
+            assertEquals(2, bookmarkDao.count());
+            assertEquals(12, bookmarkDao.get("book-1").getPage());
+            // Tables are verified after install although schema sync is disabled
+            LiteBaseDao<ComicBook> bookDao = new LiteBaseDao<>(prepackagedHelper, ComicBook.class);
+            String tableName = bookDao.getTableMeta().getTableName();
+            LiteSchema schema = LiteSchema.load(prepackagedHelper.getDatabase());
+            assertTrue(schema.hasTable(tableName));
+            assertTrue(schema.hasTrigger("lite_count_insert_" + tableName));
+            assertTrue(schema.hasTable("lite_meta"));
+            bookDao.insert(new ComicBook("book-1", "source"));
+            assertEquals(1, bookDao.count());
+        } finally {
+            prepackagedHelper.close();
+            getContext().deleteDatabase("prepackaged");
+        }
+        // Install error is reported with the opened database
+        getContext().deleteDatabase("missing_asset");
+        MissingAssetDatabaseHelper missingHelper = new MissingAssetDatabaseHelper(getContext(),
+                newErrorListener(errorDatabases));
+        missingHelper.open();
+        try {
+            assertEquals(1, errorDatabases.size());
+            assertNotNull(errorDatabases.get(0));
+        } finally {
+            missingHelper.close();
+            getContext().deleteDatabase("missing_asset");
+        }
+    }
+
+    public void testStatementCache() throws Exception {
+        final LiteStatementCache statementCache = databaseHelper.getStatementCache();
+        statementCache.clear();
+        assertEquals(0, statementCache.size());
+        final String sql = "SELECT count(*) FROM [sqlite_master]";
+        SQLiteStatement statement = statementCache.acquire(sql);
+        // Borrowed statement is not shared
+        SQLiteStatement other = statementCache.acquire(sql);
+        assertNotSame(statement, other);
+        statementCache.release(sql, other);
+        statementCache.release(sql, statement);
+        assertEquals(1, statementCache.size());
+        // Given back statement is reused
+        assertSame(other, statementCache.acquire(sql));
+        statementCache.release(sql, other);
+        // Statements compiled on other threads are closed by clear()
+        final SQLiteStatement[] threadStatement = new SQLiteStatement[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                threadStatement[0] = statementCache.acquire(sql);
+                statementCache.release(sql, threadStatement[0]);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(2, statementCache.size());
+        statementCache.clear();
+        assertEquals(0, statementCache.size());
+        try {
+            threadStatement[0].simpleQueryForLong();
+            fail("Statement of other thread must be closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testExchangeClassSchema() throws Exception {
+        ClassSchemaDatabaseHelper classSchemaHelper = new ClassSchemaDatabaseHelper(getContext());
+        LiteQuery liteQuery = classSchemaHelper.getLiteQuery();
+        String contact = Contact.class.getName();
+        assertEquals("SELECT contact_name, age FROM Contact WHERE contact_name = 'name' AND age > ?",
+                liteQuery.exchange("SELECT name, age FROM " + contact + " WHERE name = 'name' AND age > ?"));
+        // Class qualifier is exchanged with the field
+        assertEquals("SELECT Contact.contact_name FROM Contact",
+                liteQuery.exchange("SELECT " + contact + ".name FROM " + contact));
+        // Alias qualifier is kept
+        assertEquals("SELECT c.contact_name FROM Contact c",
+                liteQuery.exchange("SELECT c.name FROM " + contact + " c"));
+        // Quoted identifiers are exchanged, string literals are kept
+        assertEquals("SELECT [contact_name] FROM [Contact] WHERE [contact_name] = 'it''s name'",
+                liteQuery.exchange("SELECT [name] FROM [" + contact + "] WHERE [name] = 'it''s name'"));
+        // Keywords, function names and aliases after AS are kept
+        assertEquals("SELECT count(*) AS total FROM Contact WHERE contact_name IS NOT NULL ORDER BY total DESC",
+                liteQuery.exchange("SELECT count(*) AS total FROM " + contact
+                        + " WHERE name IS NOT NULL ORDER BY total DESC"));
+        // Named parameters are kept
+        assertEquals("SELECT * FROM Contact WHERE contact_name = :name OR contact_name = @name OR contact_name = $name",
+                liteQuery.exchange("SELECT * FROM " + contact + " WHERE name = :name OR name = @name OR name = $name"));
+    }
+
+    @LiteDatabase(name = "class_schema", tables = {Contact.class}, version = 1, useClassSchema = true)
+    public static class ClassSchemaDatabaseHelper extends LiteDatabaseHelper {
+        public ClassSchemaDatabaseHelper(Context context) throws AnnotationNotFound, InvalidAnnotationData {
+            super(context);
+        }
+    }
+
+    @LiteDatabase(name = "missing_asset", tables = {Bookmark.class}, version = 1,
+            syncSchemaOnOpen = false, prepackagedAsset = "db/missing.db")
+    public static class MissingAssetDatabaseHelper extends LiteDatabaseHelper {
+        public MissingAssetDatabaseHelper(Context context, DatabaseListener databaseListener) throws AnnotationNotFound, InvalidAnnotationData {
+            super(context, databaseListener);
+        }
+    }
+
+    private LiteDatabaseHelper.DatabaseListener newErrorListener(final List<SQLiteDatabase> errorDatabases) {
+        return new LiteDatabaseHelper.DatabaseListener() {
+            @Override
+            public void onBeforeDatabaseCreate(SQLiteDatabase db) {
+
+            }
+
+            @Override
+            public void onAfterDatabaseCreate(SQLiteDatabase db) {
+
+            }
+
+            @Override
+            public void onBeforeDatabaseUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+            }
+
+            @Override
+            public void onAfterDatabaseUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+            }
+
+            @Override
+            public void onError(SQLiteDatabase db, final String message, Throwable throwable) {
+                Log.e(TAG, "onError " + message, throwable);
+                errorDatabases.add(db);
+            }
+        };
+    }
+
+    private String getStoredFingerprint() {
+        Cursor cursor = databaseHelper.getDatabase().rawQuery(
+                "SELECT [value] FROM [lite_meta] WHERE [key] = 'schema_fingerprint'", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -29,6 +29,8 @@ import android.content.Context;
 
 import com.luhonghai.litedb.LiteDatabaseHelper;
 import com.luhonghai.litedb.annotation.LiteDatabase;
+import com.luhonghai.litedb.example.entity.BookCategory;
+import com.luhonghai.litedb.example.entity.Bookmark;
 import com.luhonghai.litedb.example.entity.ComicBook;
 import com.luhonghai.litedb.example.entity.Contact;
 import com.luhonghai.litedb.exception.AnnotationNotFound;
@@ -37,7 +39,7 @@ import com.luhonghai.litedb.exception.InvalidAnnotationData;
 /**
  * Created by luhonghai on 07/09/15.
  */
-@LiteDatabase(tables = {Contact.class, ComicBook.class})
+@LiteDatabase(tables = {Contact.class, ComicBook.class, Bookmark.class, BookCategory.class}, version = 9)
 public class MainDatabaseHelper extends LiteDatabaseHelper {
     /**
      * Construct database service with context of the application.
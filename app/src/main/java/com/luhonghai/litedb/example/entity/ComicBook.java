@@ -27,6 +27,9 @@
 package com.luhonghai.litedb.example.entity;
 
 import com.luhonghai.litedb.annotation.LiteColumn;
+import com.luhonghai.litedb.annotation.LiteFullText;
+import com.luhonghai.litedb.annotation.LiteIndex;
+import com.luhonghai.litedb.annotation.LiteJsonIndex;
 import com.luhonghai.litedb.annotation.LiteTable;
 import com.luhonghai.litedb.example.StringHelper;
 
@@ -37,28 +40,33 @@ import java.util.List;
 /**
  * Created by cmg on 12/08/15.
  */
-@LiteTable(allowedParent = AbstractData.class)
-public class ComicBook extends AbstractData {
+@LiteTable(withoutRowId = true, contentHash = true, maintainCount = true,
+        indexes = @LiteIndex(name = "favorite", fields = {"isFavorite", "source"}))
+public class ComicBook {
 
-    @LiteColumn
+    @LiteColumn(isPrimaryKey = true)
     private String bookId;
 
     @LiteColumn
+    @LiteFullText
     private String name;
 
     @LiteColumn
+    @LiteFullText
     private String otherName;
 
     @LiteColumn
     private String status;
 
     @LiteColumn
+    @LiteIndex
     private String source;
 
     @LiteColumn
     private String service;
 
     @LiteColumn
+    @LiteIndex(unique = true)
     private String url;
 
     @LiteColumn
@@ -71,6 +79,7 @@ public class ComicBook extends AbstractData {
     private float rate;
 
     @LiteColumn
+    @LiteFullText
     private String description;
 
     @LiteColumn
@@ -91,6 +100,8 @@ public class ComicBook extends AbstractData {
     @LiteColumn
     private boolean isWatched;
 
+    @LiteColumn(json = true)
+    @LiteJsonIndex
     private List<String> categories;
 
     @LiteColumn
@@ -106,7 +117,8 @@ public class ComicBook extends AbstractData {
 
     }
 
-    public ComicBook(String source) {
+    public ComicBook(String bookId, String source) {
+        this.bookId = bookId;
         this.source = source;
     }
 
@@ -197,7 +209,7 @@ public class ComicBook extends AbstractData {
     @Override
     public boolean equals(Object obj) {
         if (obj != null && obj instanceof ComicBook) {
-            return this.getId() == ((ComicBook) obj).getId();
+            return this.bookId != null && this.bookId.equals(((ComicBook) obj).bookId);
         }
         return super.equals(obj);
     }
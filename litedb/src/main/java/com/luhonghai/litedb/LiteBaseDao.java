@@ -26,27 +26,44 @@
 
 package com.luhonghai.litedb;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteProgram;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.luhonghai.litedb.annotation.AnnotationHelper;
 import com.luhonghai.litedb.annotation.LiteColumn;
 import com.luhonghai.litedb.annotation.LiteTable;
+import com.luhonghai.litedb.bulk.AbstractBulk;
 import com.luhonghai.litedb.bulk.BulkInsert;
+import com.luhonghai.litedb.bulk.BulkJsonImport;
 import com.luhonghai.litedb.bulk.BulkUpdate;
+import com.luhonghai.litedb.bulk.BulkUpsert;
+import com.luhonghai.litedb.bulk.ContentHash;
 import com.luhonghai.litedb.exception.AnnotationNotFound;
 import com.luhonghai.litedb.exception.InvalidAnnotationData;
 import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.exception.QueryCanceledException;
 import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteJsonIndexMeta;
 import com.luhonghai.litedb.meta.LiteTableMeta;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -56,12 +73,19 @@ import java.lang.reflect.Method;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Future;
 
 /**
  * Created by luhonghai on 07/09/15.
@@ -71,6 +95,10 @@ public class LiteBaseDao<T> {
      *
      */
     public static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+    /**
+     * Maximum number of host parameters in a single SQLite statement
+     */
+    public static final int MAX_VARIABLE_NUMBER = 999;
     /**
      *
      */
@@ -87,6 +115,22 @@ public class LiteBaseDao<T> {
      *
      */
     private final SimpleDateFormat sdfDateValue;
+    /**
+     * Column plan of default select columns
+     */
+    private volatile LiteColumnPlan selectPlan;
+    /**
+     * Query of full-text search
+     */
+    private volatile String searchQuery;
+    /**
+     * Select columns by field name
+     */
+    private volatile String[] selectFieldColumns;
+    /**
+     * Query to select a full chunk of keys
+     */
+    private volatile String selectByKeysQuery;
 
     /**
      * Constructor
@@ -124,6 +168,14 @@ public class LiteBaseDao<T> {
         return annotationHelper;
     }
 
+    /**
+     * Get table class
+     * @return table class
+     */
+    public Class<T> getTableClass() {
+        return tableClass;
+    }
+
     /**
      * Get database helper
      * @return database helper
@@ -204,6 +256,9 @@ public class LiteBaseDao<T> {
             case STRING:
                 contentValues.put(key, fieldValue.toString());
                 break;
+            case JSON:
+                contentValues.put(key, LiteJson.toJson(fieldValue));
+                break;
             case INTEGER:
                 contentValues.put(key, Integer.valueOf(fieldValue.toString()));
                 break;
@@ -286,7 +341,6 @@ public class LiteBaseDao<T> {
     public Object getValueFromCursor(Cursor cursor, String fieldName)
             throws LiteDatabaseException {
         LiteColumnMeta columnMeta = getTableMeta().getColumns().get(fieldName);
-        Object value = null;
         int columnIndex;
         if (!"".equals(columnMeta.getAlias())) {
             columnIndex = cursor.getColumnIndex(columnMeta.getAlias());
@@ -294,6 +348,20 @@ public class LiteBaseDao<T> {
             columnIndex = cursor.getColumnIndex(columnMeta.getColumnName());
         }
         if (columnIndex == -1) return null;
+        return getValueFromCursor(cursor, columnIndex, columnMeta);
+    }
+
+    /**
+     * Get content from specific column index
+     * @param cursor
+     * @param columnIndex
+     * @param columnMeta
+     * @return value of column converted to field type
+     * @throws LiteDatabaseException
+     */
+    public Object getValueFromCursor(Cursor cursor, int columnIndex, LiteColumnMeta columnMeta)
+            throws LiteDatabaseException {
+        Object value = null;
         switch (columnMeta.getFieldType()) {
             case LONG:
                 value = cursor.getLong(columnIndex);
@@ -362,6 +430,9 @@ public class LiteBaseDao<T> {
                     }
                 }
                 break;
+            case JSON:
+                value = LiteJson.fromJson(cursor.getString(columnIndex), columnMeta.getField().getType());
+                break;
         }
         return value;
     }
@@ -421,6 +492,109 @@ public class LiteBaseDao<T> {
         return list;
     }
 
+    /**
+     * Check if running query should be stopped
+     */
+    private interface CancelCheck {
+        boolean isCanceled();
+    }
+
+    /**
+     * Map all rows of cursor to list. Cancel is checked between rows.
+     * Require API level 16
+     * @param cursor the cursor is closed when finished or canceled
+     * @param cancellationSignal
+     * @return list of objects
+     * @throws QueryCanceledException if the query is canceled
+     * @throws LiteDatabaseException
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public List<T> toList(final Cursor cursor, final CancellationSignal cancellationSignal)
+            throws LiteDatabaseException {
+        try {
+            return toList(cursor, new CancelCheck() {
+                @Override
+                public boolean isCanceled() {
+                    return cancellationSignal != null && cancellationSignal.isCanceled();
+                }
+            });
+        } catch (OperationCanceledException e) {
+            // Canceled while SQLite is filling the cursor window
+            throw new QueryCanceledException("Query is canceled", e);
+        }
+    }
+
+    /**
+     * Map all rows of cursor to list. Deadline is checked between rows
+     * @param cursor the cursor is closed when finished or canceled
+     * @param deadline uptime in milliseconds, same base as SystemClock.uptimeMillis()
+     * @return list of objects
+     * @throws QueryCanceledException if the deadline is passed
+     * @throws LiteDatabaseException
+     */
+    public List<T> toList(final Cursor cursor, final long deadline) throws LiteDatabaseException {
+        return toList(cursor, new CancelCheck() {
+            @Override
+            public boolean isCanceled() {
+                return SystemClock.uptimeMillis() > deadline;
+            }
+        });
+    }
+
+    /**
+     * Map all rows of cursor with one column plan, check cancel before each row
+     * @param cursor
+     * @param cancelCheck
+     * @return list of objects
+     * @throws LiteDatabaseException
+     */
+    private List<T> toList(final Cursor cursor, final CancelCheck cancelCheck) throws LiteDatabaseException {
+        try {
+            final List<T> list = new ArrayList<T>();
+            if (cancelCheck.isCanceled()) throw new QueryCanceledException("Query is canceled");
+            final LiteColumnPlan plan = LiteColumnPlan.forCursor(getTableMeta(), cursor);
+            while (cursor.moveToNext()) {
+                if (cancelCheck.isCanceled()) throw new QueryCanceledException("Query is canceled");
+                list.add(toObject(cursor, plan));
+            }
+            return list;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * List objects by selection, could be canceled. Require API level 16
+     * @param selection
+     * @param selectionArgs
+     * @param orderBy
+     * @param cancellationSignal
+     * @return list of objects
+     * @throws QueryCanceledException if the query is canceled
+     * @throws LiteDatabaseException
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public List<T> list(String selection, String[] selectionArgs, String orderBy,
+                        CancellationSignal cancellationSignal) throws LiteDatabaseException {
+        return toList(query(selection, selectionArgs, null, null, orderBy, null, cancellationSignal),
+                cancellationSignal);
+    }
+
+    /**
+     * List objects by selection, stop when deadline is passed
+     * @param selection
+     * @param selectionArgs
+     * @param orderBy
+     * @param deadline uptime in milliseconds, same base as SystemClock.uptimeMillis()
+     * @return list of objects
+     * @throws QueryCanceledException if the deadline is passed
+     * @throws LiteDatabaseException
+     */
+    public List<T> list(String selection, String[] selectionArgs, String orderBy, long deadline)
+            throws LiteDatabaseException {
+        return toList(query(selection, selectionArgs, null, null, orderBy), deadline);
+    }
+
     /**
      *
      * @param cursor
@@ -428,9 +602,41 @@ public class LiteBaseDao<T> {
      * @throws LiteDatabaseException
      */
     public T toObject(final Cursor cursor) throws LiteDatabaseException {
-        T obj;
+        T obj = newInstance();
+        bindObject(obj, cursor);
+        return obj;
+    }
+
+    /**
+     * Map current row of cursor to new object with resolved column plan
+     * @param cursor
+     * @param plan
+     * @return Object with full data from cursor
+     * @throws LiteDatabaseException
+     */
+    public T toObject(final Cursor cursor, final LiteColumnPlan plan) throws LiteDatabaseException {
+        final T obj = newInstance();
+        for (int i = 0; i < plan.size(); i++) {
+            final LiteColumnMeta columnMeta = plan.getColumn(i);
+            final Object value = getValueFromCursor(cursor, plan.getColumnIndex(i), columnMeta);
+            if (value == null && columnMeta.getField().getType().isPrimitive()) continue;
+            try {
+                columnMeta.getField().set(obj, value);
+            } catch (IllegalAccessException e) {
+                throw new LiteDatabaseException("Could not set value to object field from database cursor",e);
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Create new empty object of table class
+     * @return new object
+     * @throws LiteDatabaseException
+     */
+    public T newInstance() throws LiteDatabaseException {
         try {
-            obj = tableClass.newInstance();
+            return tableClass.newInstance();
         } catch (InstantiationException e) {
             throw new LiteDatabaseException("Could not create new instance of class " + tableClass.getName(),
                     e);
@@ -438,9 +644,6 @@ public class LiteBaseDao<T> {
             throw new LiteDatabaseException("Could not create new instance of class " + tableClass.getName(),
                     e);
         }
-
-        bindObject(obj, cursor);
-        return obj;
     }
 
     /**
@@ -458,28 +661,33 @@ public class LiteBaseDao<T> {
      * @throws LiteDatabaseException
      */
     public void delete(String whereClause, String[] whereArgs) throws LiteDatabaseException {
+            recordShape(whereClause, null);
             getDatabase()
                     .delete(getTableName(),
-                            getLiteQuery().exchange(whereClause),
+                            getLiteQuery().exchange(whereClause, tableClass),
                             whereArgs);
 
     }
 
     /**
      * Delete by object key
-     * @param key
+     * @param key primary key value. Object[] or List of values in key order for composite primary key
      * @throws LiteDatabaseException
      */
     public void deleteByKey(Object key) throws LiteDatabaseException {
-        String primaryColumn = getTableMeta().getPrimaryKey();
-        delete("[" +
-                        (databaseHelper.isUseClassSchema()
-                                ? primaryColumn
-                                : getTableMeta().getColumns().get(primaryColumn).getColumnName())
-                        + "] = ?",
-                new String[]{
-                        key.toString()
-                });
+        final LiteTableMeta tableMeta = getTableMeta();
+        final Object[] keyValues = toKeyValues(key);
+        final String sql = "DELETE FROM [" + tableMeta.getTableName() + "] WHERE " + tableMeta.getKeyCondition();
+        final LiteStatementCache statementCache = databaseHelper.getStatementCache();
+        final SQLiteStatement statement = statementCache.acquire(sql);
+        try {
+            for (int i = 0; i < keyValues.length; i++) {
+                bindArg(statement, i + 1, keyValues[i]);
+            }
+            statement.execute();
+        } finally {
+            statementCache.release(sql, statement);
+        }
     }
 
     /**
@@ -488,8 +696,18 @@ public class LiteBaseDao<T> {
      * @throws LiteDatabaseException
      */
     public void delete(T obj) throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        final String[] primaryKeys = tableMeta.getPrimaryKeys();
         try {
-            deleteByKey(getTableMeta().getColumns().get(getTableMeta().getPrimaryKey()).getValue(obj));
+            if (primaryKeys.length == 1) {
+                deleteByKey(tableMeta.getColumns().get(primaryKeys[0]).getValue(obj));
+                return;
+            }
+            final Object[] keyValues = new Object[primaryKeys.length];
+            for (int i = 0; i < primaryKeys.length; i++) {
+                keyValues[i] = tableMeta.getColumns().get(primaryKeys[i]).getValue(obj);
+            }
+            deleteByKey(keyValues);
         } catch (IllegalAccessException e) {
             throw new LiteDatabaseException("Could not delete object", e);
         }
@@ -547,6 +765,91 @@ public class LiteBaseDao<T> {
         }
     }
 
+    /**
+     * Insert very large array of object. Commit every chunkSize rows to keep the lock hold time bounded
+     * @param list
+     * @param chunkSize number of rows per transaction
+     * @param checkpoint number of rows committed by previous run. Zero to start from the beginning
+     * @param progressListener listen for committed chunk. Can be null
+     * @return the list of created object id
+     * @throws LiteDatabaseException
+     */
+    public long[] insert(final Collection<T> list, int chunkSize, long checkpoint,
+                         AbstractBulk.ProgressListener progressListener) throws LiteDatabaseException {
+        final BulkInsert<T> bulkInsert = newBulkInsert(true);
+        bulkInsert.setChunkSize(chunkSize, 0);
+        bulkInsert.setProgressListener(progressListener);
+        bulkInsert.begin();
+        try {
+            long[] ids = bulkInsert.execute(list, checkpoint);
+            bulkInsert.success();
+            return ids;
+        } finally {
+            bulkInsert.end();
+        }
+    }
+
+    /**
+     * Stream JSON array of objects from input stream into this table.
+     * Parsing runs on separate thread and rows are committed in batches.
+     * Require API level 11
+     * @param inputStream UTF-8 JSON array. Not closed by this method
+     * @return number of imported rows
+     * @throws LiteDatabaseException if API level is lower than 11 or import failed
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public long importJson(InputStream inputStream) throws LiteDatabaseException {
+        return new BulkJsonImport<T>(this).execute(inputStream);
+    }
+
+    /**
+     * Stream JSON array of objects from input stream into this table.
+     * Require API level 11
+     * @param inputStream UTF-8 JSON array. Not closed by this method
+     * @param batchSize number of rows per transaction
+     * @return number of imported rows
+     * @throws LiteDatabaseException if API level is lower than 11 or import failed
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public long importJson(InputStream inputStream, int batchSize) throws LiteDatabaseException {
+        return new BulkJsonImport<T>(this, batchSize, BulkJsonImport.DEFAULT_QUEUE_SIZE).execute(inputStream);
+    }
+
+    /**
+     * Update record by primary key, or insert it if not found. Not use transaction by default
+     * @param obj
+     * @return 1 if the object is inserted, 0 if an existing row is updated
+     * @throws LiteDatabaseException
+     */
+    public long upsert(T obj) throws LiteDatabaseException {
+        final BulkUpsert<T> bulkUpsert = newBulkUpsert(false);
+        bulkUpsert.begin();
+        try {
+            long id = bulkUpsert.execute(obj);
+            bulkUpsert.success();
+            return id;
+        } finally {
+            bulkUpsert.end();
+        }
+    }
+
+    /**
+     * Use transaction to update or insert bulk array of object by primary key
+     * @param list
+     * @return 1 for each inserted object, 0 for each updated row
+     * @throws LiteDatabaseException
+     */
+    public long[] upsert(Collection<T> list) throws LiteDatabaseException {
+        final BulkUpsert<T> bulkUpsert = newBulkUpsert(true);
+        bulkUpsert.begin();
+        try {
+            long[] data = bulkUpsert.execute(list);
+            bulkUpsert.success();
+            return data;
+        } finally {
+            bulkUpsert.end();
+        }
+    }
 
     /**
      * Update record by primary key
@@ -607,6 +910,30 @@ public class LiteBaseDao<T> {
         return update(list, true);
     }
 
+    /**
+     * Update very large array of object. Commit every chunkSize rows to keep the lock hold time bounded
+     * @param list
+     * @param chunkSize number of rows per transaction
+     * @param checkpoint number of rows committed by previous run. Zero to start from the beginning
+     * @param progressListener listen for committed chunk. Can be null
+     * @return
+     * @throws LiteDatabaseException
+     */
+    public long[] update(Collection<T> list, int chunkSize, long checkpoint,
+                         AbstractBulk.ProgressListener progressListener) throws LiteDatabaseException {
+        final BulkUpdate<T> bulkUpdate = newBulkUpdate(true);
+        bulkUpdate.setChunkSize(chunkSize, 0);
+        bulkUpdate.setProgressListener(progressListener);
+        bulkUpdate.begin();
+        try {
+            long[] data = bulkUpdate.execute(list, checkpoint);
+            bulkUpdate.success();
+            return data;
+        } finally {
+            bulkUpdate.end();
+        }
+    }
+
     /**
      * Update table record
      * @param contentValues
@@ -616,142 +943,1332 @@ public class LiteBaseDao<T> {
      * @throws LiteDatabaseException
      */
     public int update(ContentValues contentValues, String whereClause, String[] whereArgs) throws LiteDatabaseException {
+        if (getTableMeta().getJsonIndexes().isEmpty()) {
             return getDatabase().update(getTableName(),
                     contentValues,
-                    getLiteQuery().exchange(whereClause),
+                    getLiteQuery().exchange(whereClause, tableClass),
+                    whereArgs);
+        }
+        // Update trigger removes JSON index values of updated rows, index them again in the same transaction
+        final SQLiteDatabase db = getDatabase();
+        db.beginTransaction();
+        try {
+            final int count = db.update(getTableName(),
+                    contentValues,
+                    getLiteQuery().exchange(whereClause, tableClass),
                     whereArgs);
+            refreshJsonIndexes();
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
-     * Simple query that call SQLite database query
-     * @param distinct
-     * @param selection
-     * @param selectionArgs
-     * @param groupBy
-     * @param having
-     * @param orderBy
-     * @param limit
-     * @return database cursor
+     * Index JSON columns of rows that are updated outside of bulk writes, by ContentValues or raw SQL.
+     * Update trigger removes old values of these rows and marks them in pending table
+     * @return number of indexed rows
      * @throws LiteDatabaseException
      */
-    public Cursor query(boolean distinct,
-                        String selection, String[] selectionArgs, String groupBy,
-                        String having, String orderBy, String limit) throws LiteDatabaseException {
-        String sql = SQLiteQueryBuilder.buildQueryString(distinct,
-                "[" + (databaseHelper.isUseClassSchema() ? tableClass.getName() : getTableMeta().getTableName()) + "]",
-                databaseHelper.isUseClassSchema() ? getTableMeta().getSelectFields() : getColumns(),
-                selection,
-                groupBy,
-                having,
-                orderBy,
-                limit);
-        Log.d(this.getClass().getName(), "Execute query: " + sql);
-        return getDatabase().rawQueryWithFactory(null, getLiteQuery().exchange(sql), selectionArgs, null);
+    public int refreshJsonIndexes() throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        final SQLiteDatabase db = getDatabase();
+        int count = 0;
+        for (LiteJsonIndexMeta jsonIndexMeta : tableMeta.getJsonIndexes()) {
+            final String[] args = new String[] {jsonIndexMeta.getTableName()};
+            if (simpleQueryForLong("SELECT count(*) FROM (SELECT 1 FROM [" + LiteJsonIndexMeta.PENDING_TABLE
+                    + "] WHERE [index_table] = ? LIMIT 1)", args) == 0) continue;
+            db.beginTransaction();
+            try {
+                count += LiteDatabaseHelper.fillJsonIndex(db, tableMeta, jsonIndexMeta,
+                        tableMeta.getDocCondition("SELECT [doc] FROM [" + LiteJsonIndexMeta.PENDING_TABLE
+                                + "] WHERE [index_table] = ?"), args);
+                db.execSQL("DELETE FROM [" + LiteJsonIndexMeta.PENDING_TABLE + "] WHERE [index_table] = ?", args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return count;
     }
 
     /**
-     *
-     * @param selection
-     * @param selectionArgs
-     * @param groupBy
-     * @param having
-     * @param orderBy
-     * @param limit
-     * @return database cursor
+     * Queue new insertion to the write queue of database helper.
+     * Many insertions are grouped into one transaction
+     * @param obj
+     * @return future of the row id of created object
      * @throws LiteDatabaseException
      */
-    public Cursor query(String selection, String[] selectionArgs, String groupBy,
-                        String having, String orderBy, String limit) throws LiteDatabaseException {
-        return query(false,
-                selection,
-                selectionArgs,
-                groupBy,
-                having,
-                orderBy,
-                limit);
+    public Future<Long> insertAsync(T obj) throws LiteDatabaseException {
+        return databaseHelper.getWriteQueue().insert(this, obj);
     }
 
     /**
-     *
-     * @param selection
-     * @param selectionArgs
-     * @param groupBy
-     * @param having
-     * @param orderBy
-     * @return
+     * Queue new updating by primary key to the write queue of database helper
+     * @param obj
+     * @return future of the number of rows affected
      * @throws LiteDatabaseException
      */
-    public Cursor query(String selection, String[] selectionArgs, String groupBy,
-                        String having, String orderBy) throws LiteDatabaseException {
-        return query(false,
-                selection,
-                selectionArgs,
-                groupBy,
-                having,
-                orderBy,
-                null);
+    public Future<Long> updateAsync(T obj) throws LiteDatabaseException {
+        return databaseHelper.getWriteQueue().update(this, obj);
     }
 
     /**
-     *
-     * @param selection
-     * @param selectionArgs
-     * @return database cursor by selection
+     * Queue new deletion by object to the write queue of database helper
+     * @param obj
+     * @return future that completes when deletion is committed
      * @throws LiteDatabaseException
      */
-    public Cursor query(String selection, String[] selectionArgs) throws LiteDatabaseException {
-        return query(selection, selectionArgs, null, null, null, null);
-    }
-
-    /**
-     * Simple raw query
-     * @param sql
-     * @param args
-     * @return raw database cursor
-     */
-    public Cursor rawQuery(String sql, String[] args) throws LiteDatabaseException {
-        return getDatabase().rawQuery(getLiteQuery().exchange(sql), args);
+    public Future<Long> deleteAsync(T obj) throws LiteDatabaseException {
+        return databaseHelper.getWriteQueue().delete(this, obj);
     }
 
     /**
-     * Get object by key
+     * Queue new deletion by object key to the write queue of database helper
      * @param key
-     * @return object contains this primary key value
+     * @return future that completes when deletion is committed
      * @throws LiteDatabaseException
      */
-    public T get(Object key) throws LiteDatabaseException {
-        final String primaryColumn = getTableMeta().getPrimaryKey();
-        Cursor cursor = query("[" +
-                (databaseHelper.isUseClassSchema() ? primaryColumn : getTableMeta().getColumns().get(primaryColumn).getColumnName())
-                + "] = ?", new String[] {key.toString()});
-        if (cursor.moveToFirst()) {
-            try {
-                return toObject(cursor);
-            } finally {
-                cursor.close();
-            }
-        }
-        return null;
+    public Future<Long> deleteByKeyAsync(Object key) throws LiteDatabaseException {
+        return databaseHelper.getWriteQueue().deleteByKey(this, key);
     }
 
     /**
-     * List all records from table
-     * @return array of all object on this table
-     * @throws LiteDatabaseException
+     * Result of reconcile
      */
-    public List<T> listAll() throws LiteDatabaseException {
-        return toList(query(null, null));
-    }
+    public static class ReconcileResult {
 
-    /**
-     * Get count of all record
-     * @return number of all records
-     * @throws LiteDatabaseException
-     */
+        private int inserted;
+
+        private int updated;
+
+        private int deleted;
+
+        private int unchanged;
+
+        public int getInserted() {
+            return inserted;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Check if any row is written
+         * @return true if there is at least one insertion, updating or deletion
+         */
+        public boolean isChanged() {
+            return inserted + updated + deleted > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "inserted: " + inserted + ", updated: " + updated
+                    + ", deleted: " + deleted + ", unchanged: " + unchanged;
+        }
+    }
+
+    /**
+     * Number of existing rows loaded per page during reconcile
+     */
+    private static final int RECONCILE_PAGE_SIZE = 500;
+
+    /**
+     * Make this table match incoming data.
+     * Existing rows are streamed ordered by key and merge-joined against incoming objects.
+     * Rows with the same key are compared by content hash, so only missing rows are inserted,
+     * changed rows are updated and rows not in incoming data are deleted.
+     * All writes are applied in one unit of work. No write is done if nothing changed.
+     *
+     * Require @LiteTable(contentHash = true). Key column must be unique and not null.
+     * String keys are sorted by String.compareTo, the same as SQLite BINARY collation for BMP characters
+     * @param sortedIncoming incoming objects sorted ascending by key field
+     * @param keyField name of key field
+     * @return number of inserted, updated, deleted and unchanged rows
+     * @throws LiteDatabaseException
+     */
+    public ReconcileResult reconcile(Iterator<T> sortedIncoming, String keyField) throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        if (tableMeta.getHashColumn() == null)
+            throw new LiteDatabaseException("Reconcile requires @LiteTable(contentHash = true) on "
+                    + tableClass.getName());
+        if (tableMeta.isCompositeKey())
+            throw new LiteDatabaseException("Reconcile does not support composite primary key of "
+                    + tableClass.getName());
+        final LiteColumnMeta keyMeta = tableMeta.getColumns().get(keyField);
+        if (keyMeta == null)
+            throw new LiteDatabaseException("Key field " + keyField + " is not found on " + tableClass.getName());
+        final LiteColumnMeta primaryMeta = tableMeta.getColumns().get(tableMeta.getPrimaryKey());
+        final String keyColumn = "[" + keyMeta.getColumnName() + "]";
+        final String sql = "SELECT [" + primaryMeta.getColumnName() + "], " + keyColumn
+                + ", [" + tableMeta.getHashColumn() + "] FROM [" + tableMeta.getTableName() + "]";
+        final Reconciliation reconciliation = new Reconciliation(tableMeta, primaryMeta);
+        boolean successful = false;
+        try {
+            T incoming = null;
+            Object incomingKey = null;
+            if (sortedIncoming.hasNext()) {
+                incoming = sortedIncoming.next();
+                incomingKey = getKeyValue(keyMeta, incoming);
+            }
+            String lastKey = null;
+            boolean lastPage = false;
+            final List<Object[]> page = new ArrayList<Object[]>(RECONCILE_PAGE_SIZE);
+            while (!lastPage) {
+                // Load next page of existing rows. Writes of previous pages are all before lastKey
+                page.clear();
+                Cursor cursor = getDatabase().rawQuery(sql
+                                + (lastKey == null ? "" : " WHERE " + keyColumn + " > ?")
+                                + " ORDER BY " + keyColumn + " LIMIT " + RECONCILE_PAGE_SIZE,
+                        lastKey == null ? null : new String[]{lastKey});
+                try {
+                    while (cursor.moveToNext()) {
+                        page.add(new Object[]{
+                                getValueFromCursor(cursor, 0, primaryMeta),
+                                getKeyValue(cursor, 1, keyMeta),
+                                cursor.isNull(2) ? null : cursor.getLong(2)
+                        });
+                    }
+                } finally {
+                    cursor.close();
+                }
+                lastPage = page.size() < RECONCILE_PAGE_SIZE;
+                for (Object[] row : page) {
+                    int compare = -1;
+                    while (incoming != null && (compare = compareKeys(incomingKey, row[1])) < 0) {
+                        reconciliation.insert(incoming);
+                        incoming = sortedIncoming.hasNext() ? sortedIncoming.next() : null;
+                        incomingKey = nextKey(keyMeta, incoming, incomingKey);
+                    }
+                    if (incoming != null && compare == 0) {
+                        if (row[2] == null || (Long) row[2] != ContentHash.hash(tableMeta, incoming)) {
+                            reconciliation.update(incoming, row[0]);
+                        } else {
+                            reconciliation.result.unchanged++;
+                        }
+                        incoming = sortedIncoming.hasNext() ? sortedIncoming.next() : null;
+                        incomingKey = nextKey(keyMeta, incoming, incomingKey);
+                    } else {
+                        reconciliation.delete(row[0]);
+                    }
+                }
+                if (page.size() > 0) lastKey = page.get(page.size() - 1)[1].toString();
+            }
+            while (incoming != null) {
+                reconciliation.insert(incoming);
+                incoming = sortedIncoming.hasNext() ? sortedIncoming.next() : null;
+                incomingKey = nextKey(keyMeta, incoming, incomingKey);
+            }
+            successful = true;
+        } finally {
+            reconciliation.end(successful);
+        }
+        return reconciliation.result;
+    }
+
+    /**
+     * Get key of next incoming object. Check the sort order
+     * @param keyMeta
+     * @param incoming
+     * @param previousKey
+     * @return key of incoming object
+     * @throws LiteDatabaseException
+     */
+    private Object nextKey(LiteColumnMeta keyMeta, T incoming, Object previousKey) throws LiteDatabaseException {
+        if (incoming == null) return null;
+        Object key = getKeyValue(keyMeta, incoming);
+        if (compareKeys(key, previousKey) <= 0)
+            throw new LiteDatabaseException("Incoming data is not sorted by key. Key " + key
+                    + " is after " + previousKey);
+        return key;
+    }
+
+    /**
+     * Get comparable key value of object
+     * @param keyMeta
+     * @param object
+     * @return Long, Double or String
+     * @throws LiteDatabaseException
+     */
+    private Object getKeyValue(LiteColumnMeta keyMeta, T object) throws LiteDatabaseException {
+        Object value;
+        try {
+            value = keyMeta.getValue(object);
+        } catch (IllegalAccessException e) {
+            throw new LiteDatabaseException("could not get key value", e);
+        }
+        if (value == null)
+            throw new LiteDatabaseException("Key field " + keyMeta.getField().getName() + " is null");
+        if (value instanceof Double || value instanceof Float) return ((Number) value).doubleValue();
+        if (value instanceof Number) return ((Number) value).longValue();
+        if (value instanceof Boolean) return (Boolean) value ? 1L : 0L;
+        if (value instanceof Date) {
+            if (keyMeta.getDateColumnType() == LiteColumnType.TEXT) return sdfDateValue.format((Date) value);
+            return ((Date) value).getTime();
+        }
+        return value.toString();
+    }
+
+    /**
+     * Get comparable key value of cursor
+     * @param cursor
+     * @param columnIndex
+     * @param keyMeta
+     * @return Long, Double or String
+     */
+    Object getKeyValue(Cursor cursor, int columnIndex, LiteColumnMeta keyMeta) {
+        switch (keyMeta.getFieldType()) {
+            case DOUBLE:
+            case FLOAT:
+                return cursor.getDouble(columnIndex);
+            case STRING:
+                return cursor.getString(columnIndex);
+            case DATE:
+                if (keyMeta.getDateColumnType() == LiteColumnType.TEXT) return cursor.getString(columnIndex);
+                return cursor.getLong(columnIndex);
+            default:
+                return cursor.getLong(columnIndex);
+        }
+    }
+
+    /**
+     * Compare keys with the same order as SQLite
+     * @param key1
+     * @param key2
+     * @return negative, zero or positive number
+     */
+    private static int compareKeys(Object key1, Object key2) {
+        if (key1 instanceof Number && key2 instanceof Number) {
+            if (key1 instanceof Double || key2 instanceof Double) {
+                double d1 = ((Number) key1).doubleValue();
+                double d2 = ((Number) key2).doubleValue();
+                return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+            }
+            long l1 = ((Number) key1).longValue();
+            long l2 = ((Number) key2).longValue();
+            return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+        }
+        return key1.toString().compareTo(key2.toString());
+    }
+
+    /**
+     * Writes of a reconcile. Unit of work is started on the first write
+     */
+    private class Reconciliation {
+
+        private final LiteTableMeta tableMeta;
+
+        private final LiteColumnMeta primaryMeta;
+
+        private final ReconcileResult result = new ReconcileResult();
+
+        private LiteTransaction transaction;
+
+        private BulkInsert<T> bulkInsert;
+
+        private BulkUpdate<T> bulkUpdate;
+
+        Reconciliation(LiteTableMeta tableMeta, LiteColumnMeta primaryMeta) {
+            this.tableMeta = tableMeta;
+            this.primaryMeta = primaryMeta;
+        }
+
+        private void beginIfNeeded() {
+            if (transaction == null) transaction = databaseHelper.beginTransaction();
+        }
+
+        void insert(T object) throws LiteDatabaseException {
+            beginIfNeeded();
+            if (bulkInsert == null) {
+                bulkInsert = newBulkInsert(transaction);
+                bulkInsert.begin();
+            }
+            bulkInsert.execute(object);
+            result.inserted++;
+        }
+
+        void update(T object, Object primaryKey) throws LiteDatabaseException {
+            beginIfNeeded();
+            if (bulkUpdate == null) {
+                bulkUpdate = newBulkUpdate(transaction);
+                bulkUpdate.begin();
+            }
+            // Primary key of existing row is bound directly, incoming object is not changed
+            bulkUpdate.execute(object, new Object[]{primaryKey});
+            result.updated++;
+        }
+
+        void delete(Object primaryKey) throws LiteDatabaseException {
+            beginIfNeeded();
+            SQLiteStatement statement = transaction.getStatement("DELETE FROM [" + tableMeta.getTableName()
+                    + "] WHERE [" + primaryMeta.getColumnName() + "] = ?");
+            bindArg(statement, 1, primaryKey);
+            statement.execute();
+            statement.clearBindings();
+            result.deleted++;
+        }
+
+        void end(boolean successful) {
+            if (transaction == null) return;
+            if (bulkInsert != null) bulkInsert.end();
+            if (bulkUpdate != null) bulkUpdate.end();
+            if (successful) transaction.success();
+            transaction.end();
+        }
+    }
+
+    /**
+     * Bind typed value to SQLite program.
+     * Keep the integer affinity of number values
+     * @param program
+     * @param index
+     * @param value
+     */
+    public static void bindArg(SQLiteProgram program, int index, Object value) {
+        if (value == null) {
+            program.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            program.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            program.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            program.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            program.bindBlob(index, (byte[]) value);
+        } else if (value instanceof Date) {
+            program.bindLong(index, ((Date) value).getTime());
+        } else {
+            program.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Select columns by field name, use with class schema.
+     * Column alias is kept, so the cursor has the same column names as the table schema
+     * @return select columns
+     * @throws LiteDatabaseException
+     */
+    private String[] getSelectFieldColumns() throws LiteDatabaseException {
+        if (selectFieldColumns == null) {
+            final LiteTableMeta tableMeta = getTableMeta();
+            final String[] selectFields = tableMeta.getSelectFields();
+            final String[] columns = new String[selectFields.length];
+            for (int i = 0; i < selectFields.length; i++) {
+                final String alias = tableMeta.getColumns().get(selectFields[i]).getAlias();
+                columns[i] = "[" + selectFields[i] + "]" + ("".equals(alias) ? "" : " AS [" + alias + "]");
+            }
+            selectFieldColumns = columns;
+        }
+        return selectFieldColumns;
+    }
+
+    /**
+     * Simple query that call SQLite database query
+     * @param distinct
+     * @param selection
+     * @param selectionArgs
+     * @param groupBy
+     * @param having
+     * @param orderBy
+     * @param limit
+     * @return database cursor
+     * @throws LiteDatabaseException
+     */
+    public Cursor query(boolean distinct,
+                        String selection, String[] selectionArgs, String groupBy,
+                        String having, String orderBy, String limit) throws LiteDatabaseException {
+        String sql = SQLiteQueryBuilder.buildQueryString(distinct,
+                "[" + (databaseHelper.isUseClassSchema() ? tableClass.getName() : getTableMeta().getTableName()) + "]",
+                databaseHelper.isUseClassSchema() ? getSelectFieldColumns() : getColumns(),
+                selection,
+                groupBy,
+                having,
+                orderBy,
+                limit);
+        Log.d(this.getClass().getName(), "Execute query: " + sql);
+        recordShape(selection, orderBy);
+        return getDatabase().rawQueryWithFactory(null, getLiteQuery().exchange(sql, tableClass), selectionArgs, null);
+    }
+
+    /**
+     * Query that could be canceled. Require API level 16
+     * @param selection
+     * @param selectionArgs
+     * @param groupBy
+     * @param having
+     * @param orderBy
+     * @param limit
+     * @param cancellationSignal
+     * @return database cursor
+     * @throws QueryCanceledException if the query is canceled
+     * @throws LiteDatabaseException
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Cursor query(String selection, String[] selectionArgs, String groupBy,
+                        String having, String orderBy, String limit,
+                        CancellationSignal cancellationSignal) throws LiteDatabaseException {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                "[" + (databaseHelper.isUseClassSchema() ? tableClass.getName() : getTableMeta().getTableName()) + "]",
+                databaseHelper.isUseClassSchema() ? getSelectFieldColumns() : getColumns(),
+                selection,
+                groupBy,
+                having,
+                orderBy,
+                limit);
+        recordShape(selection, orderBy);
+        try {
+            return getDatabase().rawQueryWithFactory(null, getLiteQuery().exchange(sql, tableClass),
+                    selectionArgs, null, cancellationSignal);
+        } catch (OperationCanceledException e) {
+            throw new QueryCanceledException("Query is canceled", e);
+        }
+    }
+
+    /**
+     *
+     * @param selection
+     * @param selectionArgs
+     * @param groupBy
+     * @param having
+     * @param orderBy
+     * @param limit
+     * @return database cursor
+     * @throws LiteDatabaseException
+     */
+    public Cursor query(String selection, String[] selectionArgs, String groupBy,
+                        String having, String orderBy, String limit) throws LiteDatabaseException {
+        return query(false,
+                selection,
+                selectionArgs,
+                groupBy,
+                having,
+                orderBy,
+                limit);
+    }
+
+    /**
+     *
+     * @param selection
+     * @param selectionArgs
+     * @param groupBy
+     * @param having
+     * @param orderBy
+     * @return
+     * @throws LiteDatabaseException
+     */
+    public Cursor query(String selection, String[] selectionArgs, String groupBy,
+                        String having, String orderBy) throws LiteDatabaseException {
+        return query(false,
+                selection,
+                selectionArgs,
+                groupBy,
+                having,
+                orderBy,
+                null);
+    }
+
+    /**
+     *
+     * @param selection
+     * @param selectionArgs
+     * @return database cursor by selection
+     * @throws LiteDatabaseException
+     */
+    public Cursor query(String selection, String[] selectionArgs) throws LiteDatabaseException {
+        return query(selection, selectionArgs, null, null, null, null);
+    }
+
+    /**
+     * Lazy list of objects by selection. Only rowid index of the result is loaded,
+     * objects are loaded by chunks when they are accessed
+     * @param selection
+     * @param selectionArgs
+     * @param orderBy
+     * @return lazy list of objects
+     * @throws LiteDatabaseException
+     */
+    public LiteLazyList<T> lazyList(String selection, String[] selectionArgs, String orderBy)
+            throws LiteDatabaseException {
+        return lazyList(selection, selectionArgs, orderBy,
+                LiteLazyList.DEFAULT_CHUNK_SIZE, LiteLazyList.DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Lazy list of objects by selection
+     * @param selection
+     * @param selectionArgs
+     * @param orderBy
+     * @param chunkSize number of rows that are loaded together, at most MAX_VARIABLE_NUMBER
+     * @param cacheSize number of loaded objects that are kept
+     * @return lazy list of objects
+     * @throws LiteDatabaseException
+     */
+    public LiteLazyList<T> lazyList(String selection, String[] selectionArgs, String orderBy,
+                                    int chunkSize, int cacheSize) throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        final String where = (selection == null ? "" : " WHERE " + getLiteQuery().exchange(selection, tableClass))
+                + (orderBy == null ? "" : " ORDER BY " + getLiteQuery().exchange(orderBy, tableClass));
+        if (tableMeta.isWithoutRowId()) {
+            // No rowid, index by primary key
+            if (tableMeta.isCompositeKey())
+                throw new LiteDatabaseException("Lazy list does not support WITHOUT ROWID table "
+                        + "with composite primary key");
+            final LiteColumnMeta keyMeta = tableMeta.getColumns().get(tableMeta.getPrimaryKey());
+            final List<Object> keys = new ArrayList<Object>();
+            Cursor cursor = getDatabase().rawQuery("SELECT [" + keyMeta.getColumnName() + "] FROM ["
+                    + tableMeta.getTableName() + "]" + where, selectionArgs);
+            try {
+                while (cursor.moveToNext()) {
+                    keys.add(getKeyValue(cursor, 0, keyMeta));
+                }
+            } finally {
+                cursor.close();
+            }
+            return new LiteLazyList<T>(this, keys.toArray(), chunkSize, cacheSize);
+        }
+        String sql = "SELECT rowid FROM [" + tableMeta.getTableName() + "]" + where;
+        long[] rowIds = new long[256];
+        int size = 0;
+        Cursor cursor = getDatabase().rawQuery(sql, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                if (size == rowIds.length) {
+                    long[] grown = new long[size * 2];
+                    System.arraycopy(rowIds, 0, grown, 0, size);
+                    rowIds = grown;
+                }
+                rowIds[size++] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        long[] result = new long[size];
+        System.arraycopy(rowIds, 0, result, 0, size);
+        return new LiteLazyList<T>(this, result, chunkSize, cacheSize);
+    }
+
+    /**
+     * Full-text search on full-text columns. Require LiteFullText columns.
+     * Rank is the number of matched term occurrences, from offsets(). It is not weighted
+     * by term frequency over all rows or by text length, so a long text that repeats common terms
+     * ranks high. Below Android API level 11 the full-text table is FTS3
+     * @param query full-text query, use FTS3/FTS4 MATCH syntax
+     * @param limit maximum number of objects
+     * @return objects ranked by number of matched term occurrences
+     * @throws LiteDatabaseException
+     */
+    public List<T> search(String query, int limit) throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        if (tableMeta.getFullTextTable() == null) {
+            throw new LiteDatabaseException("Table " + tableMeta.getTableName() + " has no full-text column");
+        }
+        if (searchQuery == null) {
+            final String fullTextTable = "[" + tableMeta.getFullTextTable() + "]";
+            final String docTable = tableMeta.getDocTable();
+            final String join;
+            if (docTable == null) {
+                join = " JOIN (SELECT docid AS [_lite_docid], offsets(" + fullTextTable + ") AS [_lite_offsets]"
+                        + " FROM " + fullTextTable + " WHERE " + fullTextTable + " MATCH ?) AS [_lite_match]"
+                        + " ON [" + tableMeta.getTableName() + "].rowid = [_lite_match].[_lite_docid]";
+            } else {
+                // Table without rowid is matched by primary key of the doc id
+                join = " JOIN (SELECT [" + docTable + "].[key] AS [_lite_key], offsets(" + fullTextTable
+                        + ") AS [_lite_offsets] FROM " + fullTextTable + " JOIN [" + docTable + "] ON ["
+                        + docTable + "].[docid] = " + fullTextTable + ".docid WHERE " + fullTextTable
+                        + " MATCH ?) AS [_lite_match] ON [" + tableMeta.getTableName() + "].["
+                        + tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName()
+                        + "] = [_lite_match].[_lite_key]";
+            }
+            // offsets() lists four space separated integers per matched term occurrence
+            final String offsets = "[_lite_match].[_lite_offsets]";
+            searchQuery = tableMeta.getSelectQuery() + join
+                    + " ORDER BY (length(" + offsets + ") - length(replace(" + offsets + ", ' ', '')) + 1) / 4"
+                    + " DESC LIMIT ?";
+        }
+        final LiteColumnPlan plan = getSelectPlan();
+        final List<T> list = new ArrayList<T>();
+        Cursor cursor = getDatabase().rawQueryWithFactory(new LiteCursorFactory(new Object[] {query, limit}),
+                searchQuery, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                list.add(toObject(cursor, plan));
+            }
+        } finally {
+            cursor.close();
+        }
+        return list;
+    }
+
+    /**
+     * Start new query builder of this table
+     * @return query builder
+     * @throws LiteDatabaseException
+     */
+    public LiteQuery.Builder newQuery() throws LiteDatabaseException {
+        return getLiteQuery().from(tableClass);
+    }
+
+    /**
+     * Query by builder, use cached plan of the query shape
+     * @param builder
+     * @return database cursor
+     * @throws LiteDatabaseException
+     */
+    public Cursor query(LiteQuery.Builder builder) throws LiteDatabaseException {
+        checkBuilder(builder);
+        if (builder.hasJsonCondition()) refreshJsonIndexes();
+        return getDatabase().rawQueryWithFactory(new LiteCursorFactory(toBindArgs(builder, true)),
+                builder.getPlan().getSql(), null, null);
+    }
+
+    /**
+     * List objects by builder
+     * @param builder
+     * @return list of objects
+     * @throws LiteDatabaseException
+     */
+    public List<T> list(LiteQuery.Builder builder) throws LiteDatabaseException {
+        final LiteColumnPlan plan = builder.getPlan().getColumnPlan();
+        final List<T> list = new ArrayList<T>();
+        Cursor cursor = query(builder);
+        try {
+            while (cursor.moveToNext()) {
+                list.add(toObject(cursor, plan));
+            }
+        } finally {
+            cursor.close();
+        }
+        return list;
+    }
+
+    /**
+     * Count records by builder. Limit and offset are ignored
+     * @param builder
+     * @return number of records
+     * @throws LiteDatabaseException
+     */
+    public int count(LiteQuery.Builder builder) throws LiteDatabaseException {
+        checkBuilder(builder);
+        if (builder.hasJsonCondition()) refreshJsonIndexes();
+        return (int) simpleQueryForLong(builder.getPlan().getCountSql(), toBindArgs(builder, false));
+    }
+
+    /**
+     * Get page of all objects by keyset pagination
+     * @param orderBy field names of order key, append " DESC" to order descending
+     * @param afterToken continuation token of previous page, null for the first page
+     * @param pageSize
+     * @return page of objects
+     * @throws LiteDatabaseException
+     */
+    public Page<T> page(String[] orderBy, String afterToken, int pageSize) throws LiteDatabaseException {
+        return page(null, null, orderBy, afterToken, pageSize);
+    }
+
+    /**
+     * Get page of objects by keyset pagination.
+     * The primary key is appended to order key as tiebreaker. The next page seeks after the
+     * order key of the last object, so every page costs the same when order key is indexed
+     * @param selection
+     * @param selectionArgs
+     * @param orderBy field names of order key, append " DESC" to order descending
+     * @param afterToken continuation token of previous page, null for the first page
+     * @param pageSize
+     * @return page of objects
+     * @throws LiteDatabaseException
+     */
+    public Page<T> page(String selection, String[] selectionArgs, String[] orderBy,
+                        String afterToken, int pageSize) throws LiteDatabaseException {
+        if (pageSize <= 0) throw new LiteDatabaseException("Invalid page size " + pageSize);
+        final LiteTableMeta tableMeta = getTableMeta();
+        final List<LiteColumnMeta> keyColumns = new ArrayList<LiteColumnMeta>();
+        final List<Boolean> descending = new ArrayList<Boolean>();
+        final StringBuilder orderClause = new StringBuilder();
+        if (orderBy != null) {
+            for (String order : orderBy) {
+                String field = order.trim();
+                boolean desc = false;
+                if (field.toUpperCase(Locale.US).endsWith(" DESC")) {
+                    field = field.substring(0, field.length() - 5).trim();
+                    desc = true;
+                } else if (field.toUpperCase(Locale.US).endsWith(" ASC")) {
+                    field = field.substring(0, field.length() - 4).trim();
+                }
+                final LiteColumnMeta columnMeta = tableMeta.getColumns().get(field);
+                if (columnMeta == null) {
+                    throw new LiteDatabaseException("Field " + field + " is not a column of table "
+                            + tableMeta.getTableName());
+                }
+                keyColumns.add(columnMeta);
+                descending.add(desc);
+            }
+        }
+        for (String primaryKey : tableMeta.getPrimaryKeys()) {
+            final LiteColumnMeta primaryMeta = tableMeta.getColumns().get(primaryKey);
+            if (!keyColumns.contains(primaryMeta)) {
+                keyColumns.add(primaryMeta);
+                descending.add(false);
+            }
+        }
+        for (int i = 0; i < keyColumns.size(); i++) {
+            if (i > 0) orderClause.append(",");
+            orderClause.append("[").append(keyColumns.get(i).getColumnName()).append("]")
+                    .append(descending.get(i) ? " DESC" : " ASC");
+        }
+        final String signature = tableMeta.getTableName() + ":" + orderClause
+                + ":" + (selection == null ? "" : selection);
+        final List<Object> args = new ArrayList<Object>();
+        final StringBuilder sql = new StringBuilder(tableMeta.getSelectQuery());
+        final String where = selection == null ? null : getLiteQuery().exchange(selection, tableClass);
+        if (where != null) {
+            sql.append(" WHERE (").append(where).append(")");
+            if (selectionArgs != null) args.addAll(Arrays.asList(selectionArgs));
+        }
+        if (afterToken != null) {
+            final Object[] lastKey = decodePageToken(afterToken, signature, keyColumns.size());
+            sql.append(where == null ? " WHERE " : " AND ");
+            appendSeekCondition(sql, args, keyColumns, descending, lastKey);
+        }
+        sql.append(" ORDER BY ").append(orderClause).append(" LIMIT ?");
+        args.add(pageSize + 1);
+        final LiteColumnPlan plan = getSelectPlan();
+        final int[] keyIndexes = new int[keyColumns.size()];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            keyIndexes[i] = -1;
+            for (int j = 0; j < plan.size(); j++) {
+                if (plan.getColumn(j) == keyColumns.get(i)) keyIndexes[i] = plan.getColumnIndex(j);
+            }
+        }
+        final List<T> items = new ArrayList<T>(pageSize);
+        Object[] lastKey = null;
+        boolean hasNext = false;
+        Cursor cursor = getDatabase().rawQueryWithFactory(new LiteCursorFactory(args.toArray()),
+                sql.toString(), null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (items.size() == pageSize) {
+                    hasNext = true;
+                    break;
+                }
+                items.add(toObject(cursor, plan));
+                if (items.size() == pageSize) {
+                    lastKey = new Object[keyIndexes.length];
+                    for (int i = 0; i < keyIndexes.length; i++) {
+                        lastKey[i] = cursor.isNull(keyIndexes[i]) ? null
+                                : getKeyValue(cursor, keyIndexes[i], keyColumns.get(i));
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return new Page<T>(items, hasNext ? encodePageToken(signature, lastKey) : null);
+    }
+
+    /**
+     * Append seek condition after the last key.
+     * Expanded as (k1 > ?) OR (k1 = ? AND k2 > ?) ..., with a leading range bound of the first key.
+     * Null is the smallest value, same as SQLite order
+     * @param sql
+     * @param args
+     * @param keyColumns
+     * @param descending
+     * @param lastKey
+     */
+    private static void appendSeekCondition(StringBuilder sql, List<Object> args, List<LiteColumnMeta> keyColumns,
+                                            List<Boolean> descending, Object[] lastKey) {
+        sql.append("(");
+        if (lastKey[0] != null) {
+            sql.append("[").append(keyColumns.get(0).getColumnName()).append("]")
+                    .append(descending.get(0) ? " <= ?" : " >= ?");
+            if (descending.get(0)) sql.append(" OR [").append(keyColumns.get(0).getColumnName()).append("] IS NULL");
+            sql.append(") AND (");
+            args.add(lastKey[0]);
+        }
+        for (int i = 0; i < keyColumns.size(); i++) {
+            if (i > 0) sql.append(" OR ");
+            sql.append("(");
+            for (int j = 0; j < i; j++) {
+                final String column = "[" + keyColumns.get(j).getColumnName() + "]";
+                if (lastKey[j] == null) {
+                    sql.append(column).append(" IS NULL AND ");
+                } else {
+                    sql.append(column).append(" = ? AND ");
+                    args.add(lastKey[j]);
+                }
+            }
+            final String column = "[" + keyColumns.get(i).getColumnName() + "]";
+            if (descending.get(i)) {
+                if (lastKey[i] == null) {
+                    sql.append("0");
+                } else {
+                    sql.append("(").append(column).append(" < ? OR ").append(column).append(" IS NULL)");
+                    args.add(lastKey[i]);
+                }
+            } else {
+                if (lastKey[i] == null) {
+                    sql.append(column).append(" IS NOT NULL");
+                } else {
+                    sql.append(column).append(" > ?");
+                    args.add(lastKey[i]);
+                }
+            }
+            sql.append(")");
+        }
+        sql.append(")");
+    }
+
+    /**
+     * Encode continuation token of page
+     * @param signature shape of the query
+     * @param lastKey order key of the last object
+     * @return opaque token
+     * @throws LiteDatabaseException
+     */
+    private static String encodePageToken(String signature, Object[] lastKey) throws LiteDatabaseException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(signature.hashCode());
+            out.writeByte(lastKey.length);
+            for (Object value : lastKey) {
+                if (value == null) {
+                    out.writeByte(0);
+                } else if (value instanceof Long) {
+                    out.writeByte(1);
+                    out.writeLong((Long) value);
+                } else if (value instanceof Double) {
+                    out.writeByte(2);
+                    out.writeDouble((Double) value);
+                } else {
+                    out.writeByte(3);
+                    out.writeUTF(value.toString());
+                }
+            }
+            out.flush();
+            final byte[] bytes = bos.toByteArray();
+            final StringBuilder token = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return token.toString();
+        } catch (IOException e) {
+            throw new LiteDatabaseException("Could not encode page token", e);
+        }
+    }
+
+    /**
+     * Decode continuation token of page
+     * @param token
+     * @param signature shape of the query, must be the same as the token
+     * @param size number of key columns
+     * @return order key of the last object
+     * @throws LiteDatabaseException
+     */
+    private static Object[] decodePageToken(String token, String signature, int size) throws LiteDatabaseException {
+        try {
+            if (token.length() % 2 != 0) throw new IOException("Invalid token length");
+            final byte[] bytes = new byte[token.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                final int high = Character.digit(token.charAt(i * 2), 16);
+                final int low = Character.digit(token.charAt(i * 2 + 1), 16);
+                if (high < 0 || low < 0) throw new IOException("Invalid token character");
+                bytes[i] = (byte) ((high << 4) | low);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != signature.hashCode() || in.readByte() != size) {
+                throw new LiteDatabaseException("Page token does not match the query");
+            }
+            final Object[] lastKey = new Object[size];
+            for (int i = 0; i < size; i++) {
+                switch (in.readByte()) {
+                    case 0:
+                        lastKey[i] = null;
+                        break;
+                    case 1:
+                        lastKey[i] = in.readLong();
+                        break;
+                    case 2:
+                        lastKey[i] = in.readDouble();
+                        break;
+                    case 3:
+                        lastKey[i] = in.readUTF();
+                        break;
+                    default:
+                        throw new IOException("Invalid value type");
+                }
+            }
+            return lastKey;
+        } catch (IOException e) {
+            throw new LiteDatabaseException("Invalid page token", e);
+        }
+    }
+
+    /**
+     * Record query shape to index advisor if it is enabled
+     * @param selection
+     * @param orderBy
+     * @throws LiteDatabaseException
+     */
+    private void recordShape(String selection, String orderBy) throws LiteDatabaseException {
+        final LiteIndexAdvisor indexAdvisor = databaseHelper.getIndexAdvisor();
+        if (indexAdvisor != null) {
+            indexAdvisor.record(getTableMeta(), getLiteQuery().exchange(selection, tableClass),
+                    getLiteQuery().exchange(orderBy, tableClass));
+        }
+    }
+
+    /**
+     * Check that builder is created for table of this dao
+     * @param builder
+     * @throws LiteDatabaseException
+     */
+    private void checkBuilder(LiteQuery.Builder builder) throws LiteDatabaseException {
+        if (!tableClass.equals(builder.getTableClass())) {
+            throw new LiteDatabaseException("Query builder of " + builder.getTableClass().getName()
+                    + " could not be used for " + tableClass.getName());
+        }
+    }
+
+    /**
+     * Convert builder arguments to stored values
+     * @param builder
+     * @param withLimit
+     * @return bind arguments
+     */
+    private Object[] toBindArgs(LiteQuery.Builder builder, boolean withLimit) {
+        final Object[] args = builder.getArgs(withLimit);
+        final List<LiteColumnMeta> argColumns = builder.getArgColumns();
+        for (int i = 0; i < argColumns.size(); i++) {
+            if (args[i] instanceof Date
+                    && argColumns.get(i).getDateColumnType() == LiteColumnType.TEXT) {
+                args[i] = sdfDateValue.format((Date) args[i]);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Simple raw query
+     * @param sql
+     * @param args
+     * @return raw database cursor
+     */
+    public Cursor rawQuery(String sql, String[] args) throws LiteDatabaseException {
+        return getDatabase().rawQuery(getLiteQuery().exchange(sql), args);
+    }
+
+    /**
+     * Simple raw query that could be canceled. Require API level 16
+     * @param sql
+     * @param args
+     * @param cancellationSignal
+     * @return raw database cursor
+     * @throws QueryCanceledException if the query is canceled
+     * @throws LiteDatabaseException
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Cursor rawQuery(String sql, String[] args, CancellationSignal cancellationSignal)
+            throws LiteDatabaseException {
+        try {
+            return getDatabase().rawQuery(getLiteQuery().exchange(sql), args, cancellationSignal);
+        } catch (OperationCanceledException e) {
+            throw new QueryCanceledException("Query is canceled", e);
+        }
+    }
+
+    /**
+     * Get object by key
+     * @param key primary key value. Object[] or List of values in key order for composite primary key
+     * @return object contains this primary key value
+     * @throws LiteDatabaseException
+     */
+    public T get(Object key) throws LiteDatabaseException {
+        if (key == null) return null;
+        final LiteTableMeta tableMeta = getTableMeta();
+        Cursor cursor = getDatabase().rawQueryWithFactory(new LiteCursorFactory(toKeyValues(key)),
+                tableMeta.getSelectByKeyQuery(), null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return toObject(cursor, getSelectPlan());
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get objects by keys. Keys are queried in chunks of IN conditions,
+     * sized to the SQLite host parameter limit.
+     * Composite keys are Object[] or List of values in key order
+     * @param keys
+     * @return found objects by requested key, in the order of keys. Missing keys are not included
+     * @throws LiteDatabaseException
+     */
+    public Map<Object, T> getAll(Collection<?> keys) throws LiteDatabaseException {
+        final Map<Object, T> found = findAll(keys);
+        final Map<Object, T> result = new LinkedHashMap<Object, T>(found.size());
+        for (Object key : keys) {
+            if (key == null) continue;
+            T obj = found.get(normalizeKey(toKeyValues(key)));
+            if (obj != null) result.put(key, obj);
+        }
+        return result;
+    }
+
+    /**
+     * Get objects by keys
+     * @param keys
+     * @return list of objects in the same order as keys. Null if key is not found
+     * @throws LiteDatabaseException
+     */
+    public List<T> getAllAsList(List<?> keys) throws LiteDatabaseException {
+        final Map<Object, T> found = findAll(keys);
+        final List<T> result = new ArrayList<T>(keys.size());
+        for (Object key : keys) {
+            result.add(key == null ? null : found.get(normalizeKey(toKeyValues(key))));
+        }
+        return result;
+    }
+
+    /**
+     * Query objects by keys in chunks
+     * @param keys
+     * @return found objects by normalized key
+     * @throws LiteDatabaseException
+     */
+    private Map<Object, T> findAll(Collection<?> keys) throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        final String[] primaryKeys = tableMeta.getPrimaryKeys();
+        final Map<Object, T> found = new HashMap<Object, T>(keys.size() * 2);
+        final Map<Object, Object[]> distinctKeys = new LinkedHashMap<Object, Object[]>();
+        for (Object key : keys) {
+            if (key == null) continue;
+            final Object[] keyValues = toKeyValues(key);
+            distinctKeys.put(normalizeKey(keyValues), keyValues);
+        }
+        if (distinctKeys.isEmpty()) return found;
+        final LiteColumnPlan plan = getSelectPlan();
+        final LiteColumnMeta[] keyMetas = new LiteColumnMeta[primaryKeys.length];
+        final int[] keyIndexes = new int[primaryKeys.length];
+        for (int k = 0; k < primaryKeys.length; k++) {
+            keyMetas[k] = tableMeta.getColumns().get(primaryKeys[k]);
+            for (int i = 0; i < plan.size(); i++) {
+                if (plan.getColumn(i) == keyMetas[k]) keyIndexes[k] = plan.getColumnIndex(i);
+            }
+        }
+        final int chunkSize = MAX_VARIABLE_NUMBER / primaryKeys.length;
+        final Iterator<Object[]> iterator = distinctKeys.values().iterator();
+        int remaining = distinctKeys.size();
+        while (remaining > 0) {
+            final int size = Math.min(remaining, chunkSize);
+            final Object[] chunk = new Object[size * primaryKeys.length];
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(iterator.next(), 0, chunk, i * primaryKeys.length, primaryKeys.length);
+            }
+            remaining -= size;
+            Cursor cursor = getDatabase().rawQueryWithFactory(new LiteCursorFactory(chunk),
+                    getSelectByKeysQuery(size, chunkSize), null, null);
+            try {
+                final Object[] rowKey = new Object[primaryKeys.length];
+                while (cursor.moveToNext()) {
+                    for (int k = 0; k < primaryKeys.length; k++) {
+                        rowKey[k] = getKeyValue(cursor, keyIndexes[k], keyMetas[k]);
+                    }
+                    found.put(normalizeKey(rowKey), toObject(cursor, plan));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get query to select objects by number of keys.
+     * Composite keys are matched by OR of key conditions
+     * @param size number of keys
+     * @param chunkSize number of keys of full chunk, its query is cached
+     * @return select query
+     * @throws LiteDatabaseException
+     */
+    private String getSelectByKeysQuery(int size, int chunkSize) throws LiteDatabaseException {
+        if (size == chunkSize && selectByKeysQuery != null) return selectByKeysQuery;
+        final LiteTableMeta tableMeta = getTableMeta();
+        StringBuilder query = new StringBuilder(tableMeta.getSelectQuery());
+        if (tableMeta.isCompositeKey()) {
+            query.append(" WHERE ");
+            for (int i = 0; i < size; i++) {
+                if (i > 0) query.append(" OR ");
+                query.append("(").append(tableMeta.getKeyCondition()).append(")");
+            }
+        } else {
+            query.append(" WHERE [")
+                    .append(tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName())
+                    .append("] IN (");
+            for (int i = 0; i < size; i++) {
+                if (i > 0) query.append(",");
+                query.append("?");
+            }
+            query.append(")");
+        }
+        if (size == chunkSize) selectByKeysQuery = query.toString();
+        return query.toString();
+    }
+
+    /**
+     * Convert key to typed values of primary key columns
+     * @param key single value, or Object[] or List of values for composite primary key
+     * @return typed key values in key order
+     * @throws LiteDatabaseException
+     */
+    protected Object[] toKeyValues(Object key) throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        final String[] primaryKeys = tableMeta.getPrimaryKeys();
+        final Object[] values;
+        if (primaryKeys.length == 1) {
+            values = new Object[] {key};
+        } else if (key instanceof Object[]) {
+            values = (Object[]) key;
+        } else if (key instanceof List) {
+            values = ((List<?>) key).toArray();
+        } else {
+            values = new Object[] {key};
+        }
+        if (values.length != primaryKeys.length)
+            throw new LiteDatabaseException("Primary key of table " + tableMeta.getTableName() + " requires "
+                    + primaryKeys.length + " values. Found: " + values.length);
+        final Object[] typedValues = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            typedValues[i] = values[i] == null ? null
+                    : toKeyType(tableMeta.getColumns().get(primaryKeys[i]), values[i]);
+        }
+        return typedValues;
+    }
+
+    /**
+     * Normalize key values to compare with key from cursor
+     * @param keyValues
+     * @return normalized value of single key, or List of normalized values of composite key
+     */
+    private static Object normalizeKey(Object[] keyValues) {
+        if (keyValues.length == 1) return normalizeKey(keyValues[0]);
+        final List<Object> normalized = new ArrayList<Object>(keyValues.length);
+        for (Object value : keyValues) {
+            normalized.add(value == null ? null : normalizeKey(value));
+        }
+        return normalized;
+    }
+
+    /**
+     * Normalize key to compare with key from cursor
+     * @param key
+     * @return Long, Double or String
+     */
+    private static Object normalizeKey(Object key) {
+        if (key instanceof Double || key instanceof Float) return ((Number) key).doubleValue();
+        if (key instanceof Number) return ((Number) key).longValue();
+        if (key instanceof Boolean) return (Boolean) key ? 1L : 0L;
+        if (key instanceof Date) return ((Date) key).getTime();
+        return key.toString();
+    }
+
+    /**
+     * Convert key to the type of key column. Keep integer affinity of number key
+     * @param keyMeta
+     * @param key
+     * @return typed key
+     */
+    protected Object toKeyType(LiteColumnMeta keyMeta, Object key) {
+        switch (keyMeta.getFieldType()) {
+            case STRING:
+                return key.toString();
+            case LONG:
+            case INTEGER:
+            case SHORT:
+            case BYTE:
+                if (key instanceof String) {
+                    try {
+                        return Long.parseLong((String) key);
+                    } catch (NumberFormatException e) {
+                        return key;
+                    }
+                }
+                return key;
+            default:
+                return key;
+        }
+    }
+
+    /**
+     * Get column plan of default select columns
+     * @return column plan
+     * @throws LiteDatabaseException
+     */
+    protected LiteColumnPlan getSelectPlan() throws LiteDatabaseException {
+        if (selectPlan == null) {
+            selectPlan = LiteColumnPlan.forSelect(getTableMeta());
+        }
+        return selectPlan;
+    }
+
+    /**
+     * List all records from table
+     * @return array of all object on this table
+     * @throws LiteDatabaseException
+     */
+    public List<T> listAll() throws LiteDatabaseException {
+        return toList(query(null, null));
+    }
+
+    /**
+     * Get count of all record
+     * @return number of all records
+     * @throws LiteDatabaseException
+     */
     public int count() throws LiteDatabaseException {
+        final LiteTableMeta tableMeta = getTableMeta();
+        if (tableMeta.isMaintainCount()) {
+            try {
+                return (int) simpleQueryForLong("SELECT [row_count] FROM [" + LiteTableMeta.COUNT_TABLE
+                        + "] WHERE [table_name] = ?", new String[] {tableMeta.getTableName()});
+            } catch (SQLiteDoneException e) {
+                Log.w(this.getClass().getName(), "Row counter of " + tableMeta.getTableName() + " is not found");
+            }
+        }
         return count(null, null);
     }
 
+    /**
+     * Check if any record matches selection. Stop at the first matched record
+     * @param selection
+     * @param selectionArgs
+     * @return true if there is matched record
+     * @throws LiteDatabaseException
+     */
+    public boolean exists(String selection, String[] selectionArgs) throws LiteDatabaseException {
+        final String sql = "SELECT 1 FROM [" + getTableMeta().getTableName() + "]"
+                + (selection == null ? "" : " WHERE " + getLiteQuery().exchange(selection, tableClass))
+                + " LIMIT 1";
+        try {
+            simpleQueryForLong(sql, selectionArgs);
+            return true;
+        } catch (SQLiteDoneException e) {
+            return false;
+        }
+    }
+
     /**
      * Get count of record by selection
      * @param selection
@@ -760,19 +2277,283 @@ public class LiteBaseDao<T> {
      * @throws LiteDatabaseException
      */
     public int count(String selection,  String[] selectionArgs) throws LiteDatabaseException {
-        Cursor cursor = null;
-        try {
-            String sql = "select count(*) from [" +
-                    (databaseHelper.isUseClassSchema() ? tableClass.getName() : getTableMeta().getTableName())
-                    + "]"
-                    + (selection == null ? "" : (" where " + selection));
-            cursor = rawQuery(sql,
-                    selectionArgs);
-            cursor.moveToFirst();
-            return cursor.getInt(0);
-        }finally {
-            if (cursor != null)
-                cursor.close();
+        recordShape(selection, null);
+        String sql = "select count(*) from [" +
+                (databaseHelper.isUseClassSchema() ? tableClass.getName() : getTableMeta().getTableName())
+                + "]"
+                + (selection == null ? "" : (" where " + selection));
+        return (int) simpleQueryForLong(getLiteQuery().exchange(sql, tableClass), selectionArgs);
+    }
+
+    /**
+     * Get sum of field values
+     * @param field
+     * @param selection
+     * @param selectionArgs bound with their own types
+     * @return sum of values, 0 if there is no record
+     * @throws LiteDatabaseException
+     */
+    public double sum(String field, String selection, Object[] selectionArgs) throws LiteDatabaseException {
+        return Double.parseDouble(simpleQueryForString(
+                getAggregateQuery(LiteAggregate.SUM, field, selection), selectionArgs));
+    }
+
+    /**
+     * Get average of field values
+     * @param field
+     * @param selection
+     * @param selectionArgs bound with their own types
+     * @return average value or null if there is no record
+     * @throws LiteDatabaseException
+     */
+    public Double avg(String field, String selection, Object[] selectionArgs) throws LiteDatabaseException {
+        final String value = simpleQueryForString(getAggregateQuery(LiteAggregate.AVG, field, selection),
+                selectionArgs);
+        return value == null ? null : Double.parseDouble(value);
+    }
+
+    /**
+     * Get minimum of field values
+     * @param field
+     * @param selection
+     * @param selectionArgs bound with their own types
+     * @return Long, Double or String by column type. Null if there is no record
+     * @throws LiteDatabaseException
+     */
+    public Object min(String field, String selection, Object[] selectionArgs) throws LiteDatabaseException {
+        return toAggregateValue(getAggregateColumn(field),
+                simpleQueryForString(getAggregateQuery(LiteAggregate.MIN, field, selection), selectionArgs));
+    }
+
+    /**
+     * Get maximum of field values
+     * @param field
+     * @param selection
+     * @param selectionArgs bound with their own types
+     * @return Long, Double or String by column type. Null if there is no record
+     * @throws LiteDatabaseException
+     */
+    public Object max(String field, String selection, Object[] selectionArgs) throws LiteDatabaseException {
+        return toAggregateValue(getAggregateColumn(field),
+                simpleQueryForString(getAggregateQuery(LiteAggregate.MAX, field, selection), selectionArgs));
+    }
+
+    /**
+     * Count records by each value of field
+     * @param field
+     * @return number of records by field value
+     * @throws LiteDatabaseException
+     */
+    public Map<Object, Long> groupCount(String field) throws LiteDatabaseException {
+        return groupCount(field, null, null);
+    }
+
+    /**
+     * Count records by each value of field
+     * @param field
+     * @param selection
+     * @param selectionArgs bound with their own types
+     * @return number of records by field value, ordered by field value
+     * @throws LiteDatabaseException
+     */
+    public Map<Object, Long> groupCount(String field, String selection, Object[] selectionArgs)
+            throws LiteDatabaseException {
+        final Map<Object, Double> values = groupAggregate(field, LiteAggregate.COUNT, null, selection, selectionArgs);
+        final Map<Object, Long> counts = new LinkedHashMap<Object, Long>(values.size() * 2);
+        for (Map.Entry<Object, Double> entry : values.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * Aggregate values of field by each value of group field
+     * @param groupField
+     * @param aggregate
+     * @param field value field, could be null for count
+     * @param selection
+     * @param selectionArgs bound with their own types
+     * @return aggregated value by group value, ordered by group value.
+     * Group value is Long, Double or String by column type
+     * @throws LiteDatabaseException
+     */
+    public Map<Object, Double> groupAggregate(String groupField, LiteAggregate aggregate, String field,
+                                              String selection, Object[] selectionArgs)
+            throws LiteDatabaseException {
+        final LiteColumnMeta groupColumn = getAggregateColumn(groupField);
+        final String groupColumnName = "[" + groupColumn.getColumnName() + "]";
+        final String sql = "SELECT " + groupColumnName + "," + getAggregateExpression(aggregate, field)
+                + " FROM [" + getTableMeta().getTableName() + "]"
+                + (selection == null ? "" : " WHERE " + getLiteQuery().exchange(selection, tableClass))
+                + " GROUP BY " + groupColumnName + " ORDER BY " + groupColumnName;
+        final Map<Object, Double> values = new LinkedHashMap<Object, Double>();
+        Cursor cursor = getDatabase().rawQueryWithFactory(new LiteCursorFactory(selectionArgs), sql, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                values.put(cursor.isNull(0) ? null : getKeyValue(cursor, 0, groupColumn),
+                        cursor.isNull(1) ? null : cursor.getDouble(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    /**
+     * Get query of one aggregated value
+     * @param aggregate
+     * @param field
+     * @param selection
+     * @return aggregate query
+     * @throws LiteDatabaseException
+     */
+    private String getAggregateQuery(LiteAggregate aggregate, String field, String selection)
+            throws LiteDatabaseException {
+        return "SELECT " + getAggregateExpression(aggregate, field)
+                + " FROM [" + getTableMeta().getTableName() + "]"
+                + (selection == null ? "" : " WHERE " + getLiteQuery().exchange(selection, tableClass));
+    }
+
+    private String getAggregateExpression(LiteAggregate aggregate, String field) throws LiteDatabaseException {
+        if (field == null) {
+            if (aggregate != LiteAggregate.COUNT) {
+                throw new LiteDatabaseException("Field is required for aggregate " + aggregate);
+            }
+            return "count(*)";
+        }
+        return aggregate + "([" + getAggregateColumn(field).getColumnName() + "])";
+    }
+
+    private LiteColumnMeta getAggregateColumn(String field) throws LiteDatabaseException {
+        final LiteColumnMeta columnMeta = getTableMeta().getColumns().get(field);
+        if (columnMeta == null) {
+            throw new LiteDatabaseException("Field " + field + " is not a column of table "
+                    + getTableMeta().getTableName());
+        }
+        return columnMeta;
+    }
+
+    /**
+     * Convert aggregated text value to the type of column
+     * @param columnMeta
+     * @param value
+     * @return Long, Double or String
+     */
+    private static Object toAggregateValue(LiteColumnMeta columnMeta, String value) {
+        if (value == null) return null;
+        try {
+            switch (columnMeta.getColumnType()) {
+                case INTEGER:
+                    return Long.parseLong(value);
+                case REAL:
+                    return Double.parseDouble(value);
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    /**
+     * Bind text arguments as SQLiteDatabase.rawQuery does. Null argument is bound as null
+     * @param program
+     * @param args
+     */
+    private static void bindStringArgs(SQLiteProgram program, String[] args) {
+        program.clearBindings();
+        if (args == null) return;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] == null) {
+                program.bindNull(i + 1);
+            } else {
+                program.bindString(i + 1, args[i]);
+            }
+        }
+    }
+
+    /**
+     * Bind typed arguments by bindArg
+     * @param program
+     * @param args
+     */
+    private static void bindArgs(SQLiteProgram program, Object[] args) {
+        program.clearBindings();
+        if (args == null) return;
+        for (int i = 0; i < args.length; i++) {
+            bindArg(program, i + 1, args[i]);
+        }
+    }
+
+    /**
+     * Execute query that returns one text, with cached compiled statement
+     * @param sql
+     * @param selectionArgs
+     * @return value of the first column of the first row, null if value is null or there is no row
+     */
+    protected String simpleQueryForString(String sql, String[] selectionArgs) {
+        final LiteStatementCache statementCache = databaseHelper.getStatementCache();
+        final SQLiteStatement statement = statementCache.acquire(sql);
+        try {
+            bindStringArgs(statement, selectionArgs);
+            return statement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        } finally {
+            statementCache.release(sql, statement);
+        }
+    }
+
+    /**
+     * Execute query that returns one text, with cached compiled statement and typed arguments
+     * @param sql
+     * @param args
+     * @return value of the first column of the first row, null if value is null or there is no row
+     */
+    protected String simpleQueryForString(String sql, Object[] args) {
+        final LiteStatementCache statementCache = databaseHelper.getStatementCache();
+        final SQLiteStatement statement = statementCache.acquire(sql);
+        try {
+            bindArgs(statement, args);
+            return statement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        } finally {
+            statementCache.release(sql, statement);
+        }
+    }
+
+    /**
+     * Execute query that returns one number, with cached compiled statement
+     * @param sql
+     * @param selectionArgs
+     * @return value of the first column of the first row
+     */
+    protected long simpleQueryForLong(String sql, String[] selectionArgs) {
+        final LiteStatementCache statementCache = databaseHelper.getStatementCache();
+        final SQLiteStatement statement = statementCache.acquire(sql);
+        try {
+            bindStringArgs(statement, selectionArgs);
+            return statement.simpleQueryForLong();
+        } finally {
+            statementCache.release(sql, statement);
+        }
+    }
+
+    /**
+     * Execute query that returns one number, with cached compiled statement and typed arguments
+     * @param sql
+     * @param args
+     * @return value of the first column of the first row
+     */
+    protected long simpleQueryForLong(String sql, Object[] args) {
+        final LiteStatementCache statementCache = databaseHelper.getStatementCache();
+        final SQLiteStatement statement = statementCache.acquire(sql);
+        try {
+            bindArgs(statement, args);
+            return statement.simpleQueryForLong();
+        } finally {
+            statementCache.release(sql, statement);
         }
     }
 
@@ -788,12 +2569,26 @@ public class LiteBaseDao<T> {
 
     /**
      * Get new instance of bulk insert object. To speed up the insertion
+     * Join the unit of work if it is active on current thread
      * @param useTransaction
      * @return
      * @throws LiteDatabaseException
      */
     public BulkInsert<T> newBulkInsert(boolean useTransaction) throws LiteDatabaseException {
-        return new BulkInsert<T>(getDatabase(), getDatabaseHelper().getTableMeta(tableClass), useTransaction);
+        final LiteTransaction transaction = databaseHelper.getCurrentTransaction();
+        if (transaction != null) return newBulkInsert(transaction);
+        return new BulkInsert<T>(getDatabase(), getDatabaseHelper().getTableMeta(tableClass), useTransaction,
+                databaseHelper.getStatementCache());
+    }
+
+    /**
+     * Get new instance of bulk insert object that joins the unit of work
+     * @param transaction
+     * @return bulk insert object
+     * @throws LiteDatabaseException
+     */
+    public BulkInsert<T> newBulkInsert(LiteTransaction transaction) throws LiteDatabaseException {
+        return new BulkInsert<T>(transaction, getDatabaseHelper().getTableMeta(tableClass));
     }
 
     /**
@@ -808,12 +2603,50 @@ public class LiteBaseDao<T> {
 
     /**
      * Get new instance of bulk update object. To speed up the updating
+     * Join the unit of work if it is active on current thread
      * @param useTransaction
      * @return
      * @throws LiteDatabaseException
      */
     public BulkUpdate<T> newBulkUpdate(boolean useTransaction) throws LiteDatabaseException {
-        return new BulkUpdate<T>(getDatabase(), getDatabaseHelper().getTableMeta(tableClass), useTransaction);
+        final LiteTransaction transaction = databaseHelper.getCurrentTransaction();
+        if (transaction != null) return newBulkUpdate(transaction);
+        return new BulkUpdate<T>(getDatabase(), getDatabaseHelper().getTableMeta(tableClass), useTransaction,
+                databaseHelper.getStatementCache());
+    }
+
+    /**
+     * Get new instance of bulk update object that joins the unit of work
+     * @param transaction
+     * @return bulk update object
+     * @throws LiteDatabaseException
+     */
+    public BulkUpdate<T> newBulkUpdate(LiteTransaction transaction) throws LiteDatabaseException {
+        return new BulkUpdate<T>(transaction, getDatabaseHelper().getTableMeta(tableClass));
+    }
+
+    /**
+     * Get new instance of bulk upsert object
+     * Join the unit of work if it is active on current thread
+     * @param useTransaction
+     * @return bulk upsert object
+     * @throws LiteDatabaseException
+     */
+    public BulkUpsert<T> newBulkUpsert(boolean useTransaction) throws LiteDatabaseException {
+        final LiteTransaction transaction = databaseHelper.getCurrentTransaction();
+        if (transaction != null) return newBulkUpsert(transaction);
+        return new BulkUpsert<T>(getDatabase(), getDatabaseHelper().getTableMeta(tableClass), useTransaction,
+                databaseHelper.getStatementCache());
+    }
+
+    /**
+     * Get new instance of bulk upsert object that joins the unit of work
+     * @param transaction
+     * @return bulk upsert object
+     * @throws LiteDatabaseException
+     */
+    public BulkUpsert<T> newBulkUpsert(LiteTransaction transaction) throws LiteDatabaseException {
+        return new BulkUpsert<T>(transaction, getDatabaseHelper().getTableMeta(tableClass));
     }
 
     /**
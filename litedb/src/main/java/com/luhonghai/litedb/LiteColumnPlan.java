@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import android.database.Cursor;
+
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolved mapping from cursor column index to field.
+ *
+ * Resolve once per query shape and reuse it for every row,
+ * instead of looking up the column index of each field on each row.
+ */
+public class LiteColumnPlan {
+
+    private final int[] columnIndexes;
+
+    private final LiteColumnMeta[] columns;
+
+    private LiteColumnPlan(int[] columnIndexes, LiteColumnMeta[] columns) {
+        this.columnIndexes = columnIndexes;
+        this.columns = columns;
+    }
+
+    /**
+     * Plan of the default select columns of table meta.
+     * Cursor column i is the field i of select fields
+     * @param tableMeta
+     * @return column plan
+     */
+    public static LiteColumnPlan forSelect(LiteTableMeta tableMeta) {
+        final String[] fields = tableMeta.getSelectFields();
+        final int[] indexes = new int[fields.length];
+        final LiteColumnMeta[] columns = new LiteColumnMeta[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            indexes[i] = i;
+            columns[i] = tableMeta.getColumns().get(fields[i]);
+        }
+        return new LiteColumnPlan(indexes, columns);
+    }
+
+    /**
+     * Plan of cursor columns. Fields that are not found in cursor are skipped
+     * @param tableMeta
+     * @param cursor
+     * @return column plan
+     */
+    public static LiteColumnPlan forCursor(LiteTableMeta tableMeta, Cursor cursor) {
+        final List<LiteColumnMeta> columns = new ArrayList<LiteColumnMeta>();
+        final List<Integer> indexes = new ArrayList<Integer>();
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            int columnIndex;
+            if (!"".equals(columnMeta.getAlias())) {
+                columnIndex = cursor.getColumnIndex(columnMeta.getAlias());
+            } else {
+                columnIndex = cursor.getColumnIndex(columnMeta.getColumnName());
+            }
+            if (columnIndex != -1) {
+                columns.add(columnMeta);
+                indexes.add(columnIndex);
+            }
+        }
+        final int[] columnIndexes = new int[indexes.size()];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = indexes.get(i);
+        }
+        return new LiteColumnPlan(columnIndexes, columns.toArray(new LiteColumnMeta[columns.size()]));
+    }
+
+    /**
+     * Number of mapped columns
+     * @return size
+     */
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * Cursor column index of mapped column
+     * @param position
+     * @return cursor column index
+     */
+    public int getColumnIndex(int position) {
+        return columnIndexes[position];
+    }
+
+    /**
+     * Column meta of mapped column
+     * @param position
+     * @return column meta
+     */
+    public LiteColumnMeta getColumn(int position) {
+        return columns[position];
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * Cursor factory that binds typed arguments to the query.
+ *
+ * SQLiteDatabase.rawQuery only accepts String arguments, which are compared as TEXT.
+ * Pass this factory to rawQueryWithFactory with null selection arguments
+ * to bind Long, Double, byte[] and String values with their own types.
+ *
+ * Use the cursor constructor that is available on all API levels,
+ * the replacement without database argument require API level 11
+ */
+public class LiteCursorFactory implements SQLiteDatabase.CursorFactory {
+
+    private final Object[] args;
+
+    public LiteCursorFactory(Object[] args) {
+        this.args = args;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                            String editTable, SQLiteQuery query) {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                LiteBaseDao.bindArg(query, i + 1, args[i]);
+            }
+        }
+        return new SQLiteCursor(db, masterQuery, editTable, query);
+    }
+}
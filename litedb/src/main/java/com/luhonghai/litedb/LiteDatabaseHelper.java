@@ -27,23 +27,40 @@
 package com.luhonghai.litedb;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.luhonghai.litedb.annotation.AnnotationHelper;
 import com.luhonghai.litedb.annotation.LiteColumn;
 import com.luhonghai.litedb.annotation.LiteDatabase;
+import com.luhonghai.litedb.bulk.ContentHash;
 import com.luhonghai.litedb.exception.AnnotationNotFound;
 import com.luhonghai.litedb.exception.InvalidAnnotationData;
 import com.luhonghai.litedb.exception.LiteDatabaseException;
 import com.luhonghai.litedb.exception.UnsupportedFieldType;
+import com.luhonghai.litedb.meta.LiteIndexMeta;
+import com.luhonghai.litedb.meta.LiteJsonIndexMeta;
 import com.luhonghai.litedb.meta.LiteTableMeta;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -89,6 +106,16 @@ public abstract class LiteDatabaseHelper {
 
     private static final String TAG = "LiteDB";
 
+    /**
+     * Key of schema fingerprint in metadata table
+     */
+    private static final String SCHEMA_FINGERPRINT_KEY = "schema_fingerprint";
+
+    /**
+     * Maximum bytes of each transfer from compressed asset
+     */
+    private static final long COPY_BUFFER_SIZE = 64 * 1024;
+
     /** Variable to hold the database instance. */
     private SQLiteDatabase mDB;
 
@@ -101,6 +128,11 @@ public abstract class LiteDatabaseHelper {
      * The exchange query object
      */
     private final LiteQuery liteQuery;
+
+    /**
+     * Index advisor. Null if it is not enabled
+     */
+    private volatile LiteIndexAdvisor indexAdvisor;
     /**
      * A helper class is used to manage database.
      */
@@ -115,6 +147,21 @@ public abstract class LiteDatabaseHelper {
 
     private boolean useClassSchema;
 
+    /**
+     * Asynchronous write pipeline. Created on first use
+     */
+    private LiteWriteQueue writeQueue;
+
+    /**
+     * Compiled statements of each thread
+     */
+    private final LiteStatementCache statementCache = new LiteStatementCache(this);
+
+    /**
+     * Active unit of work of each thread
+     */
+    private final ThreadLocal<LiteTransaction> currentTransaction = new ThreadLocal<LiteTransaction>();
+
     public boolean isUseClassSchema() {
         return useClassSchema;
     }
@@ -123,8 +170,43 @@ public abstract class LiteDatabaseHelper {
 
         private final Class[] tableClasses;
 
+        private final Context context;
+
+        private final String databaseName;
+
+        private final int databaseVersion;
+
+        /**
+         * Asset path of prebuilt database file. Null if it is not defined
+         */
+        private String prepackagedAsset;
+
         private DatabaseListener databaseListener;
 
+        private LiteMigration.MigrationListener migrationListener;
+
+        /**
+         * Verify tables on open when schema fingerprint is changed
+         */
+        private boolean syncSchemaOnOpen;
+
+        /**
+         * Fingerprint of generated schema of all table classes. Computed once
+         */
+        private String schemaFingerprint;
+
+        /**
+         * Prepackaged database is installed and its tables are not verified yet
+         */
+        private boolean prepackagedInstalled;
+
+        /**
+         * Error of prepackaged database installation. Reported to listener when database is opened
+         */
+        private String installErrorMessage;
+
+        private Throwable installError;
+
         /**
          * Constructor
          * @param context application context
@@ -138,6 +220,9 @@ public abstract class LiteDatabaseHelper {
                               Class[] tableClasses) {
             super(context, databaseName, null, databaseVersion);
             this.tableClasses = tableClasses;
+            this.context = context;
+            this.databaseName = databaseName;
+            this.databaseVersion = databaseVersion;
         }
 
         /**
@@ -157,6 +242,128 @@ public abstract class LiteDatabaseHelper {
             setDatabaseListener(databaseListener);
         }
 
+        @Override
+        public synchronized SQLiteDatabase getWritableDatabase() {
+            installPrepackagedDatabase();
+            return super.getWritableDatabase();
+        }
+
+        @Override
+        public synchronized SQLiteDatabase getReadableDatabase() {
+            installPrepackagedDatabase();
+            return super.getReadableDatabase();
+        }
+
+        /**
+         * Install prepackaged database from assets when database file does not exist.
+         * The asset is copied to a temporary file and its user_version is validated
+         * before it is renamed to the database file, so a partial copy is never opened.
+         * Upgrade runs as usual when the database is opened. Tables of installed database
+         * are verified on open even if schema sync is disabled, so row counters, triggers
+         * and index tables of LiteDB are created
+         */
+        private void installPrepackagedDatabase() {
+            if (prepackagedAsset == null || prepackagedAsset.length() == 0) return;
+            final File databaseFile = context.getDatabasePath(databaseName);
+            if (databaseFile.exists()) return;
+            final File parent = databaseFile.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                Log.e(TAG, "Could not create database directory " + parent.getPath());
+                return;
+            }
+            final File tempFile = new File(databaseFile.getPath() + "-lite_tmp");
+            try {
+                copyAsset(prepackagedAsset, tempFile);
+                final int version = getDatabaseVersion(tempFile);
+                if (version < 1 || version > databaseVersion) {
+                    throw new IOException("Prepackaged database " + prepackagedAsset + " has version "
+                            + version + ". Require version from 1 to " + databaseVersion);
+                }
+                // Journal of an old database must not be applied to the new file
+                for (String suffix : new String[] {"-journal", "-wal", "-shm"}) {
+                    final File file = new File(databaseFile.getPath() + suffix);
+                    if (file.exists() && !file.delete())
+                        throw new IOException("Could not delete " + file.getPath());
+                }
+                if (!tempFile.renameTo(databaseFile))
+                    throw new IOException("Could not rename " + tempFile.getPath() + " to " + databaseFile.getPath());
+                prepackagedInstalled = true;
+                Log.d(TAG, "Install prepackaged database " + prepackagedAsset + " version " + version);
+            } catch (IOException | SQLiteException e) {
+                Log.e(TAG, "Could not install prepackaged database " + prepackagedAsset, e);
+                // Listener requires the database. Report when it is opened
+                installErrorMessage = "Could not install prepackaged database " + prepackagedAsset;
+                installError = e;
+            } finally {
+                if (tempFile.exists() && !tempFile.delete())
+                    Log.e(TAG, "Could not delete " + tempFile.getPath());
+            }
+        }
+
+        /**
+         * Copy asset to file by FileChannel transfer.
+         * Uncompressed asset is transferred from the file descriptor of the APK,
+         * compressed asset is transferred from its input stream
+         * @param asset
+         * @param target
+         * @throws IOException
+         */
+        private void copyAsset(final String asset, final File target) throws IOException {
+            final FileOutputStream outputStream = new FileOutputStream(target);
+            try {
+                final FileChannel targetChannel = outputStream.getChannel();
+                AssetFileDescriptor descriptor = null;
+                try {
+                    descriptor = context.getAssets().openFd(asset);
+                } catch (IOException e) {
+                    // Compressed asset has no file descriptor
+                }
+                if (descriptor != null) {
+                    try {
+                        final FileChannel sourceChannel = descriptor.createInputStream().getChannel();
+                        sourceChannel.position(descriptor.getStartOffset());
+                        final long length = descriptor.getLength();
+                        long position = 0;
+                        while (position < length) {
+                            final long count = targetChannel.transferFrom(sourceChannel, position, length - position);
+                            if (count <= 0) throw new IOException("Unexpected end of asset " + asset);
+                            position += count;
+                        }
+                    } finally {
+                        descriptor.close();
+                    }
+                } else {
+                    final ReadableByteChannel sourceChannel = Channels.newChannel(context.getAssets().open(asset));
+                    try {
+                        long position = 0;
+                        long count;
+                        while ((count = targetChannel.transferFrom(sourceChannel, position, COPY_BUFFER_SIZE)) > 0) {
+                            position += count;
+                        }
+                    } finally {
+                        sourceChannel.close();
+                    }
+                }
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+        }
+
+        /**
+         * Read user_version of database file
+         * @param file
+         * @return version of database
+         */
+        private int getDatabaseVersion(final File file) {
+            final SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                return db.getVersion();
+            } finally {
+                db.close();
+            }
+        }
+
         @Override
         public void onCreate(final SQLiteDatabase db) {
             if (databaseListener != null) databaseListener.onBeforeDatabaseCreate(db);
@@ -164,6 +371,28 @@ public abstract class LiteDatabaseHelper {
             if (databaseListener != null) databaseListener.onAfterDatabaseCreate(db);
         }
 
+        @Override
+        public void onOpen(final SQLiteDatabase db) {
+            super.onOpen(db);
+            // SQLiteDatabase.replace and raw INSERT OR REPLACE delete the conflicting row.
+            // Delete triggers fire for it only with recursive triggers, so row counters,
+            // full-text, doc and JSON index tables stay in sync
+            db.execSQL("PRAGMA recursive_triggers = ON");
+            if (installError != null) {
+                if (databaseListener != null) databaseListener.onError(db, installErrorMessage, installError);
+                installErrorMessage = null;
+                installError = null;
+            }
+            if ((syncSchemaOnOpen || prepackagedInstalled) && !db.isReadOnly()) {
+                prepackagedInstalled = false;
+                final String fingerprint = getSchemaFingerprint();
+                if (fingerprint == null || !fingerprint.equals(getStoredFingerprint(db))) {
+                    Log.d(TAG, "Schema is changed. Verify all tables");
+                    verifyDatabase(db);
+                }
+            }
+        }
+
         @Override
         public void onUpgrade(final SQLiteDatabase db, final int oldVersion,
                               final int newVersion) {
@@ -174,38 +403,408 @@ public abstract class LiteDatabaseHelper {
 
         /**
          * To verify all tables of database
-         * Create new table or new column if needed
+         * Create new table or new column if needed.
+         * Tables that could not be altered in place are rebuilt first by LiteMigration.
+         * Live schema is loaded once and diffed in memory. Other changes are applied in one transaction
          * @param db
          */
         private void verifyDatabase(final SQLiteDatabase db) {
-            // Loop all table classes that is defined on LiteDatabase annotation
+            LiteSchema liveSchema = LiteSchema.load(db);
+            boolean verified = true;
+            boolean migrated = false;
             for (Class clazz : tableClasses) {
                 try {
-                    AnnotationHelper annotationHelper = new AnnotationHelper(clazz);
-                    String tableName = annotationHelper.getTableName();
-                    if (isTableExists(db, tableName)) {
-                        // Table is exists. Check all fields to add column if needed
-                        for (Field field : clazz.getDeclaredFields()) {
-                            LiteColumn liteColumn = field.getAnnotation(LiteColumn.class);
-                            if (liteColumn != null) {
-                                if (!isColumnExists(db, tableName, annotationHelper.getColumnName(field))) {
-                                    // Column is not exists. Try to add new
-                                    String query = annotationHelper.getAddColumnQuery(field);
-                                    Log.d(TAG, "Add new column. Query: " + query);
-                                    db.execSQL(query);
-                                }
+                    migrated |= migrateTable(db, liveSchema, clazz);
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not migrate table " + clazz.getName(), e);
+                    if (databaseListener != null) databaseListener.onError(db,
+                            "Could not migrate table " + clazz.getName(),
+                            e);
+                    verified = false;
+                }
+            }
+            final LiteSchema schema = migrated ? LiteSchema.load(db) : liveSchema;
+            db.beginTransaction();
+            try {
+                final Set<String> jsonIndexTables = new HashSet<String>();
+                // Loop all table classes that is defined on LiteDatabase annotation
+                for (Class clazz : tableClasses) {
+                    verified &= verifyTable(db, schema, clazz, jsonIndexTables);
+                }
+                if (verified) {
+                    dropStaleJsonIndexes(db, schema, jsonIndexTables);
+                }
+                // Tables that could not be verified are retried on next open
+                final String fingerprint = getSchemaFingerprint();
+                if (verified && fingerprint != null) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS [" + LiteTableMeta.META_TABLE + "]"
+                            + " ([key] TEXT PRIMARY KEY, [value] TEXT)");
+                    db.execSQL("INSERT OR REPLACE INTO [" + LiteTableMeta.META_TABLE + "] ([key], [value])"
+                            + " VALUES (?, ?)", new Object[] {SCHEMA_FINGERPRINT_KEY, fingerprint});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        /**
+         * Rebuild table if live table could not be altered to match table class.
+         * Stale shadow table of interrupted migration is dropped
+         * @param db
+         * @param schema
+         * @param clazz
+         * @return true if table is rebuilt
+         * @throws LiteDatabaseException
+         */
+        private boolean migrateTable(final SQLiteDatabase db, final LiteSchema schema, final Class clazz)
+                throws LiteDatabaseException {
+            final AnnotationHelper annotationHelper = new AnnotationHelper(clazz);
+            final LiteSchema.Table table;
+            try {
+                table = schema.getTable(annotationHelper.getTableName());
+            } catch (AnnotationNotFound e) {
+                throw new LiteDatabaseException("Could not get table name", e);
+            }
+            if (table == null) return false;
+            final LiteMigration migration = new LiteMigration(db, annotationHelper, table);
+            final String reason = migration.getRebuildReason();
+            if (reason == null) {
+                if (schema.hasTable(migration.getShadowTable())) {
+                    db.execSQL("DROP TABLE IF EXISTS [" + migration.getShadowTable() + "]");
+                }
+                return false;
+            }
+            Log.d(TAG, "Rebuild table " + table.getName() + ". " + reason);
+            migration.migrate(migrationListener, LiteMigration.DEFAULT_BATCH_SIZE);
+            return true;
+        }
+
+        /**
+         * Get fingerprint of generated schema of all table classes.
+         * It is the hash of create table, index, row counter, full-text and JSON index queries
+         * @return fingerprint, null if a table class is invalid
+         */
+        public String getSchemaFingerprint() {
+            if (schemaFingerprint == null) {
+                try {
+                    final List<String> queries = new ArrayList<String>();
+                    for (Class clazz : tableClasses) {
+                        queries.addAll(new AnnotationHelper(clazz).getSchemaQueries());
+                    }
+                    schemaFingerprint = Long.toHexString(ContentHash.hash(queries));
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not generate schema fingerprint", e);
+                }
+            }
+            return schemaFingerprint;
+        }
+
+        /**
+         * Get schema fingerprint stored by the last verify
+         * @param db
+         * @return stored fingerprint, null if not found
+         */
+        private String getStoredFingerprint(final SQLiteDatabase db) {
+            try {
+                Cursor cursor = db.rawQuery("SELECT [value] FROM [" + LiteTableMeta.META_TABLE
+                        + "] WHERE [key] = ?", new String[] {SCHEMA_FINGERPRINT_KEY});
+                try {
+                    return cursor.moveToFirst() ? cursor.getString(0) : null;
+                } finally {
+                    cursor.close();
+                }
+            } catch (SQLiteException e) {
+                // Metadata table is not created yet
+                return null;
+            }
+        }
+
+        /**
+         * Verify table of class against live schema
+         * @param db
+         * @param schema
+         * @param clazz
+         * @param jsonIndexTables collect JSON index tables of table
+         * @return true if table is verified without error
+         */
+        private boolean verifyTable(final SQLiteDatabase db, final LiteSchema schema, final Class clazz,
+                                    final Set<String> jsonIndexTables) {
+            try {
+                AnnotationHelper annotationHelper = new AnnotationHelper(clazz);
+                String tableName = annotationHelper.getTableName();
+                LiteSchema.Table table = schema.getTable(tableName);
+                if (table != null) {
+                    // Table is exists. Check all fields to add column if needed
+                    for (Field field : clazz.getDeclaredFields()) {
+                        LiteColumn liteColumn = field.getAnnotation(LiteColumn.class);
+                        if (liteColumn != null) {
+                            if (!table.hasColumn(annotationHelper.getColumnName(field))) {
+                                // Column is not exists. Try to add new
+                                String query = annotationHelper.getAddColumnQuery(field);
+                                Log.d(TAG, "Add new column. Query: " + query);
+                                db.execSQL(query);
                             }
                         }
-                    } else {
-                        String query = annotationHelper.getCreateTableQuery();
-                        Log.d(TAG, "Create new table. Query: " + query);
+                    }
+                    if (annotationHelper.isContentHash()
+                            && !table.hasColumn(LiteTableMeta.CONTENT_HASH_COLUMN)) {
+                        String query = annotationHelper.getAddHashColumnQuery();
+                        Log.d(TAG, "Add content hash column. Query: " + query);
+                        db.execSQL(query);
+                    }
+                } else {
+                    String query = annotationHelper.getCreateTableQuery();
+                    Log.d(TAG, "Create new table. Query: " + query);
+                    db.execSQL(query);
+                }
+                if (annotationHelper.isMaintainCount()) {
+                    // Counter is seeded by count(*) only when its triggers are created, then triggers keep it
+                    boolean hasCounter = table != null;
+                    for (String trigger : annotationHelper.getCountTriggerNames()) {
+                        hasCounter &= schema.hasTrigger(trigger);
+                    }
+                    if (!hasCounter) {
+                        for (String query : annotationHelper.getCreateCountQueries()) {
+                            Log.d(TAG, "Create row counter. Query: " + query);
+                            db.execSQL(query);
+                        }
+                    }
+                } else {
+                    for (String query : annotationHelper.getDropCountQueries()) {
                         db.execSQL(query);
                     }
+                    if (schema.hasTable(LiteTableMeta.COUNT_TABLE)) {
+                        db.execSQL(annotationHelper.getDeleteCountQuery());
+                    }
+                }
+                LiteTableMeta tableMeta = annotationHelper.generateTableMeta();
+                for (String query : tableMeta.getHashColumn() != null
+                        ? annotationHelper.getCreateHashQueries(tableMeta)
+                        : annotationHelper.getDropHashQueries(tableMeta)) {
+                    db.execSQL(query);
+                }
+                boolean verified = verifyIndexes(db, table, tableMeta);
+                // Tables keyed by doc id are filled again when doc table is created
+                final boolean docTableCreated = verifyDocTable(db, schema, tableMeta);
+                verified &= verifyFullText(db, schema, annotationHelper, tableMeta, docTableCreated);
+                for (LiteJsonIndexMeta jsonIndexMeta : tableMeta.getJsonIndexes()) {
+                    jsonIndexTables.add(jsonIndexMeta.getTableName().toLowerCase(Locale.US));
+                }
+                verified &= verifyJsonIndexes(db, schema, tableMeta, docTableCreated);
+                return verified;
+            } catch (Exception e) {
+                Log.e(TAG, "Could not verify table " + clazz.getName(), e);
+                if (databaseListener != null) databaseListener.onError(db,
+                        "Could not verify table " + clazz.getName(),
+                        e);
+                return false;
+            }
+        }
+
+        /**
+         * Diff managed indexes of table with live schema.
+         * Create missing or changed indexes and drop indexes that are not defined anymore
+         * @param db
+         * @param table live table, null if table is just created
+         * @param tableMeta
+         * @return true if all indexes are verified
+         */
+        private boolean verifyIndexes(final SQLiteDatabase db, final LiteSchema.Table table,
+                                      final LiteTableMeta tableMeta) {
+            boolean verified = true;
+            final Map<String, String> existingIndexes = new HashMap<String, String>();
+            if (table != null) {
+                for (Map.Entry<String, String> index : table.getIndexes().entrySet()) {
+                    if (index.getKey().startsWith(LiteIndexMeta.INDEX_PREFIX))
+                        existingIndexes.put(index.getKey(), index.getValue());
+                }
+            }
+            for (LiteIndexMeta indexMeta : tableMeta.getIndexes()) {
+                final String existingQuery = existingIndexes.remove(indexMeta.getName());
+                if (indexMeta.getCreateQuery().equals(existingQuery)) continue;
+                try {
+                    if (existingQuery != null) {
+                        Log.d(TAG, "Drop changed index " + indexMeta.getName());
+                        db.execSQL("DROP INDEX IF EXISTS [" + indexMeta.getName() + "]");
+                    }
+                    Log.d(TAG, "Create index. Query: " + indexMeta.getCreateQuery());
+                    db.execSQL(indexMeta.getCreateQuery());
                 } catch (Exception e) {
-                    Log.e(TAG, "Could not verify table " + clazz.getName(), e);
+                    Log.e(TAG, "Could not create index " + indexMeta.getName(), e);
                     if (databaseListener != null) databaseListener.onError(db,
-                            "Could not verify table " + clazz.getName(),
+                            "Could not create index " + indexMeta.getName(),
                             e);
+                    verified = false;
+                }
+            }
+            for (String name : existingIndexes.keySet()) {
+                Log.d(TAG, "Drop stale index " + name);
+                db.execSQL("DROP INDEX IF EXISTS [" + name + "]");
+            }
+            return verified;
+        }
+
+        /**
+         * Create doc table of WITHOUT ROWID table and its triggers, or drop doc table that is not used anymore
+         * @param db
+         * @param schema
+         * @param tableMeta
+         * @return true if doc table is created
+         */
+        private boolean verifyDocTable(final SQLiteDatabase db, final LiteSchema schema,
+                                       final LiteTableMeta tableMeta) {
+            final String docTable = LiteTableMeta.DOC_TABLE_PREFIX + tableMeta.getTableName();
+            final boolean exists = schema.hasTable(docTable);
+            if (tableMeta.getDocTable() == null) {
+                if (exists) {
+                    Log.d(TAG, "Drop doc table " + docTable);
+                    db.execSQL("DROP TRIGGER IF EXISTS [" + docTable + "_bu]");
+                    db.execSQL("DROP TRIGGER IF EXISTS [" + docTable + "_ad]");
+                    db.execSQL("DROP TABLE IF EXISTS [" + docTable + "]");
+                }
+                return false;
+            }
+            for (String trigger : tableMeta.getDocTriggerNames()) {
+                db.execSQL("DROP TRIGGER IF EXISTS [" + trigger + "]");
+            }
+            if (!exists) {
+                Log.d(TAG, "Create doc table. Query: " + tableMeta.getCreateDocQuery());
+                db.execSQL(tableMeta.getCreateDocQuery());
+            }
+            for (String query : tableMeta.getDocTriggerQueries()) {
+                db.execSQL(query);
+            }
+            return !exists;
+        }
+
+        /**
+         * Create, rebuild or drop full-text table of table.
+         * Full-text table is rebuilt from table content when its columns are changed
+         * @param db
+         * @param schema
+         * @param annotationHelper
+         * @param tableMeta
+         * @param rebuild rebuild full-text table even if it is not changed
+         * @return true if full-text table is verified
+         */
+        private boolean verifyFullText(final SQLiteDatabase db, final LiteSchema schema,
+                                       final AnnotationHelper annotationHelper, final LiteTableMeta tableMeta,
+                                       final boolean rebuild) {
+            final String fullTextTable = LiteTableMeta.FULL_TEXT_PREFIX + tableMeta.getTableName();
+            final LiteSchema.Table existingTable = schema.getTable(fullTextTable);
+            final String existingQuery = existingTable == null ? null : existingTable.getSql();
+            if (tableMeta.getFullTextTable() == null && existingQuery == null) return true;
+            for (String trigger : annotationHelper.getFullTextTriggerNames(tableMeta)) {
+                db.execSQL("DROP TRIGGER IF EXISTS [" + trigger + "]");
+            }
+            if (tableMeta.getFullTextTable() == null) {
+                Log.d(TAG, "Drop full-text table " + fullTextTable);
+                db.execSQL("DROP TABLE IF EXISTS [" + fullTextTable + "]");
+                return true;
+            }
+            try {
+                final String createQuery = annotationHelper.generateCreateFullTextQuery(tableMeta);
+                if (rebuild || !createQuery.equals(existingQuery)) {
+                    db.execSQL("DROP TABLE IF EXISTS [" + fullTextTable + "]");
+                    Log.d(TAG, "Create full-text table. Query: " + createQuery);
+                    db.execSQL(createQuery);
+                    for (String query : annotationHelper.generateFullTextFillQueries(tableMeta)) {
+                        db.execSQL(query);
+                    }
+                }
+                for (String query : annotationHelper.generateFullTextTriggerQueries(tableMeta)) {
+                    db.execSQL(query);
+                }
+                return true;
+            } catch (Exception e) {
+                Log.e(TAG, "Could not create full-text table " + fullTextTable, e);
+                if (databaseListener != null) databaseListener.onError(db,
+                        "Could not create full-text table " + fullTextTable,
+                        e);
+                // Full-text table is rebuilt on next verify
+                for (String trigger : annotationHelper.getFullTextTriggerNames(tableMeta)) {
+                    db.execSQL("DROP TRIGGER IF EXISTS [" + trigger + "]");
+                }
+                db.execSQL("DROP TABLE IF EXISTS [" + fullTextTable + "]");
+                return false;
+            }
+        }
+
+        /**
+         * Create JSON index tables and triggers of table.
+         * Index table is created and filled from table content when it is missing or its paths are changed.
+         * On error, index table is dropped so it is rebuilt on next verify
+         * @param db
+         * @param schema
+         * @param tableMeta
+         * @param rebuild rebuild index tables even if they are not changed
+         * @return true if all JSON indexes are verified
+         */
+        private boolean verifyJsonIndexes(final SQLiteDatabase db, final LiteSchema schema,
+                                          final LiteTableMeta tableMeta, final boolean rebuild) {
+            boolean verified = true;
+            if (!tableMeta.getJsonIndexes().isEmpty()) {
+                db.execSQL(LiteJsonIndexMeta.CREATE_PENDING_QUERY);
+            }
+            for (LiteJsonIndexMeta jsonIndexMeta : tableMeta.getJsonIndexes()) {
+                final String indexTable = jsonIndexMeta.getTableName();
+                try {
+                    for (String trigger : jsonIndexMeta.getTriggerNames()) {
+                        db.execSQL("DROP TRIGGER IF EXISTS [" + trigger + "]");
+                    }
+                    final LiteSchema.Table existingTable = schema.getTable(indexTable);
+                    if (rebuild || existingTable == null
+                            || !jsonIndexMeta.getCreateQuery().equals(existingTable.getSql())) {
+                        db.execSQL("DROP TABLE IF EXISTS [" + indexTable + "]");
+                        Log.d(TAG, "Create JSON index table. Query: " + jsonIndexMeta.getCreateQuery());
+                        db.execSQL(jsonIndexMeta.getCreateQuery());
+                        for (String query : jsonIndexMeta.getCreateIndexQueries()) {
+                            db.execSQL(query);
+                        }
+                        fillJsonIndex(db, tableMeta, jsonIndexMeta, null, null);
+                        db.execSQL("DELETE FROM [" + LiteJsonIndexMeta.PENDING_TABLE + "] WHERE [index_table] = ?",
+                                new Object[] {indexTable});
+                    }
+                    for (String query : jsonIndexMeta.getTriggerQueries()) {
+                        db.execSQL(query);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not create JSON index table " + indexTable, e);
+                    if (databaseListener != null) databaseListener.onError(db,
+                            "Could not create JSON index table " + indexTable,
+                            e);
+                    for (String trigger : jsonIndexMeta.getTriggerNames()) {
+                        db.execSQL("DROP TRIGGER IF EXISTS [" + trigger + "]");
+                    }
+                    db.execSQL("DROP TABLE IF EXISTS [" + indexTable + "]");
+                    verified = false;
+                }
+            }
+            return verified;
+        }
+
+        /**
+         * Drop JSON index tables and their triggers that are not defined by any table class
+         * @param db
+         * @param schema
+         * @param jsonIndexTables lower case names of defined JSON index tables
+         */
+        private void dropStaleJsonIndexes(final SQLiteDatabase db, final LiteSchema schema,
+                                          final Set<String> jsonIndexTables) {
+            final boolean hasPendingTable = schema.hasTable(LiteJsonIndexMeta.PENDING_TABLE);
+            for (LiteSchema.Table table : schema.getTables()) {
+                final String name = table.getName();
+                if (!name.startsWith(LiteJsonIndexMeta.TABLE_PREFIX)
+                        || name.equalsIgnoreCase(LiteJsonIndexMeta.PENDING_TABLE)
+                        || jsonIndexTables.contains(name.toLowerCase(Locale.US))) continue;
+                Log.d(TAG, "Drop stale JSON index table " + name);
+                db.execSQL("DROP TRIGGER IF EXISTS [" + name + "_au]");
+                db.execSQL("DROP TRIGGER IF EXISTS [" + name + "_ad]");
+                db.execSQL("DROP TABLE IF EXISTS [" + name + "]");
+                if (hasPendingTable) {
+                    db.execSQL("DELETE FROM [" + LiteJsonIndexMeta.PENDING_TABLE + "] WHERE [index_table] = ?",
+                            new Object[] {name});
                 }
             }
         }
@@ -255,6 +854,18 @@ public abstract class LiteDatabaseHelper {
             this.databaseListener = databaseListener;
         }
 
+        public void setPrepackagedAsset(String prepackagedAsset) {
+            this.prepackagedAsset = prepackagedAsset;
+        }
+
+        public void setMigrationListener(LiteMigration.MigrationListener migrationListener) {
+            this.migrationListener = migrationListener;
+        }
+
+        public void setSyncSchemaOnOpen(boolean syncSchemaOnOpen) {
+            this.syncSchemaOnOpen = syncSchemaOnOpen;
+        }
+
         public Class[] getTableClass() {
             return tableClasses;
         }
@@ -282,6 +893,8 @@ public abstract class LiteDatabaseHelper {
                 dbName,
                 liteDatabase.version(),
                 tableClasses);
+        mOpenHelper.setSyncSchemaOnOpen(liteDatabase.syncSchemaOnOpen());
+        mOpenHelper.setPrepackagedAsset(liteDatabase.prepackagedAsset());
         liteQuery = new LiteQuery(this);
     }
 
@@ -346,13 +959,112 @@ public abstract class LiteDatabaseHelper {
         mDB = mOpenHelper.getReadableDatabase();
     }
 
-    /** Close the database. */
+    /** Close the database. Pending asynchronous writes are committed first */
     public final void close() {
+        synchronized (this) {
+            if (writeQueue != null) {
+                writeQueue.shutdown();
+                writeQueue = null;
+            }
+        }
+        statementCache.clear();
         if (mDB != null) {
             mDB.close();
         }
     }
 
+    /**
+     * Get compiled statement cache
+     * @return statement cache
+     */
+    public LiteStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Begin new unit of work on current thread.
+     * Join the active one if it is already started on this thread
+     * @return transaction scope
+     */
+    public LiteTransaction beginTransaction() {
+        LiteTransaction transaction = currentTransaction.get();
+        if (transaction == null || !transaction.isActive()) {
+            transaction = new LiteTransaction(this, getDatabase());
+            currentTransaction.set(transaction);
+        }
+        transaction.begin();
+        return transaction;
+    }
+
+    /**
+     * Get active unit of work of current thread
+     * @return transaction scope or null if there is no active scope
+     */
+    public LiteTransaction getCurrentTransaction() {
+        LiteTransaction transaction = currentTransaction.get();
+        if (transaction != null && transaction.isActive()) return transaction;
+        return null;
+    }
+
+    /**
+     * Called when the outermost level of the scope ends
+     * @param transaction
+     */
+    void onTransactionEnd(LiteTransaction transaction) {
+        if (currentTransaction.get() == transaction) {
+            currentTransaction.remove();
+        }
+    }
+
+    /**
+     * Start recording query shapes to suggest indexes
+     * @param autoCreate create suggested indexes on analyze, only in debuggable build
+     * @return index advisor
+     */
+    public synchronized LiteIndexAdvisor enableIndexAdvisor(boolean autoCreate) {
+        indexAdvisor = new LiteIndexAdvisor(this, autoCreate);
+        return indexAdvisor;
+    }
+
+    /**
+     * Stop recording query shapes
+     */
+    public synchronized void disableIndexAdvisor() {
+        indexAdvisor = null;
+    }
+
+    /**
+     * Get index advisor
+     * @return index advisor or null if it is not enabled
+     */
+    public LiteIndexAdvisor getIndexAdvisor() {
+        return indexAdvisor;
+    }
+
+    /**
+     * Get asynchronous write queue.
+     * Create new queue with default configuration if needed
+     * @return write queue
+     */
+    public synchronized LiteWriteQueue getWriteQueue() {
+        if (writeQueue == null || !writeQueue.isAccepting()) {
+            writeQueue = new LiteWriteQueue(this);
+        }
+        return writeQueue;
+    }
+
+    /**
+     * Set asynchronous write queue, to configure batch size and flush latency.
+     * Current queue is committed and shut down
+     * @param writeQueue
+     */
+    public synchronized void setWriteQueue(LiteWriteQueue writeQueue) {
+        if (this.writeQueue != null && this.writeQueue != writeQueue) {
+            this.writeQueue.shutdown();
+        }
+        this.writeQueue = writeQueue;
+    }
+
     /**
      * Set database listener
      * @param databaseListener
@@ -361,6 +1073,14 @@ public abstract class LiteDatabaseHelper {
         mOpenHelper.setDatabaseListener(databaseListener);
     }
 
+    /**
+     * Set listener for progress of table rebuild. Set it before the database is opened
+     * @param migrationListener
+     */
+    public void setMigrationListener(LiteMigration.MigrationListener migrationListener) {
+        mOpenHelper.setMigrationListener(migrationListener);
+    }
+
     /**
      * Check if table is exists
      * @param table name of table to check (SQLite table name)
@@ -410,6 +1130,14 @@ public abstract class LiteDatabaseHelper {
         return tableMetaData.get(clazz.getName());
     }
 
+    /**
+     * Get fingerprint of generated schema of all table classes
+     * @return schema fingerprint, null if a table class is invalid
+     */
+    public String getSchemaFingerprint() {
+        return mOpenHelper.getSchemaFingerprint();
+    }
+
     /**
      * Get all defined table classes
      * @return all table classes
@@ -432,4 +1160,57 @@ public abstract class LiteDatabaseHelper {
         }
         return tableMetaData;
     }
+
+    /**
+     * Fill JSON index table with values extracted from rows of table
+     * @param db
+     * @param tableMeta
+     * @param jsonIndexMeta
+     * @param where condition of rows to index, null for all rows
+     * @param whereArgs
+     * @return number of indexed rows
+     * @throws LiteDatabaseException
+     */
+    static int fillJsonIndex(final SQLiteDatabase db, final LiteTableMeta tableMeta,
+                             final LiteJsonIndexMeta jsonIndexMeta, final String where,
+                             final String[] whereArgs) throws LiteDatabaseException {
+        final String table = "[" + tableMeta.getTableName() + "]";
+        final String column = table + ".[" + jsonIndexMeta.getColumnName() + "]";
+        final String condition = " WHERE " + column + " IS NOT NULL" + (where == null ? "" : " AND (" + where + ")");
+        final String docTable = tableMeta.getDocTable();
+        final String query;
+        if (docTable == null) {
+            query = "SELECT rowid, " + column + " FROM " + table + condition;
+        } else {
+            // Give doc id to rows that have none yet
+            final String key = table + ".[" + tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName()
+                    + "]";
+            db.execSQL("INSERT OR IGNORE INTO [" + docTable + "] ([key]) SELECT " + key + " FROM " + table + condition,
+                    whereArgs == null ? new Object[0] : whereArgs);
+            query = "SELECT [" + docTable + "].[docid], " + column + " FROM " + table + " JOIN [" + docTable
+                    + "] ON [" + docTable + "].[key] = " + key + condition;
+        }
+        final SQLiteStatement statement = db.compileStatement(jsonIndexMeta.getInsertQuery());
+        final Cursor cursor = db.rawQuery(query, whereArgs);
+        try {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                final Object tree = LiteJson.parse(cursor.getString(1));
+                for (String path : jsonIndexMeta.getPaths()) {
+                    for (Object value : LiteJson.extract(tree, path)) {
+                        statement.bindString(1, path);
+                        LiteBaseDao.bindArg(statement, 2, value);
+                        statement.bindLong(3, cursor.getLong(0));
+                        statement.executeInsert();
+                        statement.clearBindings();
+                    }
+                }
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+    }
 }
@@ -41,5 +41,6 @@ public enum LiteFieldType {
     BYTE,
     BOOLEAN,
     DATE,
-    SERIALIZABLE
+    SERIALIZABLE,
+    JSON
 }
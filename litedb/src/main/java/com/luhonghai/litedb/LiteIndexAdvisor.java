@@ -0,0 +1,436 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import android.content.pm.ApplicationInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index advisor that records the query shapes used by the dao.
+ *
+ * Selection and order by are normalized (literals are replaced by ?) and counted by shape.
+ * analyze() runs EXPLAIN QUERY PLAN of frequent shapes and suggests an index on the filter
+ * and order columns when SQLite scans the table or sorts with a temporary b-tree.
+ * Suggested indexes could be created automatically in debuggable builds
+ */
+public class LiteIndexAdvisor {
+
+    private static final String TAG = "LiteIndexAdvisor";
+
+    /**
+     * Prefix of suggested index name
+     */
+    public static final String INDEX_PREFIX = "lite_adv_";
+
+    /**
+     * Maximum number of recorded shapes
+     */
+    public static final int MAX_SHAPES = 512;
+
+    /**
+     * Recorded query shape
+     */
+    private static final class Shape {
+
+        final LiteTableMeta tableMeta;
+
+        final String selection;
+
+        final String orderBy;
+
+        final AtomicInteger count = new AtomicInteger();
+
+        Shape(LiteTableMeta tableMeta, String selection, String orderBy) {
+            this.tableMeta = tableMeta;
+            this.selection = selection;
+            this.orderBy = orderBy;
+        }
+    }
+
+    /**
+     * Suggested index of slow query shape
+     */
+    public static class Suggestion {
+
+        private final String tableName;
+
+        private final String selection;
+
+        private final String orderBy;
+
+        private final int count;
+
+        private final String plan;
+
+        private final String[] columns;
+
+        private final String createQuery;
+
+        Suggestion(String tableName, String selection, String orderBy, int count, String plan,
+                   String[] columns, String createQuery) {
+            this.tableName = tableName;
+            this.selection = selection;
+            this.orderBy = orderBy;
+            this.count = count;
+            this.plan = plan;
+            this.columns = columns;
+            this.createQuery = createQuery;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         *
+         * @return normalized selection
+         */
+        public String getSelection() {
+            return selection;
+        }
+
+        /**
+         *
+         * @return normalized order by
+         */
+        public String getOrderBy() {
+            return orderBy;
+        }
+
+        /**
+         *
+         * @return number of executions of this shape
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         *
+         * @return query plan details, one step per line
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        /**
+         *
+         * @return suggested index columns. Empty if no column is found
+         */
+        public String[] getColumns() {
+            return columns;
+        }
+
+        /**
+         *
+         * @return query to create suggested index. Null if no column is found
+         */
+        public String getCreateQuery() {
+            return createQuery;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + tableName + "] WHERE " + selection
+                    + (orderBy == null ? "" : " ORDER BY " + orderBy)
+                    + " executed " + count + " times. Plan: " + plan
+                    + (createQuery == null ? "" : ". Suggested index: " + createQuery);
+        }
+    }
+
+    private final LiteDatabaseHelper databaseHelper;
+
+    private final boolean autoCreate;
+
+    private final Map<String, Shape> shapes = new HashMap<String, Shape>();
+
+    /**
+     *
+     * @param databaseHelper
+     * @param autoCreate create suggested index on analyze, only in debuggable build
+     */
+    public LiteIndexAdvisor(LiteDatabaseHelper databaseHelper, boolean autoCreate) {
+        this.databaseHelper = databaseHelper;
+        this.autoCreate = autoCreate;
+    }
+
+    /**
+     * Record query shape
+     * @param tableMeta
+     * @param selection selection with column names
+     * @param orderBy order by with column names
+     */
+    public void record(LiteTableMeta tableMeta, String selection, String orderBy) {
+        if (selection == null && orderBy == null) return;
+        final String normalizedSelection = normalize(selection);
+        final String normalizedOrderBy = normalize(orderBy);
+        final String key = tableMeta.getTableName() + "|" + normalizedSelection + "|" + normalizedOrderBy;
+        Shape shape;
+        synchronized (shapes) {
+            shape = shapes.get(key);
+            if (shape == null) {
+                if (shapes.size() >= MAX_SHAPES) return;
+                shape = new Shape(tableMeta, normalizedSelection, normalizedOrderBy);
+                shapes.put(key, shape);
+            }
+        }
+        shape.count.incrementAndGet();
+    }
+
+    /**
+     * Remove all recorded shapes
+     */
+    public void clear() {
+        synchronized (shapes) {
+            shapes.clear();
+        }
+    }
+
+    /**
+     * Analyze recorded shapes that are executed at least minCount times
+     * @param minCount
+     * @return suggestions of slow shapes, most frequent first
+     */
+    public List<Suggestion> analyze(int minCount) {
+        final List<Shape> candidates = new ArrayList<Shape>();
+        synchronized (shapes) {
+            for (Shape shape : shapes.values()) {
+                if (shape.count.get() >= minCount) candidates.add(shape);
+            }
+        }
+        final SQLiteDatabase db = databaseHelper.getDatabase();
+        final boolean create = autoCreate && isDebuggable();
+        final List<Suggestion> suggestions = new ArrayList<Suggestion>();
+        for (Shape shape : candidates) {
+            final Suggestion suggestion = analyze(db, shape);
+            if (suggestion == null) continue;
+            suggestions.add(suggestion);
+            Log.w(TAG, suggestion.toString());
+            if (create && suggestion.getCreateQuery() != null) {
+                try {
+                    db.execSQL(suggestion.getCreateQuery());
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not create suggested index " + suggestion.getCreateQuery(), e);
+                }
+            }
+        }
+        Collections.sort(suggestions, new Comparator<Suggestion>() {
+            @Override
+            public int compare(Suggestion lhs, Suggestion rhs) {
+                return rhs.getCount() - lhs.getCount();
+            }
+        });
+        return suggestions;
+    }
+
+    /**
+     * Explain query plan of shape
+     * @param db
+     * @param shape
+     * @return suggestion or null if the plan does not scan table or use temporary b-tree
+     */
+    private Suggestion analyze(SQLiteDatabase db, Shape shape) {
+        final String tableName = shape.tableMeta.getTableName();
+        final String sql = "EXPLAIN QUERY PLAN SELECT * FROM [" + tableName + "]"
+                + (shape.selection == null ? "" : " WHERE " + shape.selection)
+                + (shape.orderBy == null ? "" : " ORDER BY " + shape.orderBy);
+        final String[] args = new String[countParameters(sql)];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = "0";
+        }
+        final StringBuilder plan = new StringBuilder();
+        boolean slow = false;
+        Cursor cursor;
+        try {
+            cursor = db.rawQuery(sql, args);
+        } catch (Exception e) {
+            Log.e(TAG, "Could not explain query " + sql, e);
+            return null;
+        }
+        try {
+            final int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                final String detail = cursor.getString(detailIndex);
+                if (plan.length() > 0) plan.append("\n");
+                plan.append(detail);
+                if ((detail.startsWith("SCAN") && !detail.contains(" USING "))
+                        || detail.contains("TEMP B-TREE")) {
+                    slow = true;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (!slow) return null;
+        final List<String> columns = new ArrayList<String>();
+        collectColumns(shape.tableMeta, shape.selection, columns, true);
+        collectColumns(shape.tableMeta, shape.selection, columns, false);
+        collectColumns(shape.tableMeta, shape.orderBy, columns, false);
+        String createQuery = null;
+        if (!columns.isEmpty()) {
+            StringBuilder name = new StringBuilder(INDEX_PREFIX).append(tableName);
+            StringBuilder columnList = new StringBuilder();
+            for (String column : columns) {
+                name.append("_").append(column);
+                if (columnList.length() > 0) columnList.append(",");
+                columnList.append("[").append(column).append("]");
+            }
+            createQuery = "CREATE INDEX IF NOT EXISTS [" + name + "] ON [" + tableName + "] (" + columnList + ")";
+        }
+        return new Suggestion(tableName, shape.selection, shape.orderBy, shape.count.get(), plan.toString(),
+                columns.toArray(new String[columns.size()]), createQuery);
+    }
+
+    /**
+     * Collect column names in expression. Equality columns go first in index
+     * @param tableMeta
+     * @param expression
+     * @param columns
+     * @param equality collect only columns that are compared by =, IN or IS
+     */
+    private static void collectColumns(LiteTableMeta tableMeta, String expression, List<String> columns,
+                                       boolean equality) {
+        if (expression == null) return;
+        final Map<String, String> columnNames = new HashMap<String, String>();
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            columnNames.put(columnMeta.getColumnName().toLowerCase(Locale.US), columnMeta.getColumnName());
+        }
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            int start;
+            int end;
+            if (c == '[') {
+                start = i + 1;
+                end = expression.indexOf(']', start);
+                if (end < 0) return;
+                i = end + 1;
+            } else if (Character.isLetter(c) || c == '_') {
+                start = i;
+                end = i + 1;
+                while (end < length && (Character.isLetterOrDigit(expression.charAt(end))
+                        || expression.charAt(end) == '_')) end++;
+                i = end;
+            } else {
+                i++;
+                continue;
+            }
+            final String column = columnNames.get(expression.substring(start, end).toLowerCase(Locale.US));
+            if (column == null || columns.contains(column)) continue;
+            if (!equality || isEquality(expression, i)) columns.add(column);
+        }
+    }
+
+    private static boolean isEquality(String expression, int index) {
+        final String rest = expression.substring(index).trim().toUpperCase(Locale.US);
+        return (rest.startsWith("=") || rest.startsWith("IN ") || rest.startsWith("IN(") || rest.startsWith("IS "))
+                && !rest.startsWith("IS NOT");
+    }
+
+    /**
+     * Normalize expression. Literals are replaced by ? and white spaces are collapsed
+     * @param expression
+     * @return normalized expression
+     */
+    static String normalize(String expression) {
+        if (expression == null) return null;
+        final StringBuilder normalized = new StringBuilder(expression.length());
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (c == '\'') {
+                i++;
+                while (i < length) {
+                    if (expression.charAt(i) == '\'') {
+                        if (i + 1 < length && expression.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                normalized.append('?');
+            } else if (c == '[') {
+                final int end = expression.indexOf(']', i);
+                final int next = end < 0 ? length : end + 1;
+                normalized.append(expression, i, next);
+                i = next;
+            } else if (Character.isLetter(c) || c == '_') {
+                final int start = i;
+                while (i < length && (Character.isLetterOrDigit(expression.charAt(i))
+                        || expression.charAt(i) == '_')) i++;
+                normalized.append(expression, start, i);
+            } else if (Character.isDigit(c)) {
+                while (i < length && (Character.isLetterOrDigit(expression.charAt(i))
+                        || expression.charAt(i) == '.')) i++;
+                normalized.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(expression.charAt(i))) i++;
+                if (normalized.length() > 0) normalized.append(' ');
+            } else {
+                normalized.append(c);
+                i++;
+            }
+        }
+        // Collapse IN lists, so different number of values have the same shape
+        return normalized.toString().trim().replaceAll("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)", "(?)");
+    }
+
+    private static int countParameters(String sql) {
+        int count = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') count++;
+        }
+        return count;
+    }
+
+    private boolean isDebuggable() {
+        try {
+            return (databaseHelper.getContext().getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Convert value of JSON column and extract indexed values by path.
+ *
+ * Value is kept as a tree of List, Map and scalar values, JSON null is null.
+ * Path is a subset of SQLite JSON path: "$" for the root, ".name" for object member,
+ * "[n]" for array element and "[*]" for all array elements
+ */
+public final class LiteJson {
+
+    /**
+     * Path step of all array elements
+     */
+    private static final Object ALL_ELEMENTS = new Object();
+
+    private LiteJson() {
+    }
+
+    /**
+     * Check field type could be stored as JSON
+     * @param type
+     * @return true if type is supported
+     */
+    public static boolean isSupportedType(Class<?> type) {
+        return type.equals(JSONObject.class)
+                || type.equals(JSONArray.class)
+                || type.equals(String[].class)
+                || (!type.equals(Object.class)
+                && (type.isAssignableFrom(ArrayList.class)
+                || type.isAssignableFrom(LinkedHashSet.class)
+                || type.isAssignableFrom(LinkedHashMap.class)));
+    }
+
+    /**
+     * Check path could be evaluated
+     * @param path
+     * @return true if path is valid
+     */
+    public static boolean isValidPath(String path) {
+        return parsePath(path) != null;
+    }
+
+    /**
+     * Convert field value to JSON text
+     * @param value
+     * @return JSON text, null if value is null
+     * @throws LiteDatabaseException
+     */
+    public static String toJson(Object value) throws LiteDatabaseException {
+        if (value == null) return null;
+        try {
+            return wrap(value).toString();
+        } catch (JSONException e) {
+            throw new LiteDatabaseException("Could not convert value to JSON", e);
+        }
+    }
+
+    /**
+     * Parse JSON text to field value
+     * @param json
+     * @param type field type
+     * @return field value, null if JSON text is null or empty
+     * @throws LiteDatabaseException
+     */
+    public static Object fromJson(String json, Class<?> type) throws LiteDatabaseException {
+        if (json == null || json.length() == 0) return null;
+        return fromTree(parse(json), type);
+    }
+
+    /**
+     * Parse JSON text to tree of List, Map and scalar values
+     * @param json
+     * @return tree
+     * @throws LiteDatabaseException
+     */
+    public static Object parse(String json) throws LiteDatabaseException {
+        try {
+            return unwrap(new JSONTokener(json).nextValue());
+        } catch (JSONException e) {
+            throw new LiteDatabaseException("Could not parse JSON value from database", e);
+        }
+    }
+
+    /**
+     * Convert tree of List, Map and scalar values to field value
+     * @param tree
+     * @param type field type
+     * @return field value
+     * @throws LiteDatabaseException
+     */
+    public static Object fromTree(Object tree, Class<?> type) throws LiteDatabaseException {
+        if (tree == null) return null;
+        try {
+            if (type.equals(JSONObject.class) || type.equals(JSONArray.class)) {
+                final Object json = wrap(tree);
+                if (type.isInstance(json)) return json;
+            } else if (tree instanceof List) {
+                final List<?> list = (List<?>) tree;
+                if (type.equals(String[].class)) {
+                    final String[] values = new String[list.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = list.get(i) == null ? null : list.get(i).toString();
+                    }
+                    return values;
+                }
+                if (type.isInstance(list)) return list;
+                if (type.isAssignableFrom(LinkedHashSet.class)) return new LinkedHashSet<Object>(list);
+            } else if (tree instanceof Map && type.isInstance(tree)) {
+                return tree;
+            }
+        } catch (JSONException e) {
+            throw new LiteDatabaseException("Could not convert JSON value", e);
+        }
+        throw new LiteDatabaseException("JSON value could not be converted to " + type.getName());
+    }
+
+    /**
+     * Convert field value to tree of List, Map and scalar values
+     * @param value
+     * @return tree
+     * @throws LiteDatabaseException
+     */
+    public static Object toTree(Object value) throws LiteDatabaseException {
+        try {
+            return unwrap(wrap(value));
+        } catch (JSONException e) {
+            throw new LiteDatabaseException("Could not convert value to JSON", e);
+        }
+    }
+
+    /**
+     * Extract scalar values of tree by path. Objects and arrays are skipped
+     * @param tree tree of field value
+     * @param path
+     * @return extracted values, converted by toIndexValue
+     */
+    public static List<Object> extract(Object tree, String path) {
+        final List<Object> values = new ArrayList<Object>();
+        final List<Object> steps = parsePath(path);
+        if (steps != null) collect(tree, steps, 0, values);
+        return values;
+    }
+
+    /**
+     * Convert scalar value to stored value of JSON index, same as SQLite json_extract.
+     * Boolean is stored as 1 or 0, integral number as integer
+     * @param value
+     * @return stored value
+     */
+    public static Object toIndexValue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        }
+        if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            final double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && Math.abs(number) < Long.MAX_VALUE) {
+                return (long) number;
+            }
+            return number;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static void collect(Object node, List<Object> steps, int step, List<Object> values) {
+        if (node == null) return;
+        if (step == steps.size()) {
+            if (!(node instanceof Map) && !(node instanceof List)) {
+                values.add(toIndexValue(node));
+            }
+            return;
+        }
+        final Object key = steps.get(step);
+        if (key instanceof String) {
+            if (node instanceof Map) {
+                collect(((Map<?, ?>) node).get(key), steps, step + 1, values);
+            }
+        } else if (node instanceof List) {
+            final List<?> list = (List<?>) node;
+            if (key == ALL_ELEMENTS) {
+                for (Object item : list) {
+                    collect(item, steps, step + 1, values);
+                }
+            } else if ((Integer) key < list.size()) {
+                collect(list.get((Integer) key), steps, step + 1, values);
+            }
+        }
+    }
+
+    /**
+     * Parse path to steps: member name, array index or ALL_ELEMENTS
+     * @param path
+     * @return steps, null if path is invalid
+     */
+    private static List<Object> parsePath(String path) {
+        if (path == null || !path.startsWith("$")) return null;
+        final List<Object> steps = new ArrayList<Object>();
+        int i = 1;
+        while (i < path.length()) {
+            final char c = path.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') end++;
+                if (end == i + 1) return null;
+                steps.add(path.substring(i + 1, end));
+                i = end;
+            } else if (c == '[') {
+                final int end = path.indexOf(']', i);
+                if (end < 0) return null;
+                final String index = path.substring(i + 1, end);
+                if ("*".equals(index)) {
+                    steps.add(ALL_ELEMENTS);
+                } else {
+                    try {
+                        final int n = Integer.parseInt(index);
+                        if (n < 0) return null;
+                        steps.add(n);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                }
+                i = end + 1;
+            } else {
+                return null;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Convert value to org.json value
+     * @param value
+     * @return JSONObject, JSONArray or scalar value
+     * @throws JSONException
+     */
+    private static Object wrap(Object value) throws JSONException {
+        if (value == null) return JSONObject.NULL;
+        if (value instanceof JSONObject || value instanceof JSONArray) return value;
+        if (value instanceof Map) {
+            final JSONObject object = new JSONObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                object.put(String.valueOf(entry.getKey()), wrap(entry.getValue()));
+            }
+            return object;
+        }
+        if (value instanceof Object[]) {
+            value = Arrays.asList((Object[]) value);
+        }
+        if (value instanceof Collection) {
+            final JSONArray array = new JSONArray();
+            for (Object item : (Collection<?>) value) {
+                array.put(wrap(item));
+            }
+            return array;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof String) return value;
+        return value.toString();
+    }
+
+    /**
+     * Convert org.json value to tree of List, Map and scalar values
+     * @param value
+     * @return tree
+     * @throws JSONException
+     */
+    private static Object unwrap(Object value) throws JSONException {
+        if (value == null || value == JSONObject.NULL) return null;
+        if (value instanceof JSONObject) {
+            final JSONObject object = (JSONObject) value;
+            final Map<String, Object> map = new LinkedHashMap<String, Object>();
+            final Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                map.put(key, unwrap(object.get(key)));
+            }
+            return map;
+        }
+        if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            final List<Object> list = new ArrayList<Object>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(unwrap(array.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import android.database.Cursor;
+
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Read only list backed by a rowid index of the query result.
+ *
+ * Only the rowid of each row is kept (8 bytes per row), or the primary key for WITHOUT ROWID table.
+ * Objects are loaded on demand
+ * by chunks of neighbour rows and kept in a bounded LRU, so the memory of objects
+ * scales with the visible window instead of the result size.
+ * Rows deleted after the list is opened are returned as null
+ * @param <T> table class
+ */
+public class LiteLazyList<T> extends AbstractList<T> implements RandomAccess {
+
+    /**
+     * Default number of rows that are loaded together
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 50;
+
+    /**
+     * Default number of loaded objects that are kept
+     */
+    public static final int DEFAULT_CACHE_SIZE = 200;
+
+    private final LiteBaseDao<T> dao;
+
+    private final long[] rowIds;
+
+    /**
+     * Primary keys of WITHOUT ROWID table. Null if rowid is used
+     */
+    private final Object[] keys;
+
+    private final int chunkSize;
+
+    /**
+     * Loaded objects by position
+     */
+    private final LinkedHashMap<Integer, T> objects;
+
+    /**
+     * Query to select objects by rowid or primary key, with the key as the last column
+     */
+    private final String selectQuery;
+
+    LiteLazyList(LiteBaseDao<T> dao, long[] rowIds, int chunkSize, int cacheSize)
+            throws LiteDatabaseException {
+        this(dao, rowIds, null, chunkSize, cacheSize);
+    }
+
+    LiteLazyList(LiteBaseDao<T> dao, Object[] keys, int chunkSize, int cacheSize)
+            throws LiteDatabaseException {
+        this(dao, null, keys, chunkSize, cacheSize);
+    }
+
+    private LiteLazyList(LiteBaseDao<T> dao, long[] rowIds, Object[] keys, int chunkSize, final int cacheSize)
+            throws LiteDatabaseException {
+        if (chunkSize <= 0 || cacheSize < chunkSize) {
+            throw new LiteDatabaseException("Invalid chunk size " + chunkSize + " or cache size " + cacheSize);
+        }
+        this.dao = dao;
+        this.rowIds = rowIds;
+        this.keys = keys;
+        // One key is bound per row, chunk must fit SQLite variable limit
+        this.chunkSize = Math.min(chunkSize, LiteBaseDao.MAX_VARIABLE_NUMBER);
+        this.objects = new LinkedHashMap<Integer, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        final LiteTableMeta tableMeta = dao.getTableMeta();
+        final String[] selectColumns = tableMeta.getSelectColumns();
+        StringBuilder query = new StringBuilder("SELECT ");
+        for (String column : selectColumns) {
+            query.append(column).append(",");
+        }
+        final String keyColumn = keys == null ? "rowid"
+                : "[" + tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName() + "]";
+        query.append(keyColumn).append(" FROM [").append(tableMeta.getTableName()).append("] WHERE ")
+                .append(keyColumn).append(" IN (");
+        this.selectQuery = query.toString();
+    }
+
+    @Override
+    public T get(int location) {
+        if (location < 0 || location >= size()) {
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + size());
+        }
+        synchronized (objects) {
+            if (objects.containsKey(location)) return objects.get(location);
+        }
+        try {
+            return loadChunk(location);
+        } catch (LiteDatabaseException e) {
+            throw new IllegalStateException("Could not load object at " + location, e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return keys == null ? rowIds.length : keys.length;
+    }
+
+    /**
+     * Get rowid of object at position. Not supported by WITHOUT ROWID table
+     * @param location
+     * @return rowid
+     */
+    public long getRowId(int location) {
+        if (rowIds == null) throw new UnsupportedOperationException("Table has no rowid");
+        return rowIds[location];
+    }
+
+    /**
+     * Get rowid or primary key of object at position
+     * @param location
+     * @return Long rowid, or primary key of WITHOUT ROWID table
+     */
+    public Object getKey(int location) {
+        return keys == null ? rowIds[location] : keys[location];
+    }
+
+    /**
+     * Release all loaded objects. They are loaded again by chunks when accessed
+     */
+    public void release() {
+        synchronized (objects) {
+            objects.clear();
+        }
+    }
+
+    /**
+     * Load the chunk that contains the position
+     * @param location
+     * @return object at position
+     * @throws LiteDatabaseException
+     */
+    private T loadChunk(int location) throws LiteDatabaseException {
+        final int from = (location / chunkSize) * chunkSize;
+        final int to = Math.min(from + chunkSize, size());
+        final Object[] args = new Object[to - from];
+        final Map<Object, Integer> positions = new HashMap<Object, Integer>(args.length * 2);
+        StringBuilder query = new StringBuilder(selectQuery);
+        for (int i = from; i < to; i++) {
+            if (i > from) query.append(",");
+            query.append("?");
+            args[i - from] = getKey(i);
+            positions.put(args[i - from], i);
+        }
+        query.append(")");
+        final LiteColumnPlan plan = dao.getSelectPlan();
+        final Map<Integer, T> loaded = new HashMap<Integer, T>(args.length * 2);
+        Cursor cursor = dao.getDatabase().rawQueryWithFactory(new LiteCursorFactory(args),
+                query.toString(), null, null);
+        try {
+            final int keyIndex = cursor.getColumnCount() - 1;
+            final LiteColumnMeta keyMeta = keys == null ? null
+                    : dao.getTableMeta().getColumns().get(dao.getTableMeta().getPrimaryKey());
+            while (cursor.moveToNext()) {
+                final Object key = keys == null ? cursor.getLong(keyIndex)
+                        : dao.getKeyValue(cursor, keyIndex, keyMeta);
+                loaded.put(positions.get(key), dao.toObject(cursor, plan));
+            }
+        } finally {
+            cursor.close();
+        }
+        synchronized (objects) {
+            for (int i = from; i < to; i++) {
+                // Deleted row is cached as null too, so it is not queried again
+                objects.put(i, loaded.get(i));
+            }
+            // Requested object is the most recently used
+            objects.get(location);
+        }
+        return loaded.get(location);
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+
+package com.luhonghai.litedb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.luhonghai.litedb.annotation.AnnotationHelper;
+import com.luhonghai.litedb.exception.AnnotationNotFound;
+import com.luhonghai.litedb.exception.InvalidAnnotationData;
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.exception.UnsupportedFieldType;
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteJsonIndexMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Rebuild table to match its table meta, for changes that ALTER TABLE ADD COLUMN can not apply:
+ * dropped columns, changed types, constraints or primary key.
+ *
+ * Rows are copied into a shadow table by INSERT ... SELECT in keyset batches of rowid, so memory use does not
+ * depend on table size. Rowids are kept, so full-text index stays valid. When the table gains or loses
+ * its rowid, full-text, doc and JSON index tables are dropped and filled again by verify. The shadow table
+ * replaces the table in one transaction, then indexes, row counter and full-text triggers are created once by verify.
+ *
+ * Each batch is committed separately when migration is not run inside a transaction, such as schema sync
+ * on open. Inside onCreate or onUpgrade all batches join the transaction of the open helper.
+ * An interrupted migration leaves the table untouched and is started again on next verify.
+ */
+public class LiteMigration {
+
+    /**
+     * Listener for progress of table rebuild. Called on the thread that opens the database
+     */
+    public interface MigrationListener {
+        /**
+         * Before rows are copied
+         * @param tableName
+         * @param reason why table is rebuilt
+         * @param totalRows number of rows to copy
+         */
+        void onMigrationStart(String tableName, String reason, long totalRows);
+
+        /**
+         * After each batch is copied
+         * @param tableName
+         * @param copiedRows
+         * @param totalRows
+         */
+        void onMigrationProgress(String tableName, long copiedRows, long totalRows);
+
+        /**
+         * After shadow table replaces the table
+         * @param tableName
+         * @param copiedRows
+         */
+        void onMigrationComplete(String tableName, long copiedRows);
+    }
+
+    /**
+     * Prefix of shadow table name
+     */
+    public static final String SHADOW_PREFIX = "lite_new_";
+
+    /**
+     * Default number of rows that are copied by one statement
+     */
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+
+    private final SQLiteDatabase db;
+
+    private final LiteTableMeta tableMeta;
+
+    private final LiteSchema.Table table;
+
+    private final String shadowTable;
+
+    private final String shadowCreateQuery;
+
+    private final String deleteCountQuery;
+
+    /**
+     * Constructor
+     * @param db
+     * @param annotationHelper annotation helper of table class
+     * @param table live table
+     * @throws LiteDatabaseException
+     */
+    public LiteMigration(SQLiteDatabase db, AnnotationHelper annotationHelper, LiteSchema.Table table)
+            throws LiteDatabaseException {
+        this.db = db;
+        this.table = table;
+        try {
+            this.tableMeta = annotationHelper.generateTableMeta();
+            this.shadowTable = SHADOW_PREFIX + tableMeta.getTableName();
+            this.shadowCreateQuery = annotationHelper.getCreateTableQuery(shadowTable);
+            this.deleteCountQuery = annotationHelper.getDeleteCountQuery();
+        } catch (AnnotationNotFound | UnsupportedFieldType | InvalidAnnotationData e) {
+            throw new LiteDatabaseException("Could not get table meta data", e);
+        }
+    }
+
+    public String getShadowTable() {
+        return shadowTable;
+    }
+
+    /**
+     * Diff live table with table meta
+     * @return reason to rebuild table, null if table can be verified in place
+     */
+    public String getRebuildReason() {
+        final String liveQuery = table.getSql() == null ? "" : table.getSql().toUpperCase(Locale.US);
+        if (liveQuery.contains("WITHOUT ROWID") != tableMeta.isWithoutRowId())
+            return "WITHOUT ROWID is changed";
+        if (liveQuery.contains("AUTOINCREMENT") != isAutoincrement())
+            return "Autoincrement is changed";
+        final List<String> primaryKeys = Arrays.asList(tableMeta.getPrimaryKeys());
+        final Set<String> columnNames = new HashSet<String>();
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            final String columnName = columnMeta.getColumnName();
+            final LiteSchema.Column column = table.getColumn(columnName);
+            final int keyPosition = primaryKeys.indexOf(columnMeta.getField().getName()) + 1;
+            columnNames.add(columnName.toLowerCase(Locale.US));
+            if (column == null) {
+                if (keyPosition > 0)
+                    return "Primary key column " + columnName + " is added";
+                if (columnMeta.isNotNull() && isEmpty(columnMeta.getDefaultValue()))
+                    return "NOT NULL column " + columnName + " without default value is added";
+                continue;
+            }
+            if (!columnMeta.getColumnType().toString().equalsIgnoreCase(column.getType()))
+                return "Type of column " + columnName + " is changed";
+            if (column.getPrimaryKey() != keyPosition)
+                return "Primary key is changed";
+            // Primary key of WITHOUT ROWID table is always NOT NULL
+            if (keyPosition == 0 && column.isNotNull() != columnMeta.isNotNull())
+                return "NOT NULL of column " + columnName + " is changed";
+            if (!isEmpty(column.getDefaultValue()) || !isEmpty(columnMeta.getDefaultValue())) {
+                if (column.getDefaultValue() == null
+                        || !column.getDefaultValue().trim().equals(columnMeta.getDefaultValue().trim()))
+                    return "Default value of column " + columnName + " is changed";
+            }
+        }
+        if (tableMeta.getHashColumn() != null)
+            columnNames.add(tableMeta.getHashColumn().toLowerCase(Locale.US));
+        for (LiteSchema.Column column : table.getColumns().values()) {
+            if (!columnNames.contains(column.getName().toLowerCase(Locale.US)))
+                return "Column " + column.getName() + " is dropped";
+        }
+        return null;
+    }
+
+    /**
+     * Rebuild table
+     * @param listener progress listener, could be null
+     * @param batchSize number of rows that are copied by one statement
+     * @return number of copied rows
+     */
+    public long migrate(MigrationListener listener, int batchSize) {
+        final String tableName = tableMeta.getTableName();
+        final String reason = getRebuildReason();
+        final boolean sourceHasRowId = table.getSql() == null
+                || !table.getSql().toUpperCase(Locale.US).contains("WITHOUT ROWID");
+        final StringBuilder columns = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+        boolean rowIdAliasCopied = false;
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            final String column = "[" + columnMeta.getColumnName() + "]";
+            if (table.hasColumn(columnMeta.getColumnName())) {
+                append(columns, column);
+                append(values, column);
+                if (isRowIdAlias(columnMeta)) rowIdAliasCopied = true;
+            } else if (columnMeta.isNotNull() && isEmpty(columnMeta.getDefaultValue())) {
+                append(columns, column);
+                append(values, getEmptyValue(columnMeta.getColumnType()));
+            }
+            // Other new columns take their default value
+        }
+        if (tableMeta.getHashColumn() != null && table.hasColumn(tableMeta.getHashColumn())) {
+            append(columns, "[" + tableMeta.getHashColumn() + "]");
+            append(values, "[" + tableMeta.getHashColumn() + "]");
+        }
+        if (sourceHasRowId && !tableMeta.isWithoutRowId() && !rowIdAliasCopied) {
+            // Keep rowid for full-text index that is keyed by rowid
+            columns.insert(0, "rowid,");
+            values.insert(0, "rowid,");
+        }
+        final boolean inTransaction = db.inTransaction();
+        db.execSQL("DROP TABLE IF EXISTS [" + shadowTable + "]");
+        db.execSQL(shadowCreateQuery);
+        final long totalRows = longForQuery("SELECT count(*) FROM [" + tableName + "]");
+        if (listener != null) listener.onMigrationStart(tableName, reason, totalRows);
+        final String copyQuery = "INSERT INTO [" + shadowTable + "] (" + columns + ") SELECT " + values
+                + " FROM [" + tableName + "]";
+        long copiedRows = 0;
+        final SQLiteStatement changes = db.compileStatement("SELECT changes()");
+        try {
+            if (sourceHasRowId && totalRows > 0) {
+                // Keyset batches: last rowid of next batch is found by the rowid index, gaps do not make empty batches
+                final SQLiteStatement bound = db.compileStatement("SELECT rowid FROM [" + tableName
+                        + "] WHERE rowid >= ? ORDER BY rowid LIMIT 1 OFFSET ?");
+                final SQLiteStatement copy = db.compileStatement(copyQuery + " WHERE rowid >= ? AND rowid <= ?");
+                try {
+                    long from = Long.MIN_VALUE;
+                    while (true) {
+                        long to;
+                        bound.bindLong(1, from);
+                        bound.bindLong(2, batchSize - 1);
+                        try {
+                            to = bound.simpleQueryForLong();
+                        } catch (SQLiteDoneException e) {
+                            // Last batch
+                            to = Long.MAX_VALUE;
+                        }
+                        if (!inTransaction) db.beginTransaction();
+                        try {
+                            copy.bindLong(1, from);
+                            copy.bindLong(2, to);
+                            copy.execute();
+                            copiedRows += changes.simpleQueryForLong();
+                            if (!inTransaction) db.setTransactionSuccessful();
+                        } finally {
+                            if (!inTransaction) db.endTransaction();
+                        }
+                        if (listener != null) listener.onMigrationProgress(tableName, copiedRows, totalRows);
+                        if (to == Long.MAX_VALUE) break;
+                        from = to + 1;
+                    }
+                } finally {
+                    bound.close();
+                    copy.close();
+                }
+            } else if (totalRows > 0) {
+                // WITHOUT ROWID table has no rowid to batch by.
+                // changes() is read in the same transaction, so it counts this copy only
+                if (!inTransaction) db.beginTransaction();
+                try {
+                    db.execSQL(copyQuery);
+                    copiedRows = changes.simpleQueryForLong();
+                    if (!inTransaction) db.setTransactionSuccessful();
+                } finally {
+                    if (!inTransaction) db.endTransaction();
+                }
+                if (listener != null) listener.onMigrationProgress(tableName, copiedRows, totalRows);
+            }
+        } finally {
+            changes.close();
+        }
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TABLE [" + tableName + "]");
+            db.execSQL("ALTER TABLE [" + shadowTable + "] RENAME TO [" + tableName + "]");
+            // Row counter triggers are dropped with the table, verify creates them and seeds the counter again
+            if (longForQuery("SELECT count(*) FROM [sqlite_master] WHERE [type] = 'table' AND [name] = '"
+                    + LiteTableMeta.COUNT_TABLE + "'") > 0) {
+                db.execSQL(deleteCountQuery);
+            }
+            if (sourceHasRowId == tableMeta.isWithoutRowId()) {
+                // Doc ids are changed with the rowid, tables keyed by doc id are filled again by verify
+                db.execSQL("DROP TABLE IF EXISTS [" + LiteTableMeta.FULL_TEXT_PREFIX + tableName + "]");
+                db.execSQL("DROP TABLE IF EXISTS [" + LiteTableMeta.DOC_TABLE_PREFIX + tableName + "]");
+                for (LiteJsonIndexMeta jsonIndexMeta : tableMeta.getJsonIndexes()) {
+                    db.execSQL("DROP TABLE IF EXISTS [" + jsonIndexMeta.getTableName() + "]");
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (listener != null) listener.onMigrationComplete(tableName, copiedRows);
+        return copiedRows;
+    }
+
+    private long longForQuery(String sql) {
+        final SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private boolean isAutoincrement() {
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            if (columnMeta.isPrimaryKey() && columnMeta.isAutoincrement()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if column is INTEGER PRIMARY KEY, the alias of rowid
+     * @param columnMeta
+     * @return true if column is alias of rowid
+     */
+    private boolean isRowIdAlias(LiteColumnMeta columnMeta) {
+        return !tableMeta.isWithoutRowId() && !tableMeta.isCompositeKey() && columnMeta.isPrimaryKey()
+                && columnMeta.getColumnType() == LiteColumnType.INTEGER;
+    }
+
+    /**
+     * Get value for new NOT NULL column without default value
+     * @param columnType
+     * @return literal value
+     */
+    private static String getEmptyValue(LiteColumnType columnType) {
+        switch (columnType) {
+            case TEXT:
+                return "''";
+            case BLOB:
+                return "X''";
+            default:
+                return "0";
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.trim().length() == 0;
+    }
+
+    private static void append(StringBuilder builder, String value) {
+        if (builder.length() > 0) builder.append(",");
+        builder.append(value);
+    }
+}
@@ -26,8 +26,24 @@
 
 package com.luhonghai.litedb;
 
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteJsonIndexMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by luhonghai on 08/09/15.
@@ -36,59 +52,719 @@ public class LiteQuery {
 
     private static final String TAG = "LiteQuery";
 
-    private enum ContextType {
-        TABLE_NAME,
-        TABLE_ALIAS,
-        COLUMN_NAME,
-        COLUMN_ALIAS,
-        UNKNOWN
+    /**
+     * Maximum number of cached exchanged queries
+     */
+    public static final int EXCHANGE_CACHE_CAPACITY = 256;
+
+    /**
+     * SQL keywords that are never exchanged as field name
+     */
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+            "ALL", "AND", "AS", "ASC", "BETWEEN", "BY", "CASE", "CROSS", "DELETE", "DESC", "DISTINCT",
+            "ELSE", "END", "ESCAPE", "EXCEPT", "EXISTS", "FROM", "GLOB", "GROUP", "HAVING", "IN",
+            "INNER", "INSERT", "INTERSECT", "INTO", "IS", "ISNULL", "JOIN", "LEFT", "LIKE", "LIMIT",
+            "MATCH", "NATURAL", "NOT", "NOTNULL", "NULL", "OFFSET", "ON", "OR", "ORDER", "OUTER",
+            "REGEXP", "SELECT", "SET", "THEN", "UNION", "UPDATE", "USING", "VALUES", "WHEN", "WHERE"));
+
+    /**
+     * Identifier position in raw query
+     */
+    private static final class Identifier {
+
+        final int fromIndex;
+
+        final int toIndex;
+
+        final boolean quoted;
+
+        Identifier(int fromIndex, int toIndex, boolean quoted) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.quoted = quoted;
+        }
     }
 
-    private class QueryContext {
+    /**
+     * Maximum number of cached query plans
+     */
+    public static final int PLAN_CACHE_CAPACITY = 64;
 
-        ContextType type;
+    /**
+     * Condition operator of query builder
+     */
+    public enum Operator {
+        EQUAL("="),
+        NOT_EQUAL("<>"),
+        LESS("<"),
+        LESS_OR_EQUAL("<="),
+        GREATER(">"),
+        GREATER_OR_EQUAL(">="),
+        LIKE("LIKE");
 
-        String name;
+        private final String sql;
 
-        int fromIndex;
+        Operator(String sql) {
+            this.sql = sql;
+        }
 
-        int toIndex;
+        public String getSql() {
+            return sql;
+        }
+    }
 
-        List<QueryContext> siblings = new ArrayList<QueryContext>();
+    /**
+     * Validated SQL and column plan of one query shape. Shared by all queries that have the same template.
+     * Select SQL is not kept compiled, count SQL is compiled by statement cache
+     */
+    public static class Plan {
+
+        private final String sql;
 
-        QueryContext(ContextType type) {
-            this.type = type;
+        private final String countSql;
+
+        private final LiteColumnPlan columnPlan;
+
+        Plan(String sql, String countSql, LiteColumnPlan columnPlan) {
+            this.sql = sql;
+            this.countSql = countSql;
+            this.columnPlan = columnPlan;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (o != null && o instanceof QueryContext
-                    && !"".equals(name)) {
-                return name.equals(((QueryContext) o).name);
+        /**
+         *
+         * @return query to select all columns
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         *
+         * @return query to count records
+         */
+        public String getCountSql() {
+            return countSql;
+        }
+
+        /**
+         *
+         * @return column plan of selected columns
+         */
+        public LiteColumnPlan getColumnPlan() {
+            return columnPlan;
+        }
+    }
+
+    /**
+     * Fluent query builder. Column references are resolved by field name from table meta data.
+     * Values are never written to SQL, they are collected to bind arguments.
+     * So the same query shape always has the same template.
+     * Conditions are joined from left to right: previous conditions are put in parentheses
+     * when the join changes between AND and OR
+     */
+    public static class Builder {
+
+        private final LiteQuery liteQuery;
+
+        private final Class<?> tableClass;
+
+        private final LiteTableMeta tableMeta;
+
+        private final StringBuilder where = new StringBuilder();
+
+        private final StringBuilder orderBy = new StringBuilder();
+
+        private final List<Object> args = new ArrayList<Object>();
+
+        private final List<LiteColumnMeta> argColumns = new ArrayList<LiteColumnMeta>();
+
+        private Long limit;
+
+        private Long offset;
+
+        private boolean jsonCondition;
+
+        /**
+         * Join of the last condition, null if where is empty
+         */
+        private String lastJoin;
+
+        /**
+         * Template and plan of current shape. Reset when the builder is changed
+         */
+        private String template;
+
+        private Plan plan;
+
+        Builder(LiteQuery liteQuery, Class<?> tableClass) throws LiteDatabaseException {
+            this.liteQuery = liteQuery;
+            this.tableClass = tableClass;
+            this.tableMeta = liteQuery.liteDatabaseHelper.getTableMeta(tableClass);
+        }
+
+        /**
+         * Add condition field = value. Join with previous conditions by AND
+         * @param field
+         * @param value
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder where(String field, Object value) throws LiteDatabaseException {
+            return where(field, Operator.EQUAL, value);
+        }
+
+        /**
+         * Add condition. Join with previous conditions by AND
+         * @param field
+         * @param operator
+         * @param value
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder where(String field, Operator operator, Object value) throws LiteDatabaseException {
+            return and(field, operator, value);
+        }
+
+        /**
+         * Add condition. Join with previous conditions by AND
+         * @param field
+         * @param operator
+         * @param value
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder and(String field, Operator operator, Object value) throws LiteDatabaseException {
+            appendCondition("AND", field, operator, value);
+            return this;
+        }
+
+        /**
+         * Add condition. Join with previous conditions by OR,
+         * so where(a).and(b).or(c) is (a AND b) OR c
+         * @param field
+         * @param operator
+         * @param value
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder or(String field, Operator operator, Object value) throws LiteDatabaseException {
+            appendCondition("OR", field, operator, value);
+            return this;
+        }
+
+        /**
+         * Add condition field IN (values). Join with previous conditions by AND
+         * @param field
+         * @param values
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder in(String field, Collection<?> values) throws LiteDatabaseException {
+            final LiteColumnMeta columnMeta = getColumn(field);
+            appendJoin("AND");
+            if (values.isEmpty()) {
+                where.append("0");
+                return this;
+            }
+            where.append("[").append(columnMeta.getColumnName()).append("] IN (");
+            boolean first = true;
+            for (Object value : values) {
+                if (!first) where.append(",");
+                where.append("?");
+                addArg(columnMeta, value);
+                first = false;
             }
-            return super.equals(o);
+            where.append(")");
+            return this;
         }
 
-        @Override
-        public String toString() {
-            return name;
+        /**
+         * Add condition on value extracted from JSON column, path = value. Join with previous conditions by AND
+         * @param field JSON column field with LiteJsonIndex
+         * @param path indexed path
+         * @param value
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder whereJson(String field, String path, Object value) throws LiteDatabaseException {
+            return whereJson(field, path, Operator.EQUAL, value);
+        }
+
+        /**
+         * Add condition on value extracted from JSON column. Join with previous conditions by AND.
+         * Row matches if any value extracted by path matches, looked up by index of JSON index table
+         * @param field JSON column field with LiteJsonIndex
+         * @param path indexed path
+         * @param operator
+         * @param value
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder whereJson(String field, String path, Operator operator, Object value)
+                throws LiteDatabaseException {
+            final LiteColumnMeta columnMeta = getColumn(field);
+            LiteJsonIndexMeta jsonIndexMeta = null;
+            for (LiteJsonIndexMeta indexMeta : tableMeta.getJsonIndexes()) {
+                if (indexMeta.getFieldName().equals(field)) jsonIndexMeta = indexMeta;
+            }
+            if (jsonIndexMeta == null || !jsonIndexMeta.hasPath(path)) {
+                throw new LiteDatabaseException("Path " + path + " of field " + field
+                        + " is not indexed by LiteJsonIndex");
+            }
+            if (value == null) {
+                throw new LiteDatabaseException("JSON null value is not indexed. Field " + field);
+            }
+            appendJoin("AND");
+            where.append(tableMeta.getDocCondition("SELECT [doc] FROM [" + jsonIndexMeta.getTableName()
+                    + "] WHERE [path] = ? AND [value] " + operator.getSql() + " ?"));
+            addArg(columnMeta, path);
+            addArg(columnMeta, LiteJson.toIndexValue(value));
+            jsonCondition = true;
+            return this;
+        }
+
+        /**
+         * Add condition field IS NULL. Join with previous conditions by AND
+         * @param field
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder isNull(String field) throws LiteDatabaseException {
+            return and(field, Operator.EQUAL, null);
+        }
+
+        /**
+         * Add condition field IS NOT NULL. Join with previous conditions by AND
+         * @param field
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder isNotNull(String field) throws LiteDatabaseException {
+            return and(field, Operator.NOT_EQUAL, null);
+        }
+
+        /**
+         * Order by field ascending
+         * @param field
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder orderBy(String field) throws LiteDatabaseException {
+            return orderBy(field, true);
+        }
+
+        /**
+         * Order by field
+         * @param field
+         * @param ascending
+         * @return this builder
+         * @throws LiteDatabaseException
+         */
+        public Builder orderBy(String field, boolean ascending) throws LiteDatabaseException {
+            final LiteColumnMeta columnMeta = getColumn(field);
+            if (orderBy.length() > 0) orderBy.append(",");
+            orderBy.append("[").append(columnMeta.getColumnName()).append("]")
+                    .append(ascending ? " ASC" : " DESC");
+            reset();
+            return this;
+        }
+
+        /**
+         * Limit number of records
+         * @param limit
+         * @return this builder
+         */
+        public Builder limit(long limit) {
+            if (this.limit == null) reset();
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * Skip number of records. Only use with limit
+         * @param offset
+         * @return this builder
+         */
+        public Builder offset(long offset) {
+            if (this.offset == null) reset();
+            this.offset = offset;
+            return this;
+        }
+
+        /**
+         * Normalized SQL template without select columns and table.
+         * Limit and offset are bind arguments too
+         * @return SQL template
+         */
+        public String getTemplate() {
+            if (template == null) {
+                final StringBuilder sql = new StringBuilder(getWhereClause());
+                if (orderBy.length() > 0) sql.append(" ORDER BY ").append(orderBy);
+                if (limit != null) {
+                    sql.append(" LIMIT ?");
+                    if (offset != null) sql.append(" OFFSET ?");
+                }
+                template = sql.toString();
+            }
+            return template;
+        }
+
+        /**
+         * Where clause of the template
+         * @return where clause, empty if there is no condition
+         */
+        String getWhereClause() {
+            return where.length() > 0 ? " WHERE " + where : "";
+        }
+
+        /**
+         * Bind arguments of where conditions, limit and offset
+         * @return bind arguments
+         */
+        public Object[] getArgs() {
+            return getArgs(true);
+        }
+
+        /**
+         * Bind arguments
+         * @param withLimit include limit and offset
+         * @return bind arguments
+         */
+        public Object[] getArgs(boolean withLimit) {
+            final List<Object> values = new ArrayList<Object>(args);
+            if (withLimit && limit != null) {
+                values.add(limit);
+                if (offset != null) values.add(offset);
+            }
+            return values.toArray();
+        }
+
+        /**
+         * Column meta data of each where argument
+         * @return column meta of arguments
+         */
+        public List<LiteColumnMeta> getArgColumns() {
+            return argColumns;
+        }
+
+        public Class<?> getTableClass() {
+            return tableClass;
+        }
+
+        /**
+         * Check if query has condition on JSON index table
+         * @return true if whereJson() is used
+         */
+        public boolean hasJsonCondition() {
+            return jsonCondition;
+        }
+
+        /**
+         * Get cached plan of this query shape
+         * @return query plan
+         * @throws LiteDatabaseException
+         */
+        public Plan getPlan() throws LiteDatabaseException {
+            if (plan == null) plan = liteQuery.getPlan(this);
+            return plan;
+        }
+
+        private void appendCondition(String join, String field, Operator operator, Object value)
+                throws LiteDatabaseException {
+            final LiteColumnMeta columnMeta = getColumn(field);
+            appendJoin(join);
+            where.append("[").append(columnMeta.getColumnName()).append("] ");
+            if (value == null && (operator == Operator.EQUAL || operator == Operator.NOT_EQUAL)) {
+                where.append(operator == Operator.EQUAL ? "IS NULL" : "IS NOT NULL");
+                return;
+            }
+            where.append(operator.getSql()).append(" ?");
+            addArg(columnMeta, value);
+        }
+
+        private void appendJoin(String join) {
+            reset();
+            if (where.length() > 0) {
+                if (lastJoin != null && !lastJoin.equals(join)) where.insert(0, "(").append(")");
+                where.append(" ").append(join).append(" ");
+                lastJoin = join;
+            }
+        }
+
+        private void reset() {
+            template = null;
+            plan = null;
+        }
+
+        private void addArg(LiteColumnMeta columnMeta, Object value) {
+            args.add(value);
+            argColumns.add(columnMeta);
+        }
+
+        private LiteColumnMeta getColumn(String field) throws LiteDatabaseException {
+            final LiteColumnMeta columnMeta = tableMeta.getColumns().get(field);
+            if (columnMeta == null) {
+                throw new LiteDatabaseException("Field " + field + " is not a column of table "
+                        + tableMeta.getTableName());
+            }
+            return columnMeta;
         }
     }
 
     private final LiteDatabaseHelper liteDatabaseHelper;
 
+    /**
+     * Cached query plans by table class and template
+     */
+    private final Map<String, Plan> plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+            return size() > PLAN_CACHE_CAPACITY;
+        }
+    };
+
+    /**
+     * Exchanged queries by table class and raw query
+     */
+    private final Map<String, String> exchangedQueries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > EXCHANGE_CACHE_CAPACITY;
+        }
+    };
+
     public LiteQuery(LiteDatabaseHelper liteDatabaseHelper) {
         this.liteDatabaseHelper = liteDatabaseHelper;
     }
 
+    /**
+     * Start new query builder of table
+     * @param tableClass
+     * @return query builder
+     * @throws LiteDatabaseException
+     */
+    public Builder from(Class<?> tableClass) throws LiteDatabaseException {
+        return new Builder(this, tableClass);
+    }
+
+    /**
+     * Get cached plan of query shape. Build new plan if it is not found.
+     * The plan holds validated SQL and column plan, not a compiled select statement:
+     * cursors could not run on SQLiteStatement, they are prepared by the connection itself.
+     * Count query of new plan is compiled into statement cache, so invalid condition fails here
+     * and count of the same shape reuses the compiled statement
+     * @param builder
+     * @return query plan
+     * @throws LiteDatabaseException
+     */
+    Plan getPlan(Builder builder) throws LiteDatabaseException {
+        final String template = builder.getTemplate();
+        final String key = builder.getTableClass().getName() + template;
+        synchronized (plans) {
+            Plan plan = plans.get(key);
+            if (plan != null) return plan;
+        }
+        final LiteTableMeta tableMeta = liteDatabaseHelper.getTableMeta(builder.getTableClass());
+        final Plan plan = new Plan(tableMeta.getSelectQuery() + template,
+                "SELECT count(*) FROM [" + tableMeta.getTableName() + "]" + builder.getWhereClause(),
+                LiteColumnPlan.forSelect(tableMeta));
+        final LiteStatementCache statementCache = liteDatabaseHelper.getStatementCache();
+        try {
+            statementCache.release(plan.getCountSql(), statementCache.acquire(plan.getCountSql()));
+        } catch (SQLiteException e) {
+            throw new LiteDatabaseException("Could not compile query " + plan.getCountSql(), e);
+        }
+        synchronized (plans) {
+            plans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Remove all cached query plans
+     */
+    public void clearPlans() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
     /**
      * To exchange raw query to SQLite query.
      * Raw query include class name and field name of LiteTable
+     * If table meta data could not be loaded, the sql is returned as is
      * @param sql
      * @return the sql is exchanged to SQLite query
      */
-    public String exchange(String sql)  {
-        return sql;
+    public String exchange(String sql) {
+        try {
+            return exchange(sql, null);
+        } catch (LiteDatabaseException e) {
+            Log.w(TAG, "Could not exchange query " + sql, e);
+            return sql;
+        }
+    }
+
+    /**
+     * To exchange raw query to SQLite query.
+     * Class names are exchanged to table names and field names to column names.
+     * Field names are looked up in the tables referenced by the query, then in the table class.
+     * Qualified names such as com.example.Book.name are exchanged by the table of the qualifier.
+     * String literals, comments, keywords, function names and named parameters are kept.
+     * Only apply when the database use class schema, exchanged queries are cached
+     * @param sql
+     * @param tableClass default table of field names, could be null
+     * @return the sql is exchanged to SQLite query
+     * @throws LiteDatabaseException
+     */
+    public String exchange(String sql, Class<?> tableClass) throws LiteDatabaseException {
+        if (sql == null || !liteDatabaseHelper.isUseClassSchema()) return sql;
+        final String key = (tableClass == null ? "" : tableClass.getName()) + "\n" + sql;
+        String exchanged;
+        synchronized (exchangedQueries) {
+            exchanged = exchangedQueries.get(key);
+        }
+        if (exchanged == null) {
+            exchanged = rewrite(sql, tableClass);
+            synchronized (exchangedQueries) {
+                exchangedQueries.put(key, exchanged);
+            }
+        }
+        return exchanged;
+    }
+
+    /**
+     * Tokenize raw query and exchange identifiers
+     * @param sql
+     * @param tableClass
+     * @return exchanged query
+     * @throws LiteDatabaseException
+     */
+    private String rewrite(String sql, Class<?> tableClass) throws LiteDatabaseException {
+        final Map<String, LiteTableMeta> tables = liteDatabaseHelper.getTableMetaMap();
+        final List<LiteTableMeta> referencedTables = new ArrayList<LiteTableMeta>();
+        final List<Identifier> identifiers = new ArrayList<Identifier>();
+        final int length = sql.length();
+        // Alias after AS keyword is not exchanged
+        boolean alias = false;
+        int i = 0;
+        while (i < length) {
+            final char c = sql.charAt(i);
+            if (c == '\'') {
+                // String literal, quote is escaped by double quote
+                i++;
+                while (i < length) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n') i++;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '[' || c == '"' || c == '`') {
+                int end = sql.indexOf(c == '[' ? ']' : c, i + 1);
+                if (end < 0) end = length;
+                if (!alias) {
+                    addIdentifier(sql, new Identifier(i + 1, end, true), tables, identifiers, referencedTables);
+                }
+                alias = false;
+                i = end + 1;
+            } else if ((c == ':' || c == '@' || c == '$') && i + 1 < length
+                    && (Character.isLetter(sql.charAt(i + 1)) || sql.charAt(i + 1) == '_')) {
+                // Named parameter is kept
+                i++;
+                while (i < length && isIdentifierPart(sql.charAt(i))) i++;
+                alias = false;
+            } else if (Character.isLetter(c) || c == '_') {
+                int end = i + 1;
+                while (end < length && isIdentifierPart(sql.charAt(end))) end++;
+                int next = end;
+                while (next < length && Character.isWhitespace(sql.charAt(next))) next++;
+                final boolean keywordAs = end - i == 2 && sql.regionMatches(true, i, "AS", 0, 2);
+                // Function name is not exchanged
+                if (!alias && !keywordAs && (next >= length || sql.charAt(next) != '(')) {
+                    addIdentifier(sql, new Identifier(i, end, false), tables, identifiers, referencedTables);
+                }
+                alias = keywordAs;
+                i = end;
+            } else if (Character.isDigit(c)) {
+                while (i < length && isIdentifierPart(sql.charAt(i))) i++;
+            } else {
+                i++;
+            }
+        }
+        if (tableClass != null) {
+            final LiteTableMeta tableMeta = liteDatabaseHelper.getTableMeta(tableClass);
+            if (!referencedTables.contains(tableMeta)) referencedTables.add(tableMeta);
+        }
+        if (referencedTables.isEmpty()) referencedTables.addAll(tables.values());
+        final StringBuilder query = new StringBuilder(length + 16);
+        int lastIndex = 0;
+        for (Identifier identifier : identifiers) {
+            final String name = sql.substring(identifier.fromIndex, identifier.toIndex);
+            String exchanged = null;
+            final LiteTableMeta tableMeta = tables.get(name);
+            if (tableMeta != null) {
+                exchanged = tableMeta.getTableName();
+            } else if (identifier.quoted) {
+                exchanged = getColumnName(name, referencedTables);
+            } else {
+                final int dotIndex = name.lastIndexOf('.');
+                final String field = name.substring(dotIndex + 1);
+                // Qualifier is a table class or an alias
+                final LiteTableMeta qualifierMeta = dotIndex > 0 ? tables.get(name.substring(0, dotIndex)) : null;
+                if (qualifierMeta != null) {
+                    final String columnName = getColumnName(field, Collections.singletonList(qualifierMeta));
+                    exchanged = qualifierMeta.getTableName() + "." + (columnName == null ? field : columnName);
+                } else if (!KEYWORDS.contains(field.toUpperCase(Locale.US))) {
+                    final String columnName = getColumnName(field, referencedTables);
+                    if (columnName != null) exchanged = name.substring(0, dotIndex + 1) + columnName;
+                }
+            }
+            if (exchanged != null) {
+                query.append(sql, lastIndex, identifier.fromIndex).append(exchanged);
+                lastIndex = identifier.toIndex;
+            }
+        }
+        query.append(sql, lastIndex, length);
+        return query.toString();
+    }
+
+    private static void addIdentifier(String sql, Identifier identifier, Map<String, LiteTableMeta> tables,
+                                      List<Identifier> identifiers, List<LiteTableMeta> referencedTables) {
+        identifiers.add(identifier);
+        final String name = sql.substring(identifier.fromIndex, identifier.toIndex);
+        LiteTableMeta tableMeta = tables.get(name);
+        final int dotIndex = name.lastIndexOf('.');
+        if (tableMeta == null && !identifier.quoted && dotIndex > 0) tableMeta = tables.get(name.substring(0, dotIndex));
+        if (tableMeta != null && !referencedTables.contains(tableMeta)) referencedTables.add(tableMeta);
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+    /**
+     * Find column name of field in tables
+     * @param field
+     * @param tableMetas
+     * @return column name or null if field is not found
+     */
+    private static String getColumnName(String field, List<LiteTableMeta> tableMetas) {
+        for (LiteTableMeta tableMeta : tableMetas) {
+            final LiteColumnMeta columnMeta = tableMeta.getColumns().get(field);
+            if (columnMeta != null) return columnMeta.getColumnName();
+        }
+        return null;
     }
 
     /**
@@ -100,10 +776,7 @@ public class LiteQuery {
      */
     @Deprecated
     public String exchange(String sql, String key, String value) {
-        while (sql.contains("["  + key + "]")) {
-            sql = sql.replace("[" + key + "]", "[" + value + "]");
-        }
-        return sql;
+        return sql.replace("[" + key + "]", "[" + value + "]");
     }
 
 }
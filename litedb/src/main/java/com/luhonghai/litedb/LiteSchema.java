@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+
+package com.luhonghai.litedb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Snapshot of the live database schema.
+ *
+ * sqlite_master is read once when the snapshot is loaded. Columns of a table are read
+ * by PRAGMA table_info once, when they are first requested. Names are matched case-insensitively
+ * like SQLite does.
+ */
+public class LiteSchema {
+
+    /**
+     * Column of live table, as reported by PRAGMA table_info
+     */
+    public static class Column {
+
+        private final String name;
+
+        private final String type;
+
+        private final boolean notNull;
+
+        private final String defaultValue;
+
+        private final int primaryKey;
+
+        Column(String name, String type, boolean notNull, String defaultValue, int primaryKey) {
+            this.name = name;
+            this.type = type;
+            this.notNull = notNull;
+            this.defaultValue = defaultValue;
+            this.primaryKey = primaryKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public boolean isNotNull() {
+            return notNull;
+        }
+
+        public String getDefaultValue() {
+            return defaultValue;
+        }
+
+        /**
+         * @return position of column in primary key, starting from 1. Zero if column is not in primary key
+         */
+        public int getPrimaryKey() {
+            return primaryKey;
+        }
+    }
+
+    /**
+     * Table of live database
+     */
+    public class Table {
+
+        private final String name;
+
+        private final String sql;
+
+        private final Map<String, String> indexes = new LinkedHashMap<String, String>();
+
+        private Map<String, Column> columns;
+
+        Table(String name, String sql) {
+            this.name = name;
+            this.sql = sql;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return create query of table stored in sqlite_master
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return create query of named indexes by index name. Auto indexes of constraints are not included
+         */
+        public Map<String, String> getIndexes() {
+            return Collections.unmodifiableMap(indexes);
+        }
+
+        /**
+         * Get columns of table. Loaded by PRAGMA table_info on first call
+         * @return columns by lower case column name, in table order
+         */
+        public Map<String, Column> getColumns() {
+            if (columns == null) {
+                columns = new LinkedHashMap<String, Column>();
+                Cursor cursor = db.rawQuery("PRAGMA table_info([" + name + "])", null);
+                try {
+                    while (cursor.moveToNext()) {
+                        final String columnName = cursor.getString(1);
+                        columns.put(columnName.toLowerCase(Locale.US), new Column(columnName,
+                                cursor.getString(2),
+                                cursor.getInt(3) != 0,
+                                cursor.isNull(4) ? null : cursor.getString(4),
+                                cursor.getInt(5)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            return columns;
+        }
+
+        public Column getColumn(String columnName) {
+            return getColumns().get(columnName.toLowerCase(Locale.US));
+        }
+
+        public boolean hasColumn(String columnName) {
+            return getColumn(columnName) != null;
+        }
+    }
+
+    private final SQLiteDatabase db;
+
+    private final Map<String, Table> tables = new HashMap<String, Table>();
+
+    private final Map<String, String> triggers = new HashMap<String, String>();
+
+    private LiteSchema(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Load schema of database by one query on sqlite_master
+     * @param db
+     * @return schema snapshot
+     */
+    public static LiteSchema load(SQLiteDatabase db) {
+        final LiteSchema schema = new LiteSchema(db);
+        final Map<String, String> indexTables = new HashMap<String, String>();
+        final Map<String, String> indexQueries = new LinkedHashMap<String, String>();
+        Cursor cursor = db.rawQuery("SELECT [type], [name], [tbl_name], [sql] FROM [sqlite_master]", null);
+        try {
+            while (cursor.moveToNext()) {
+                final String type = cursor.getString(0);
+                final String name = cursor.getString(1);
+                final String sql = cursor.isNull(3) ? null : cursor.getString(3);
+                if ("table".equals(type)) {
+                    schema.tables.put(name.toLowerCase(Locale.US), schema.new Table(name, sql));
+                } else if ("index".equals(type) && sql != null) {
+                    indexTables.put(name, cursor.getString(2));
+                    indexQueries.put(name, sql);
+                } else if ("trigger".equals(type)) {
+                    schema.triggers.put(name.toLowerCase(Locale.US), sql);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Map.Entry<String, String> index : indexQueries.entrySet()) {
+            final Table table = schema.getTable(indexTables.get(index.getKey()));
+            if (table != null) table.indexes.put(index.getKey(), index.getValue());
+        }
+        return schema;
+    }
+
+    /**
+     * Get table by name
+     * @param tableName
+     * @return table, null if table does not exist
+     */
+    public Table getTable(String tableName) {
+        return tables.get(tableName.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Get all tables
+     * @return tables of database
+     */
+    public Collection<Table> getTables() {
+        return tables.values();
+    }
+
+    public boolean hasTable(String tableName) {
+        return getTable(tableName) != null;
+    }
+
+    public boolean hasTrigger(String triggerName) {
+        return triggers.containsKey(triggerName.toLowerCase(Locale.US));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * LRU cache of compiled statements by SQL.
+ *
+ * A compiled statement holds its own bind arguments, so it must not be shared between threads.
+ * Each thread has its own cache. A statement is borrowed by acquire() and given back by release(),
+ * so the same statement is never used twice at the same time.
+ * Cached statements are dropped when the database connection changes.
+ * Caches of all threads are tracked, so clear() closes statements compiled on any thread.
+ */
+public class LiteStatementCache {
+
+    /**
+     * Default number of cached statements per thread
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * Statements of one thread
+     */
+    private final class ThreadCache extends LinkedHashMap<String, SQLiteStatement> {
+
+        /**
+         * Database of cached statements
+         */
+        SQLiteDatabase database;
+
+        ThreadCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if (size() > capacity) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+
+        // Tracked by identity, content of the map changes
+        @Override
+        public boolean equals(Object object) {
+            return this == object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        void closeAll() {
+            for (SQLiteStatement statement : values()) {
+                statement.close();
+            }
+            clear();
+        }
+    }
+
+    private final LiteDatabaseHelper databaseHelper;
+
+    private final int capacity;
+
+    private final ThreadLocal<ThreadCache> caches = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            final ThreadCache cache = new ThreadCache();
+            synchronized (threadCaches) {
+                threadCaches.put(cache, Boolean.TRUE);
+            }
+            return cache;
+        }
+    };
+
+    /**
+     * Caches of all threads. Cache of a finished thread is released with the thread
+     */
+    private final Map<ThreadCache, Boolean> threadCaches = new WeakHashMap<ThreadCache, Boolean>();
+
+    public LiteStatementCache(LiteDatabaseHelper databaseHelper) {
+        this(databaseHelper, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param databaseHelper
+     * @param capacity maximum number of cached statements per thread
+     */
+    public LiteStatementCache(LiteDatabaseHelper databaseHelper, int capacity) {
+        this.databaseHelper = databaseHelper;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get cache of current thread. Drop statements of old connection
+     * @return thread cache
+     */
+    private ThreadCache getCache() {
+        final ThreadCache cache = caches.get();
+        final SQLiteDatabase database = databaseHelper.getDatabase();
+        synchronized (cache) {
+            if (cache.database != database) {
+                cache.closeAll();
+                cache.database = database;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Borrow compiled statement of the query. Compile new one if it is not cached
+     * @param sql
+     * @return compiled statement
+     */
+    public SQLiteStatement acquire(String sql) {
+        final ThreadCache cache = getCache();
+        final SQLiteDatabase database;
+        SQLiteStatement statement;
+        synchronized (cache) {
+            statement = cache.remove(sql);
+            database = cache.database;
+        }
+        if (statement == null) {
+            statement = database.compileStatement(sql);
+        }
+        return statement;
+    }
+
+    /**
+     * Give back the borrowed statement
+     * @param sql
+     * @param statement
+     */
+    public void release(String sql, SQLiteStatement statement) {
+        if (statement == null) return;
+        statement.clearBindings();
+        final ThreadCache cache = caches.get();
+        synchronized (cache) {
+            if (cache.database != null && cache.database == databaseHelper.getDatabase()
+                    && !cache.containsKey(sql)) {
+                cache.put(sql, statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    /**
+     * Close cached statements of all threads.
+     * Statement borrowed at that time is closed when it is given back
+     */
+    public void clear() {
+        final List<ThreadCache> all;
+        synchronized (threadCaches) {
+            all = new ArrayList<ThreadCache>(threadCaches.keySet());
+        }
+        for (ThreadCache cache : all) {
+            synchronized (cache) {
+                cache.closeAll();
+                cache.database = null;
+            }
+        }
+    }
+
+    /**
+     * Get number of cached statements of all threads
+     * @return number of cached statements
+     */
+    public int size() {
+        final List<ThreadCache> all;
+        synchronized (threadCaches) {
+            all = new ArrayList<ThreadCache>(threadCaches.keySet());
+        }
+        int size = 0;
+        for (ThreadCache cache : all) {
+            synchronized (cache) {
+                size += cache.size();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit of work shared by DAO and bulk objects of the same thread.
+ *
+ * Start new scope by LiteDatabaseHelper.beginTransaction(). Every LiteBaseDao, BulkInsert
+ * and BulkUpdate used on this thread before end() joins the scope, so there is exactly one
+ * commit at the end and the compiled statements are reused inside the scope.
+ *
+ * Usage:
+ * <pre>
+ * LiteTransaction transaction = databaseHelper.beginTransaction();
+ * try {
+ *     contactDao.insert(contacts);
+ *     comicBookDao.update(books);
+ *     transaction.success();
+ * } finally {
+ *     transaction.end();
+ * }
+ * </pre>
+ *
+ * Nested scopes join the outer one. The transaction is rolled back if any level ends
+ * without success().
+ */
+public class LiteTransaction {
+
+    private final LiteDatabaseHelper databaseHelper;
+
+    private final SQLiteDatabase database;
+
+    /**
+     * Compiled statements of this scope by SQL
+     */
+    private final Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
+    private int depth;
+
+    private boolean levelSuccessful;
+
+    private boolean failed;
+
+    LiteTransaction(LiteDatabaseHelper databaseHelper, SQLiteDatabase database) {
+        this.databaseHelper = databaseHelper;
+        this.database = database;
+    }
+
+    /**
+     * Begin new level of this scope
+     */
+    void begin() {
+        if (depth == 0) {
+            database.beginTransaction();
+        }
+        depth++;
+        levelSuccessful = false;
+    }
+
+    /**
+     * Get database of this scope
+     * @return SQLite database
+     */
+    public SQLiteDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * Get compiled statement of the query.
+     * Statement is borrowed from the statement cache and reused until the scope ends
+     * @param sql
+     * @return compiled statement
+     */
+    public SQLiteStatement getStatement(String sql) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = databaseHelper.getStatementCache().acquire(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Check if scope is not ended
+     * @return true if scope is active
+     */
+    public boolean isActive() {
+        return depth > 0;
+    }
+
+    /**
+     * Mark current level as successful
+     */
+    public void success() {
+        levelSuccessful = true;
+    }
+
+    /**
+     * End current level. Commit or roll back when the outermost level ends
+     */
+    public void end() {
+        if (depth == 0) return;
+        if (!levelSuccessful) failed = true;
+        levelSuccessful = false;
+        depth--;
+        if (depth > 0) return;
+        try {
+            for (Map.Entry<String, SQLiteStatement> entry : statements.entrySet()) {
+                databaseHelper.getStatementCache().release(entry.getKey(), entry.getValue());
+            }
+            statements.clear();
+            if (!failed) database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            databaseHelper.onTransactionEnd(this);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb;
+
+import android.util.Log;
+
+import com.luhonghai.litedb.bulk.BulkInsert;
+import com.luhonghai.litedb.bulk.BulkUpdate;
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous write pipeline.
+ *
+ * Inserts, updates and deletes are put on a bounded queue and applied by one writer thread.
+ * The writer groups every write that arrives within the flush latency (up to the batch size)
+ * into a single transaction, so many small writes share one commit.
+ * Each write returns a future that completes when its transaction is committed.
+ */
+public class LiteWriteQueue {
+
+    private static final String TAG = "LiteWriteQueue";
+
+    /**
+     * Default maximum number of pending writes
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Default maximum number of writes grouped into one transaction
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Default time in milliseconds the writer waits for more writes before commit
+     */
+    public static final long DEFAULT_FLUSH_LATENCY = 20;
+
+    private enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE,
+        DELETE_BY_KEY,
+        FLUSH,
+        STOP
+    }
+
+    /**
+     * Pending write, also the future of its result
+     * @param <T>
+     */
+    private static final class PendingWrite<T> implements Future<Long> {
+
+        private final LiteBaseDao<T> dao;
+
+        private final Operation operation;
+
+        private final T object;
+
+        private final Object key;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private boolean cancelled;
+
+        private boolean started;
+
+        private long result;
+
+        private Throwable error;
+
+        PendingWrite(LiteBaseDao<T> dao, Operation operation, T object, Object key) {
+            this.dao = dao;
+            this.operation = operation;
+            this.object = object;
+            this.key = key;
+        }
+
+        /**
+         * Mark this write as started
+         * @return false if the write is cancelled
+         */
+        synchronized boolean start() {
+            if (cancelled) return false;
+            started = true;
+            return true;
+        }
+
+        /**
+         * Apply the write inside current transaction
+         * @param inserts opened bulk inserts of this batch
+         * @param updates opened bulk updates of this batch
+         */
+        @SuppressWarnings("unchecked")
+        void apply(final Map<LiteBaseDao<?>, BulkInsert<?>> inserts,
+                   final Map<LiteBaseDao<?>, BulkUpdate<?>> updates) {
+            try {
+                switch (operation) {
+                    case INSERT:
+                        BulkInsert<T> bulkInsert = (BulkInsert<T>) inserts.get(dao);
+                        if (bulkInsert == null) {
+                            bulkInsert = dao.newBulkInsert(false);
+                            bulkInsert.begin();
+                            inserts.put(dao, bulkInsert);
+                        }
+                        result = bulkInsert.execute(object);
+                        break;
+                    case UPDATE:
+                        BulkUpdate<T> bulkUpdate = (BulkUpdate<T>) updates.get(dao);
+                        if (bulkUpdate == null) {
+                            bulkUpdate = dao.newBulkUpdate(false);
+                            bulkUpdate.begin();
+                            updates.put(dao, bulkUpdate);
+                        }
+                        result = bulkUpdate.execute(object);
+                        break;
+                    case DELETE:
+                        dao.delete(object);
+                        break;
+                    case DELETE_BY_KEY:
+                        dao.deleteByKey(key);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Complete the future
+         * @param batchError error of the whole transaction. Null if committed
+         */
+        void complete(Throwable batchError) {
+            if (batchError != null && error == null) {
+                error = batchError;
+            }
+            done.countDown();
+        }
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if (started || isDone()) return false;
+            cancelled = true;
+            done.countDown();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Long get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public Long get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException("Write is not committed after " + timeout + " " + unit);
+            return getResult();
+        }
+
+        private Long getResult() throws ExecutionException {
+            if (isCancelled())
+                throw new CancellationException("Write is cancelled");
+            if (error != null)
+                throw new ExecutionException(error);
+            return result;
+        }
+    }
+
+    private final LiteDatabaseHelper databaseHelper;
+
+    private final BlockingQueue<PendingWrite<?>> queue;
+
+    private final int batchSize;
+
+    private final long flushLatency;
+
+    private final Thread writer;
+
+    private volatile boolean accepting = true;
+
+    /**
+     * Guard accepting state, so a write is never queued after the writer thread is stopped
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Constructor with default capacity, batch size and flush latency
+     * @param databaseHelper
+     */
+    public LiteWriteQueue(LiteDatabaseHelper databaseHelper) {
+        this(databaseHelper, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_LATENCY);
+    }
+
+    /**
+     * Constructor
+     * @param databaseHelper
+     * @param capacity maximum number of pending writes. Callers block when the queue is full
+     * @param batchSize maximum number of writes in one transaction
+     * @param flushLatency time in milliseconds to wait for more writes before commit
+     */
+    public LiteWriteQueue(LiteDatabaseHelper databaseHelper, int capacity, int batchSize,
+                          long flushLatency) {
+        if (capacity <= 0 || batchSize <= 0 || flushLatency < 0)
+            throw new IllegalArgumentException("Invalid write queue configuration");
+        this.databaseHelper = databaseHelper;
+        this.queue = new ArrayBlockingQueue<PendingWrite<?>>(capacity);
+        this.batchSize = batchSize;
+        this.flushLatency = flushLatency;
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, TAG);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue new insertion
+     * @param dao
+     * @param object
+     * @return future of the row id of created object
+     * @throws LiteDatabaseException
+     */
+    public <T> Future<Long> insert(LiteBaseDao<T> dao, T object) throws LiteDatabaseException {
+        return enqueue(new PendingWrite<T>(dao, Operation.INSERT, object, null));
+    }
+
+    /**
+     * Queue new updating by primary key
+     * @param dao
+     * @param object
+     * @return future of the number of rows affected
+     * @throws LiteDatabaseException
+     */
+    public <T> Future<Long> update(LiteBaseDao<T> dao, T object) throws LiteDatabaseException {
+        return enqueue(new PendingWrite<T>(dao, Operation.UPDATE, object, null));
+    }
+
+    /**
+     * Queue new deletion by object
+     * @param dao
+     * @param object
+     * @return future that completes with 0 when deletion is committed
+     * @throws LiteDatabaseException
+     */
+    public <T> Future<Long> delete(LiteBaseDao<T> dao, T object) throws LiteDatabaseException {
+        return enqueue(new PendingWrite<T>(dao, Operation.DELETE, object, null));
+    }
+
+    /**
+     * Queue new deletion by object key
+     * @param dao
+     * @param key
+     * @return future that completes with 0 when deletion is committed
+     * @throws LiteDatabaseException
+     */
+    public <T> Future<Long> deleteByKey(LiteBaseDao<T> dao, Object key) throws LiteDatabaseException {
+        return enqueue(new PendingWrite<T>(dao, Operation.DELETE_BY_KEY, null, key));
+    }
+
+    /**
+     * Wait until all writes queued before this call are committed
+     * @throws LiteDatabaseException
+     */
+    public void flush() throws LiteDatabaseException {
+        try {
+            enqueue(new PendingWrite<Object>(null, Operation.FLUSH, null, null)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LiteDatabaseException("Interrupted while waiting for write queue", e);
+        } catch (ExecutionException e) {
+            throw new LiteDatabaseException("Could not flush write queue", e.getCause());
+        }
+    }
+
+    /**
+     * Commit all pending writes and stop the writer thread.
+     * No more write is accepted after shutdown
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            if (!accepting) return;
+            accepting = false;
+            lock.notifyAll();
+        }
+        final PendingWrite<Object> stop = new PendingWrite<Object>(null, Operation.STOP, null, null);
+        try {
+            // Writer thread could be stopped already, do not wait for space forever
+            while (writer.isAlive() && !queue.offer(stop, flushLatency + 10, TimeUnit.MILLISECONDS)) {
+                // Wait for the writer to take pending writes
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Check if queue still accepts new writes
+     * @return true if queue is not shut down
+     */
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    /**
+     * Number of writes waiting for the writer thread
+     * @return number of pending writes
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Queue write. The accepting check and the offer are atomic under the lock,
+     * callers wait for space while queue is full
+     * @param write
+     * @return future of the write
+     * @throws LiteDatabaseException
+     */
+    private <T> Future<Long> enqueue(PendingWrite<T> write) throws LiteDatabaseException {
+        synchronized (lock) {
+            while (true) {
+                if (!accepting)
+                    throw new LiteDatabaseException("Write queue is shut down");
+                if (queue.offer(write)) return write;
+                try {
+                    // Writer notifies after taking writes. Timed wait in case it could not
+                    lock.wait(flushLatency + 10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LiteDatabaseException("Interrupted while waiting for write queue", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writer thread loop
+     */
+    private void drain() {
+        try {
+            drainUntilStopped();
+        } finally {
+            synchronized (lock) {
+                accepting = false;
+                lock.notifyAll();
+            }
+            // No write could be queued anymore. Fail all writes that are left behind
+            final List<PendingWrite<?>> pending = new ArrayList<PendingWrite<?>>();
+            queue.drainTo(pending);
+            for (PendingWrite<?> write : pending) {
+                write.complete(write.operation == Operation.STOP ? null
+                        : new LiteDatabaseException("Write queue is shut down"));
+            }
+        }
+    }
+
+    private void drainUntilStopped() {
+        final List<PendingWrite<?>> batch = new ArrayList<PendingWrite<?>>(batchSize);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushLatency);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    if (batch.size() >= batchSize || containsStop(batch)) break;
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    PendingWrite<?> next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Writer thread is interrupted", e);
+                running = false;
+            }
+            synchronized (lock) {
+                // Wake callers that wait for space
+                lock.notifyAll();
+            }
+            Iterator<PendingWrite<?>> iterator = batch.iterator();
+            while (iterator.hasNext()) {
+                PendingWrite<?> write = iterator.next();
+                if (write.operation == Operation.STOP) {
+                    running = false;
+                    iterator.remove();
+                    write.complete(null);
+                } else if (!write.start()) {
+                    iterator.remove();
+                }
+            }
+            if (batch.size() > 0) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static boolean containsStop(List<PendingWrite<?>> batch) {
+        for (PendingWrite<?> write : batch) {
+            if (write.operation == Operation.STOP) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Apply all writes of the batch in one transaction
+     * @param batch
+     */
+    private void commit(final List<PendingWrite<?>> batch) {
+        final Map<LiteBaseDao<?>, BulkInsert<?>> inserts = new HashMap<LiteBaseDao<?>, BulkInsert<?>>();
+        final Map<LiteBaseDao<?>, BulkUpdate<?>> updates = new HashMap<LiteBaseDao<?>, BulkUpdate<?>>();
+        Throwable batchError = null;
+        try {
+            final LiteTransaction transaction = databaseHelper.beginTransaction();
+            try {
+                for (PendingWrite<?> write : batch) {
+                    write.apply(inserts, updates);
+                }
+                transaction.success();
+            } finally {
+                for (BulkInsert<?> bulkInsert : inserts.values()) {
+                    bulkInsert.end();
+                }
+                for (BulkUpdate<?> bulkUpdate : updates.values()) {
+                    bulkUpdate.end();
+                }
+                transaction.end();
+            }
+        } catch (Throwable e) {
+            Log.e(TAG, "Could not commit " + batch.size() + " writes", e);
+            batchError = e;
+        }
+        for (PendingWrite<?> write : batch) {
+            write.complete(batchError);
+        }
+    }
+}
@@ -25,22 +25,33 @@
  */
 package com.luhonghai.litedb.annotation;
 
+import android.os.Build;
+
 import com.luhonghai.litedb.LiteColumnType;
 import com.luhonghai.litedb.LiteFieldType;
+import com.luhonghai.litedb.LiteJson;
 import com.luhonghai.litedb.exception.AnnotationNotFound;
 import com.luhonghai.litedb.exception.InvalidAnnotationData;
 import com.luhonghai.litedb.exception.UnsupportedFieldType;
 import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteIndexMeta;
+import com.luhonghai.litedb.meta.LiteJsonIndexMeta;
 import com.luhonghai.litedb.meta.LiteTableMeta;
 
 import java.io.Externalizable;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * Created by luhonghai on 07/09/15.
@@ -135,38 +146,75 @@ public class AnnotationHelper {
      * @throws AnnotationNotFound
      */
     public final String getCreateTableQuery() throws AnnotationNotFound, UnsupportedFieldType, InvalidAnnotationData {
+        return getCreateTableQuery(getTableName());
+    }
+
+    /**
+     * Get query to create table with other name, such as shadow table of migration
+     * @param tableName
+     * @return query to create table
+     * @throws AnnotationNotFound
+     */
+    public final String getCreateTableQuery(String tableName)
+            throws AnnotationNotFound, UnsupportedFieldType, InvalidAnnotationData {
         StringBuffer sql = new StringBuffer("CREATE TABLE ");
-        sql.append("[").append(getTableName()).append("]");
+        sql.append("[").append(tableName).append("]");
         sql.append(" (");
-        findColumn(sql, clazz);
+        final List<Field> primaryFields = getPrimaryFields();
+        final Field primaryField = primaryFields.size() == 1 ? primaryFields.get(0) : null;
+        findColumn(sql, clazz, primaryField);
         Class<?> parent = clazz.getSuperclass();
         if (parent.isAssignableFrom(clazz.getAnnotation(LiteTable.class).allowedParent())) {
-            findColumn(sql, parent);
+            findColumn(sql, parent, primaryField);
+        }
+        if (isContentHash()) {
+            sql.append("[").append(LiteTableMeta.CONTENT_HASH_COLUMN).append("] INTEGER, ");
+        }
+        if (primaryField == null) {
+            // Composite primary key is a table constraint
+            sql.append("PRIMARY KEY (");
+            for (int i = 0; i < primaryFields.size(); i++) {
+                if (i > 0) sql.append(",");
+                sql.append("[").append(getColumnName(primaryFields.get(i))).append("]");
+            }
+            sql.append("), ");
         }
         String rSql = sql.toString().trim();
         rSql = rSql.substring(0, rSql.length() - 1); // Remove char ,
+        if (isDeclaredWithoutRowId()) {
+            for (Field field : primaryFields) {
+                verifyWithoutRowId(field);
+            }
+        }
+        if (isWithoutRowId()) {
+            return rSql + ") WITHOUT ROWID;";
+        }
        return rSql + ");";
     }
 
     /**
-     * Find column is defined in class
+     * Find column is defined in class.
+     * Primary key of parent class is a normal column when the class defines its own primary key
      * @param sql
      * @param clazz
+     * @param primaryField primary key field of table, null for composite primary key
      * @throws UnsupportedFieldType
      * @throws InvalidAnnotationData
      */
-    private void findColumn(final StringBuffer sql, Class clazz) throws UnsupportedFieldType, InvalidAnnotationData {
+    private void findColumn(final StringBuffer sql, Class clazz, Field primaryField)
+            throws UnsupportedFieldType, InvalidAnnotationData {
         for (Field field : clazz.getDeclaredFields()) {
             LiteColumn liteColumn = field.getAnnotation(LiteColumn.class);
             if (liteColumn != null) {
+                final boolean isPrimaryKey = field.equals(primaryField);
                 String fieldType = getColumnType(field);
                 sql.append("[").append(getColumnName(field)).append("]");
                 sql.append(" ");
                 sql.append(fieldType);
-                if (liteColumn.isPrimaryKey()) {
+                if (isPrimaryKey) {
                     sql.append(" ").append("PRIMARY KEY");
                 }
-                if (liteColumn.isAutoincrement()) {
+                if (isPrimaryKey && liteColumn.isAutoincrement()) {
                     verifyAutoincrement(field);
                     sql.append(" ").append("AUTOINCREMENT");
                 }
@@ -181,6 +229,32 @@ public class AnnotationHelper {
         }
     }
 
+    /**
+     * Check if table is created WITHOUT ROWID.
+     * WITHOUT ROWID needs SQLite 3.8.2 (API level 21), on older platform the table keeps its rowid
+     * @return true if table has no rowid
+     */
+    public final boolean isWithoutRowId() {
+        return isDeclaredWithoutRowId() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    private boolean isDeclaredWithoutRowId() {
+        LiteTable liteTable = clazz.getAnnotation(LiteTable.class);
+        return liteTable != null && liteTable.withoutRowId();
+    }
+
+    /**
+     * Verify primary key of WITHOUT ROWID table
+     * @param primaryField
+     * @throws InvalidAnnotationData
+     */
+    public void verifyWithoutRowId(Field primaryField) throws InvalidAnnotationData {
+        if (primaryField.getAnnotation(LiteColumn.class).isAutoincrement()) {
+            throw new InvalidAnnotationData("WITHOUT ROWID table does not support autoincrement primary key. "
+                    + "Field name: " + primaryField.getName() + ". Class: " + clazz.getName());
+        }
+    }
+
     /**
      * Verify if field type is number for autoincrement
      * @param field
@@ -243,6 +317,189 @@ public class AnnotationHelper {
         return sql.toString();
     }
 
+    /**
+     * Check if table maintains content hash column
+     * @return true if content hash is enabled
+     */
+    public final boolean isContentHash() {
+        LiteTable liteTable = clazz.getAnnotation(LiteTable.class);
+        return liteTable != null && liteTable.contentHash();
+    }
+
+    /**
+     * Check if table maintains row counter
+     * @return true if row counter is enabled
+     */
+    public final boolean isMaintainCount() {
+        LiteTable liteTable = clazz.getAnnotation(LiteTable.class);
+        return liteTable != null && liteTable.maintainCount();
+    }
+
+    /**
+     * Get names of row counter triggers
+     * @return insert and delete trigger names
+     * @throws AnnotationNotFound
+     */
+    public final String[] getCountTriggerNames() throws AnnotationNotFound {
+        final String tableName = getTableName();
+        return new String[] {"lite_count_insert_" + tableName, "lite_count_delete_" + tableName};
+    }
+
+    /**
+     * Get queries to create row counter of table.
+     * Counter is reset to the current number of rows, so only run them when the triggers are missing
+     * @return queries to create count table, triggers and counter
+     * @throws AnnotationNotFound
+     */
+    public final String[] getCreateCountQueries() throws AnnotationNotFound {
+        final String tableName = getTableName();
+        final String[] names = getCountTriggerNames();
+        final String counter = "UPDATE [" + LiteTableMeta.COUNT_TABLE + "] SET [row_count] = [row_count] %s 1"
+                + " WHERE [table_name] = '" + tableName.replace("'", "''") + "';";
+        return new String[] {
+                "CREATE TABLE IF NOT EXISTS [" + LiteTableMeta.COUNT_TABLE + "]"
+                        + " ([table_name] TEXT PRIMARY KEY, [row_count] INTEGER NOT NULL)",
+                "CREATE TRIGGER IF NOT EXISTS [" + names[0] + "] AFTER INSERT ON ["
+                        + tableName + "] BEGIN " + String.format(Locale.US, counter, "+") + " END",
+                "CREATE TRIGGER IF NOT EXISTS [" + names[1] + "] AFTER DELETE ON ["
+                        + tableName + "] BEGIN " + String.format(Locale.US, counter, "-") + " END",
+                "INSERT OR REPLACE INTO [" + LiteTableMeta.COUNT_TABLE + "] ([table_name], [row_count])"
+                        + " SELECT '" + tableName.replace("'", "''") + "', count(*) FROM [" + tableName + "]"
+        };
+    }
+
+    /**
+     * Get queries to drop row counter of table
+     * @return queries to drop triggers and counter
+     * @throws AnnotationNotFound
+     */
+    public final String[] getDropCountQueries() throws AnnotationNotFound {
+        final String[] names = getCountTriggerNames();
+        return new String[] {
+                "DROP TRIGGER IF EXISTS [" + names[0] + "]",
+                "DROP TRIGGER IF EXISTS [" + names[1] + "]"
+        };
+    }
+
+    /**
+     * Get query to delete counter of table from count table
+     * @return delete query
+     * @throws AnnotationNotFound
+     */
+    public final String getDeleteCountQuery() throws AnnotationNotFound {
+        return "DELETE FROM [" + LiteTableMeta.COUNT_TABLE + "] WHERE [table_name] = '"
+                + getTableName().replace("'", "''") + "'";
+    }
+
+    /**
+     * Get queries to create trigger that clears content hash when content columns are changed without it,
+     * by ContentValues or raw SQL. Reconcile always updates row without hash.
+     * Bulk writes change content and hash together, so the trigger does not fire for them
+     * @param tableMeta
+     * @return queries to replace the trigger
+     */
+    public final String[] getCreateHashQueries(LiteTableMeta tableMeta) {
+        final String tableName = tableMeta.getTableName();
+        final String hashColumn = "[" + tableMeta.getHashColumn() + "]";
+        final StringBuilder columns = new StringBuilder();
+        final StringBuilder changed = new StringBuilder();
+        for (String fieldName : tableMeta.getHashFields()) {
+            final String column = "[" + tableMeta.getColumns().get(fieldName).getColumnName() + "]";
+            if (columns.length() > 0) {
+                columns.append(",");
+                changed.append(" OR ");
+            }
+            columns.append(column);
+            changed.append(isDistinct("new." + column, "old." + column));
+        }
+        if (columns.length() == 0) return getDropHashQueries(tableMeta);
+        final StringBuilder key = new StringBuilder();
+        if (tableMeta.isWithoutRowId()) {
+            for (String primaryKey : tableMeta.getPrimaryKeys()) {
+                final String column = "[" + tableMeta.getColumns().get(primaryKey).getColumnName() + "]";
+                if (key.length() > 0) key.append(" AND ");
+                key.append(column).append(" = new.").append(column);
+            }
+        } else {
+            key.append("rowid = new.rowid");
+        }
+        return new String[] {
+                "DROP TRIGGER IF EXISTS [" + LiteTableMeta.HASH_TRIGGER_PREFIX + tableName + "]",
+                "CREATE TRIGGER [" + LiteTableMeta.HASH_TRIGGER_PREFIX + tableName + "] AFTER UPDATE OF "
+                        + columns + " ON [" + tableName + "] WHEN (new." + hashColumn + " = old." + hashColumn
+                        + " OR (new." + hashColumn + " IS NULL AND old." + hashColumn + " IS NULL))"
+                        + " AND (" + changed + ") BEGIN UPDATE [" + tableName + "] SET " + hashColumn
+                        + " = NULL WHERE " + key + "; END"
+        };
+    }
+
+    /**
+     * Null-safe inequality of two expressions. IS NOT is not available before SQLite 3.6.19 (API 8)
+     * @param left
+     * @param right
+     * @return true if values differ or only one of them is null
+     */
+    private static String isDistinct(String left, String right) {
+        return "(" + left + " <> " + right + " OR (" + left + " IS NULL) <> (" + right + " IS NULL))";
+    }
+
+    /**
+     * Get queries to drop content hash trigger
+     * @param tableMeta
+     * @return queries to drop the trigger
+     */
+    public final String[] getDropHashQueries(LiteTableMeta tableMeta) {
+        return new String[] {
+                "DROP TRIGGER IF EXISTS [" + LiteTableMeta.HASH_TRIGGER_PREFIX + tableMeta.getTableName() + "]"
+        };
+    }
+
+    /**
+     * Get all generated schema queries of table: create table, indexes, row counter, full-text table
+     * and JSON index tables.
+     * Used to detect schema changes
+     * @return schema queries
+     * @throws AnnotationNotFound
+     * @throws UnsupportedFieldType
+     * @throws InvalidAnnotationData
+     */
+    public final List<String> getSchemaQueries()
+            throws AnnotationNotFound, UnsupportedFieldType, InvalidAnnotationData {
+        final LiteTableMeta tableMeta = generateTableMeta();
+        final List<String> queries = new ArrayList<String>();
+        queries.add(getCreateTableQuery());
+        for (LiteIndexMeta indexMeta : tableMeta.getIndexes()) {
+            queries.add(indexMeta.getCreateQuery());
+        }
+        queries.addAll(Arrays.asList(isMaintainCount() ? getCreateCountQueries() : getDropCountQueries()));
+        queries.addAll(Arrays.asList(tableMeta.getHashColumn() != null
+                ? getCreateHashQueries(tableMeta) : getDropHashQueries(tableMeta)));
+        if (tableMeta.getDocTable() != null) {
+            queries.add(tableMeta.getCreateDocQuery());
+            queries.addAll(Arrays.asList(tableMeta.getDocTriggerQueries()));
+        }
+        if (tableMeta.getFullTextTable() != null) {
+            queries.add(generateCreateFullTextQuery(tableMeta));
+            queries.addAll(Arrays.asList(generateFullTextTriggerQueries(tableMeta)));
+        }
+        for (LiteJsonIndexMeta jsonIndexMeta : tableMeta.getJsonIndexes()) {
+            queries.add(jsonIndexMeta.getCreateQuery());
+            queries.addAll(Arrays.asList(jsonIndexMeta.getCreateIndexQueries()));
+            queries.addAll(Arrays.asList(jsonIndexMeta.getTriggerQueries()));
+        }
+        return queries;
+    }
+
+    /**
+     * Get alter table add content hash column query
+     * @return query for alter table add column
+     * @throws AnnotationNotFound
+     */
+    public final String getAddHashColumnQuery() throws AnnotationNotFound {
+        return "ALTER TABLE [" + getTableName() + "] ADD COLUMN ["
+                + LiteTableMeta.CONTENT_HASH_COLUMN + "] INTEGER";
+    }
+
     /**
      * Get SQLite type
      * @param field
@@ -261,6 +518,10 @@ public class AnnotationHelper {
     public final LiteColumnType getLiteColumnType(Field field) throws UnsupportedFieldType {
         Class<?> fieldType = field.getType();
         LiteColumn liteColumn = field.getAnnotation(LiteColumn.class);
+        if (liteColumn != null && liteColumn.json()) {
+            if (!LiteJson.isSupportedType(fieldType)) throw new UnsupportedFieldType(clazz, field);
+            return LiteColumnType.TEXT;
+        }
         if (fieldType.isAssignableFrom(Long.class)
                 || fieldType.isAssignableFrom(long.class)
                 || fieldType.isAssignableFrom(Integer.class)
@@ -304,6 +565,11 @@ public class AnnotationHelper {
      */
     public final LiteFieldType getLiteFieldType(Field field) throws UnsupportedFieldType {
         Class<?> fieldType = field.getType();
+        LiteColumn liteColumn = field.getAnnotation(LiteColumn.class);
+        if (liteColumn != null && liteColumn.json()) {
+            if (!LiteJson.isSupportedType(fieldType)) throw new UnsupportedFieldType(clazz, field);
+            return LiteFieldType.JSON;
+        }
         if (fieldType.isAssignableFrom(Long.class)
                 || fieldType.isAssignableFrom(long.class)) {
             return LiteFieldType.LONG;
@@ -381,6 +647,65 @@ public class AnnotationHelper {
         throw new InvalidAnnotationData("No primary key found for table " + clazz.getName());
     }
 
+    /**
+     * Get field names of composite primary key declared by @LiteTable
+     * @return field names, empty if primary key is declared by column
+     */
+    public final String[] getPrimaryKeyNames() {
+        LiteTable liteTable = clazz.getAnnotation(LiteTable.class);
+        return liteTable == null ? new String[0] : liteTable.primaryKeys();
+    }
+
+    /**
+     * Get fields of primary key, in key order
+     * @return primary key fields
+     * @throws InvalidAnnotationData
+     */
+    public final List<Field> getPrimaryFields() throws InvalidAnnotationData {
+        final String[] names = getPrimaryKeyNames();
+        if (names.length == 0) return Collections.singletonList(getPrimaryField());
+        final List<Field> fields = new ArrayList<Field>(names.length);
+        for (String name : names) {
+            final Field field = findColumnField(name);
+            if (field == null)
+                throw new InvalidAnnotationData("Primary key field " + name + " is not a column of class "
+                        + clazz.getName());
+            if (fields.contains(field))
+                throw new InvalidAnnotationData("Duplicated primary key field " + name + ". Class: "
+                        + clazz.getName());
+            if (names.length > 1 && field.getAnnotation(LiteColumn.class).isAutoincrement())
+                throw new InvalidAnnotationData("Composite primary key does not support autoincrement. "
+                        + "Field name: " + name + ". Class: " + clazz.getName());
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    /**
+     * Find column field by name in class and allowed parent class
+     * @param name
+     * @return field, null if not found
+     */
+    private Field findColumnField(String name) {
+        Field field = findColumnField(clazz, name);
+        Class<?> parent = clazz.getSuperclass();
+        if (field == null && parent.isAssignableFrom(clazz.getAnnotation(LiteTable.class).allowedParent())) {
+            field = findColumnField(parent, name);
+        }
+        return field;
+    }
+
+    private Field findColumnField(Class<?> targetClass, String name) {
+        for (Field field : targetClass.getDeclaredFields()) {
+            if (field.getName().equals(name) && field.getAnnotation(LiteColumn.class) != null) {
+                if (!field.isAccessible())
+                    field.setAccessible(true); // for private variables
+                return field;
+            }
+        }
+        return null;
+    }
+
     /**
      * Generate table meta data of class
      * @return Table meta data
@@ -398,8 +723,28 @@ public class AnnotationHelper {
         if (parent.isAssignableFrom(clazz.getAnnotation(LiteTable.class).allowedParent())) {
             generateTableMeta(meta,columns, parent);
         }
-        if (meta.getPrimaryKey().length() == 0)
+        if (meta.getPrimaryKey().length() == 0 && getPrimaryKeyNames().length == 0)
             throw new InvalidAnnotationData("Require one primary key. Simply to extends LiteEntity class");
+        final List<String> primaryKeys = new ArrayList<String>();
+        for (Field field : getPrimaryFields()) {
+            primaryKeys.add(field.getName());
+        }
+        meta.setPrimaryKey(primaryKeys.get(0));
+        meta.setPrimaryKeys(primaryKeys.toArray(new String[primaryKeys.size()]));
+        // Declared primary key overrides primary key of columns and parent class
+        for (LiteColumnMeta columnMeta : columns.values()) {
+            final boolean isPrimaryKey = primaryKeys.contains(columnMeta.getField().getName());
+            if (columnMeta.isPrimaryKey() && !isPrimaryKey) {
+                columnMeta.setIsAutoincrement(false);
+            }
+            columnMeta.setIsPrimaryKey(isPrimaryKey);
+        }
+        if (isDeclaredWithoutRowId()) {
+            for (String primaryKey : primaryKeys) {
+                verifyWithoutRowId(columns.get(primaryKey).getField());
+            }
+            meta.setWithoutRowId(isWithoutRowId());
+        }
         meta.setColumns(columns);
         String[] selectColumns = new String[columns.size()];
         String[] selectFields = new String[columns.size()];
@@ -429,11 +774,453 @@ public class AnnotationHelper {
         String[] listUpdateFields = new String[updateFields.size()];
         updateFields.toArray(listUpdateFields);
         meta.setUpdateFields(listUpdateFields);
+        if (isContentHash()) {
+            meta.setHashColumn(LiteTableMeta.CONTENT_HASH_COLUMN);
+            String[] hashFields = listUpdateFields.clone();
+            Arrays.sort(hashFields);
+            meta.setHashFields(hashFields);
+        }
+        meta.setMaintainCount(isMaintainCount());
+        meta.setIndexes(generateIndexMeta(meta));
+        generateFullTextMeta(meta);
+        meta.setKeyCondition(generateKeyCondition(meta));
+        generateDocMeta(meta);
+        generateJsonIndexMeta(meta);
         meta.setInsertQuery(generateInsertQuery(meta));
+        meta.setUpsertQuery(generateUpsertQuery(meta));
         meta.setUpdateQuery(generateUpdateQuery(meta));
+        meta.setSelectQuery(generateSelectQuery(meta));
+        meta.setSelectByKeyQuery(generateSelectByKeyQuery(meta));
         return meta;
     }
 
+    /**
+     * Generate index meta data from field and table annotations
+     * @param tableMeta
+     * @return list of indexes
+     * @throws InvalidAnnotationData
+     */
+    public List<LiteIndexMeta> generateIndexMeta(final LiteTableMeta tableMeta) throws InvalidAnnotationData {
+        final List<LiteIndexMeta> indexes = new ArrayList<LiteIndexMeta>();
+        final List<Field> fields = new ArrayList<Field>(Arrays.asList(clazz.getDeclaredFields()));
+        Class<?> parent = clazz.getSuperclass();
+        LiteTable liteTable = (LiteTable) clazz.getAnnotation(LiteTable.class);
+        if (parent.isAssignableFrom(liteTable.allowedParent())) {
+            fields.addAll(Arrays.asList(parent.getDeclaredFields()));
+        }
+        for (Field field : fields) {
+            LiteIndex liteIndex = field.getAnnotation(LiteIndex.class);
+            if (liteIndex != null) {
+                List<String> indexFields = new ArrayList<String>();
+                indexFields.add(field.getName());
+                indexFields.addAll(Arrays.asList(liteIndex.fields()));
+                indexes.add(generateIndexMeta(tableMeta, liteIndex, indexFields));
+            }
+        }
+        final List<LiteIndex> tableIndexes = new ArrayList<LiteIndex>(Arrays.asList(liteTable.indexes()));
+        LiteIndex classIndex = (LiteIndex) clazz.getAnnotation(LiteIndex.class);
+        if (classIndex != null) tableIndexes.add(classIndex);
+        for (LiteIndex liteIndex : tableIndexes) {
+            if (liteIndex.fields().length == 0) {
+                throw new InvalidAnnotationData("Require fields of table index. Class: " + clazz.getName());
+            }
+            indexes.add(generateIndexMeta(tableMeta, liteIndex, Arrays.asList(liteIndex.fields())));
+        }
+        return indexes;
+    }
+
+    private LiteIndexMeta generateIndexMeta(final LiteTableMeta tableMeta, LiteIndex liteIndex,
+                                            List<String> fields) throws InvalidAnnotationData {
+        final String[] columns = new String[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            LiteColumnMeta columnMeta = tableMeta.getColumns().get(fields.get(i));
+            if (columnMeta == null) {
+                throw new InvalidAnnotationData("Index field " + fields.get(i)
+                        + " is not a column. Class: " + clazz.getName());
+            }
+            columns[i] = columnMeta.getColumnName();
+        }
+        StringBuilder name = new StringBuilder(LiteIndexMeta.INDEX_PREFIX)
+                .append(tableMeta.getTableName()).append("_");
+        if (liteIndex.name().length() > 0) {
+            name.append(liteIndex.name());
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) name.append("_");
+                name.append(columns[i]);
+            }
+        }
+        LiteIndexMeta indexMeta = new LiteIndexMeta();
+        indexMeta.setName(name.toString());
+        indexMeta.setColumns(columns);
+        indexMeta.setUnique(liteIndex.unique());
+        indexMeta.setWhere(liteIndex.where());
+        indexMeta.setCreateQuery(generateCreateIndexQuery(tableMeta, indexMeta));
+        return indexMeta;
+    }
+
+    /**
+     * Find full-text columns and set full-text table of table meta
+     * @param tableMeta
+     * @throws InvalidAnnotationData
+     */
+    private void generateFullTextMeta(final LiteTableMeta tableMeta) throws InvalidAnnotationData {
+        final List<String> columns = new ArrayList<String>();
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            if (columnMeta.getField().getAnnotation(LiteFullText.class) != null) {
+                if (columnMeta.getFieldType() != LiteFieldType.STRING) {
+                    throw new InvalidAnnotationData("Full-text only support String field. Field name: "
+                            + columnMeta.getField().getName() + ". Class: " + clazz.getName());
+                }
+                columns.add(columnMeta.getColumnName());
+            }
+        }
+        if (columns.isEmpty()) return;
+        Collections.sort(columns);
+        tableMeta.setFullTextTable(LiteTableMeta.FULL_TEXT_PREFIX + tableMeta.getTableName());
+        tableMeta.setFullTextColumns(columns.toArray(new String[columns.size()]));
+    }
+
+    /**
+     * Set doc table of WITHOUT ROWID table that has full-text or JSON index.
+     * Full-text and JSON index tables need an integer doc id, doc table gives one to each primary key.
+     * Doc id is removed after delete triggers of other tables have run. Primary key could not be changed,
+     * so doc ids stay valid
+     * @param tableMeta
+     * @throws InvalidAnnotationData
+     */
+    private void generateDocMeta(final LiteTableMeta tableMeta) throws InvalidAnnotationData {
+        if (!tableMeta.isWithoutRowId()) return;
+        boolean hasJsonIndex = false;
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            if (columnMeta.getField().getAnnotation(LiteJsonIndex.class) != null) hasJsonIndex = true;
+        }
+        if (tableMeta.getFullTextTable() == null && !hasJsonIndex) return;
+        if (tableMeta.isCompositeKey()) {
+            throw new InvalidAnnotationData("Full-text and JSON index of WITHOUT ROWID table require "
+                    + "single primary key. Class: " + clazz.getName());
+        }
+        final String docTable = LiteTableMeta.DOC_TABLE_PREFIX + tableMeta.getTableName();
+        final String table = "[" + tableMeta.getTableName() + "]";
+        final String key = "[" + tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName() + "]";
+        final String[] names = new String[] {docTable + "_bu", docTable + "_ad"};
+        tableMeta.setDocTable(docTable);
+        tableMeta.setCreateDocQuery("CREATE TABLE [" + docTable + "] ([docid] INTEGER PRIMARY KEY,"
+                + " [key] NOT NULL UNIQUE)");
+        tableMeta.setDocTriggerNames(names);
+        tableMeta.setDocTriggerQueries(new String[] {
+                "CREATE TRIGGER [" + names[0] + "] BEFORE UPDATE OF " + key + " ON " + table
+                        + " WHEN " + isDistinct("old." + key, "new." + key)
+                        + " BEGIN SELECT RAISE(ABORT, 'Primary key of " + tableMeta.getTableName().replace("'", "''")
+                        + " is used by full-text or JSON index and could not be changed'); END",
+                "CREATE TRIGGER [" + names[1] + "] AFTER DELETE ON " + table
+                        + " BEGIN DELETE FROM [" + docTable + "] WHERE [key] = old." + key + "; END"
+        });
+        tableMeta.setInsertDocQuery("INSERT OR IGNORE INTO [" + docTable + "] ([key]) VALUES (?)");
+    }
+
+    /**
+     * Get expression of doc id of old or new row, use in trigger
+     * @param tableMeta
+     * @param row old or new
+     * @return rowid, or doc id that is selected from doc table
+     */
+    private String getDocExpression(final LiteTableMeta tableMeta, final String row) {
+        if (tableMeta.getDocTable() == null) return row + ".rowid";
+        return "(SELECT [docid] FROM [" + tableMeta.getDocTable() + "] WHERE [key] = " + row + ".["
+                + tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName() + "])";
+    }
+
+    /**
+     * Get trigger statement that gives doc id to new row
+     * @param tableMeta
+     * @return insert statement, empty if rowid is the doc id
+     */
+    private String getInsertDocStatement(final LiteTableMeta tableMeta) {
+        if (tableMeta.getDocTable() == null) return "";
+        return "INSERT OR IGNORE INTO [" + tableMeta.getDocTable() + "] ([key]) VALUES (new.["
+                + tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName() + "]); ";
+    }
+
+    /**
+     * Find JSON index fields and set JSON indexes of table meta
+     * @param tableMeta
+     * @throws InvalidAnnotationData
+     */
+    private void generateJsonIndexMeta(final LiteTableMeta tableMeta) throws InvalidAnnotationData {
+        final List<LiteJsonIndexMeta> jsonIndexes = new ArrayList<LiteJsonIndexMeta>();
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            final LiteJsonIndex liteJsonIndex = columnMeta.getField().getAnnotation(LiteJsonIndex.class);
+            if (liteJsonIndex == null) continue;
+            if (columnMeta.getFieldType() != LiteFieldType.JSON) {
+                throw new InvalidAnnotationData("JSON index only support JSON column. Field name: "
+                        + columnMeta.getField().getName() + ". Class: " + clazz.getName());
+            }
+            final String[] paths = liteJsonIndex.paths();
+            if (paths.length == 0) {
+                throw new InvalidAnnotationData("JSON index require at least one path. Field name: "
+                        + columnMeta.getField().getName() + ". Class: " + clazz.getName());
+            }
+            for (String path : paths) {
+                if (!LiteJson.isValidPath(path)) {
+                    throw new InvalidAnnotationData("Invalid JSON path " + path + ". Field name: "
+                            + columnMeta.getField().getName() + ". Class: " + clazz.getName());
+                }
+            }
+            final LiteJsonIndexMeta jsonIndexMeta = new LiteJsonIndexMeta();
+            jsonIndexMeta.setFieldName(columnMeta.getField().getName());
+            jsonIndexMeta.setColumnName(columnMeta.getColumnName());
+            jsonIndexMeta.setTableName(LiteJsonIndexMeta.TABLE_PREFIX + tableMeta.getTableName()
+                    + "_" + columnMeta.getColumnName());
+            jsonIndexMeta.setPaths(paths.clone());
+            generateJsonIndexQueries(tableMeta, jsonIndexMeta);
+            jsonIndexes.add(jsonIndexMeta);
+        }
+        if (!jsonIndexes.isEmpty()) {
+            Collections.sort(jsonIndexes, new Comparator<LiteJsonIndexMeta>() {
+                @Override
+                public int compare(LiteJsonIndexMeta lhs, LiteJsonIndexMeta rhs) {
+                    return lhs.getTableName().compareTo(rhs.getTableName());
+                }
+            });
+            tableMeta.setSelectRowIdQuery(tableMeta.getDocTable() == null
+                    ? "SELECT rowid FROM [" + tableMeta.getTableName() + "] WHERE " + tableMeta.getKeyCondition()
+                    : "SELECT [docid] FROM [" + tableMeta.getDocTable() + "] WHERE [key] = ?");
+        }
+        tableMeta.setJsonIndexes(jsonIndexes);
+    }
+
+    /**
+     * Generate queries of JSON index table.
+     * Indexed paths are part of the create query, so changed paths could be detected.
+     * Triggers remove extracted values when JSON column is updated or row is deleted.
+     * Update trigger marks the row in pending table, bulk update clears the mark after indexing the row.
+     * Delete trigger of WITHOUT ROWID table runs before the doc id is removed from doc table
+     * @param tableMeta
+     * @param jsonIndexMeta
+     */
+    private void generateJsonIndexQueries(final LiteTableMeta tableMeta, final LiteJsonIndexMeta jsonIndexMeta) {
+        final String indexTable = jsonIndexMeta.getTableName();
+        final StringBuilder paths = new StringBuilder();
+        for (String path : jsonIndexMeta.getPaths()) {
+            if (paths.length() > 0) paths.append(", ");
+            paths.append("'").append(path.replace("'", "''")).append("'");
+        }
+        jsonIndexMeta.setCreateQuery("CREATE TABLE [" + indexTable + "] ([path] TEXT NOT NULL CHECK ([path] IN ("
+                + paths + ")), [value], [doc] INTEGER NOT NULL)");
+        jsonIndexMeta.setCreateIndexQueries(new String[] {
+                "CREATE INDEX [" + indexTable + "_value] ON [" + indexTable + "] ([path], [value], [doc])",
+                "CREATE INDEX [" + indexTable + "_doc] ON [" + indexTable + "] ([doc])"
+        });
+        final String table = "[" + tableMeta.getTableName() + "]";
+        final String pendingTable = "[" + LiteJsonIndexMeta.PENDING_TABLE + "]";
+        final String indexTableName = "'" + indexTable.replace("'", "''") + "'";
+        final String oldDoc = getDocExpression(tableMeta, "old");
+        final String delete = " BEGIN DELETE FROM [" + indexTable + "] WHERE [doc] = " + oldDoc + "; ";
+        final String[] names = new String[] {indexTable + "_au", indexTable + "_ad"};
+        jsonIndexMeta.setTriggerNames(names);
+        jsonIndexMeta.setTriggerQueries(new String[] {
+                "CREATE TRIGGER [" + names[0] + "] AFTER UPDATE OF [" + jsonIndexMeta.getColumnName()
+                        + "] ON " + table + delete + getInsertDocStatement(tableMeta)
+                        + "INSERT OR IGNORE INTO " + pendingTable + " ([index_table], [doc]) VALUES ("
+                        + indexTableName + ", " + getDocExpression(tableMeta, "new") + "); END",
+                "CREATE TRIGGER [" + names[1] + "] " + (tableMeta.getDocTable() == null ? "AFTER" : "BEFORE")
+                        + " DELETE ON " + table + delete
+                        + "DELETE FROM " + pendingTable + " WHERE [index_table] = " + indexTableName
+                        + " AND [doc] = " + oldDoc + "; END"
+        });
+        jsonIndexMeta.setInsertQuery("INSERT INTO [" + indexTable + "] ([path], [value], [doc]) VALUES (?, ?, ?)");
+    }
+
+    /**
+     * Check if full-text table reads text from table by rowid.
+     * FTS4 external content require SQLite 3.7.9, bundled since Android API level 16.
+     * Below it and for table without rowid, full-text table keeps its own copy of text
+     * @param tableMeta
+     * @return true if full-text table is external content table
+     */
+    private static boolean isExternalContent(final LiteTableMeta tableMeta) {
+        return tableMeta.getDocTable() == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * Generate query to create full-text table.
+     * Keep the same form as SQLite stores in sqlite_master, so changed columns could be detected.
+     * FTS4 require SQLite 3.7.4 (Android API level 11), FTS3 is used below it
+     * @param tableMeta
+     * @return create virtual table query
+     */
+    public String generateCreateFullTextQuery(final LiteTableMeta tableMeta) {
+        StringBuffer query = new StringBuffer("CREATE VIRTUAL TABLE [");
+        query.append(tableMeta.getFullTextTable()).append("] USING ")
+                .append(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ? "fts4" : "fts3").append("(");
+        if (isExternalContent(tableMeta)) {
+            query.append("content=\"").append(tableMeta.getTableName()).append("\", ");
+        }
+        final String[] columns = tableMeta.getFullTextColumns();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) query.append(", ");
+            query.append("[").append(columns[i]).append("]");
+        }
+        query.append(")");
+        return query.toString();
+    }
+
+    /**
+     * Generate queries to fill full-text table from table content
+     * @param tableMeta
+     * @return fill queries
+     */
+    public String[] generateFullTextFillQueries(final LiteTableMeta tableMeta) {
+        final String fullTextTable = "[" + tableMeta.getFullTextTable() + "]";
+        if (isExternalContent(tableMeta)) {
+            return new String[] {"INSERT INTO " + fullTextTable + " (" + fullTextTable + ") VALUES ('rebuild')"};
+        }
+        final String table = "[" + tableMeta.getTableName() + "]";
+        if (tableMeta.getDocTable() == null) {
+            StringBuilder columns = new StringBuilder("docid");
+            StringBuilder values = new StringBuilder("rowid");
+            for (String column : tableMeta.getFullTextColumns()) {
+                columns.append(", [").append(column).append("]");
+                values.append(", [").append(column).append("]");
+            }
+            return new String[] {"INSERT INTO " + fullTextTable + " (" + columns + ") SELECT " + values
+                    + " FROM " + table};
+        }
+        final String docTable = "[" + tableMeta.getDocTable() + "]";
+        final String key = "[" + tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName() + "]";
+        StringBuilder columns = new StringBuilder("docid");
+        StringBuilder values = new StringBuilder(docTable + ".[docid]");
+        for (String column : tableMeta.getFullTextColumns()) {
+            columns.append(", [").append(column).append("]");
+            values.append(", ").append(table).append(".[").append(column).append("]");
+        }
+        return new String[] {
+                "INSERT OR IGNORE INTO " + docTable + " ([key]) SELECT " + key + " FROM " + table,
+                "INSERT INTO " + fullTextTable + " (" + columns + ") SELECT " + values + " FROM " + table
+                        + " JOIN " + docTable + " ON " + docTable + ".[key] = " + table + "." + key
+        };
+    }
+
+    /**
+     * Generate queries to create triggers that keep full-text table in sync with table
+     * @param tableMeta
+     * @return create trigger queries
+     */
+    public String[] generateFullTextTriggerQueries(final LiteTableMeta tableMeta) {
+        final String table = "[" + tableMeta.getTableName() + "]";
+        final String fullTextTable = "[" + tableMeta.getFullTextTable() + "]";
+        StringBuilder columns = new StringBuilder("docid");
+        StringBuilder values = new StringBuilder(getDocExpression(tableMeta, "new"));
+        for (String column : tableMeta.getFullTextColumns()) {
+            columns.append(", [").append(column).append("]");
+            values.append(", new.[").append(column).append("]");
+        }
+        final String delete = " BEGIN DELETE FROM " + fullTextTable + " WHERE docid = "
+                + getDocExpression(tableMeta, "old") + "; END";
+        final String insert = " BEGIN " + getInsertDocStatement(tableMeta)
+                + "INSERT INTO " + fullTextTable + " (" + columns + ") VALUES (" + values + "); END";
+        // Only changes of indexed text or of the key that maps to docid rewrite the full-text row
+        final Set<String> updateColumns = new LinkedHashSet<String>(Arrays.asList(tableMeta.getFullTextColumns()));
+        for (String primaryKey : tableMeta.getPrimaryKeys()) {
+            if (primaryKey != null) updateColumns.add(tableMeta.getColumns().get(primaryKey).getColumnName());
+        }
+        StringBuilder updateOf = new StringBuilder();
+        for (String column : updateColumns) {
+            if (updateOf.length() > 0) updateOf.append(",");
+            updateOf.append("[").append(column).append("]");
+        }
+        final String[] names = getFullTextTriggerNames(tableMeta);
+        return new String[] {
+                "CREATE TRIGGER [" + names[0] + "] BEFORE UPDATE OF " + updateOf + " ON " + table + delete,
+                "CREATE TRIGGER [" + names[1] + "] BEFORE DELETE ON " + table + delete,
+                "CREATE TRIGGER [" + names[2] + "] AFTER UPDATE OF " + updateOf + " ON " + table + insert,
+                "CREATE TRIGGER [" + names[3] + "] AFTER INSERT ON " + table + insert
+        };
+    }
+
+    /**
+     * Get names of full-text triggers
+     * @param tableMeta
+     * @return trigger names
+     */
+    public String[] getFullTextTriggerNames(final LiteTableMeta tableMeta) {
+        final String prefix = LiteTableMeta.FULL_TEXT_PREFIX + tableMeta.getTableName();
+        return new String[] {prefix + "_bu", prefix + "_bd", prefix + "_au", prefix + "_ai"};
+    }
+
+    /**
+     * Generate query to create index.
+     * Keep the same form as SQLite stores in sqlite_master, so changed index could be detected
+     * @param tableMeta
+     * @param indexMeta
+     * @return create index query
+     */
+    public String generateCreateIndexQuery(final LiteTableMeta tableMeta, final LiteIndexMeta indexMeta) {
+        StringBuffer query = new StringBuffer("CREATE ");
+        if (indexMeta.isUnique()) query.append("UNIQUE ");
+        query.append("INDEX [").append(indexMeta.getName()).append("] ON [")
+                .append(tableMeta.getTableName()).append("] (");
+        final String[] columns = indexMeta.getColumns();
+        for (int i = 0; i < columns.length; i++) {
+            query.append("[").append(columns[i]).append("]");
+            if (i < columns.length - 1)
+                query.append(",");
+        }
+        query.append(")");
+        if (indexMeta.getWhere().length() > 0) {
+            query.append(" WHERE ").append(indexMeta.getWhere());
+        }
+        return query.toString();
+    }
+
+    /**
+     * Generate query to select all columns of table.
+     * Columns are in the same order as select fields
+     * @param tableMeta
+     * @return select query
+     */
+    public String generateSelectQuery(final LiteTableMeta tableMeta) {
+        final String[] selectColumns = tableMeta.getSelectColumns();
+        StringBuffer query = new StringBuffer("SELECT ");
+        for (int i = 0; i < selectColumns.length; i++) {
+            query.append(selectColumns[i]);
+            if (i < selectColumns.length - 1)
+                query.append(",");
+        }
+        query.append(" FROM [").append(tableMeta.getTableName()).append("]");
+        return query.toString();
+    }
+
+    /**
+     * Generate condition to match row by all primary key columns, in key order
+     * @param tableMeta
+     * @return key condition
+     */
+    public String generateKeyCondition(final LiteTableMeta tableMeta) {
+        final String[] primaryKeys = tableMeta.getPrimaryKeys();
+        StringBuffer condition = new StringBuffer();
+        for (int i = 0; i < primaryKeys.length; i++) {
+            if (i > 0) condition.append(" AND ");
+            condition.append("[")
+                    .append(tableMeta.getColumns().get(primaryKeys[i]).getColumnName())
+                    .append("]")
+                    .append(" = ?");
+        }
+        return condition.toString();
+    }
+
+    /**
+     * Generate query to select object by primary key, use for point lookup
+     * @param tableMeta
+     * @return select query
+     */
+    public String generateSelectByKeyQuery(final LiteTableMeta tableMeta) {
+        StringBuffer query = new StringBuffer(tableMeta.getSelectQuery());
+        query.append(" WHERE ").append(tableMeta.getKeyCondition());
+        return query.toString();
+    }
+
     /**
      * Generate default update query, use for bulk update
      * @param tableMeta
@@ -450,11 +1237,11 @@ public class AnnotationHelper {
             if (i < updateFields.length - 1)
                 query.append(",");
         }
-        query.append(" WHERE ")
-                .append("[")
-                .append(tableMeta.getColumns().get(tableMeta.getPrimaryKey()).getColumnName())
-                .append("]")
-                .append(" = ?");
+        if (tableMeta.getHashColumn() != null) {
+            if (updateFields.length > 0) query.append(",");
+            query.append("[").append(tableMeta.getHashColumn()).append("] = ?");
+        }
+        query.append(" WHERE ").append(tableMeta.getKeyCondition());
         return query.toString();
     }
 
@@ -475,6 +1262,44 @@ public class AnnotationHelper {
                 params.append(",");
             }
         }
+        if (tableMeta.getHashColumn() != null) {
+            if (insertFields.length > 0) {
+                query.append(",");
+                params.append(",");
+            }
+            query.append("[").append(tableMeta.getHashColumn()).append("]");
+            params.append("?");
+        }
+        query.append(") VALUES (").append(params.toString()).append(")");
+        return query.toString();
+    }
+
+    /**
+     * Generate insert query of bulk upsert, run when no row is updated by primary key.
+     * Autoincrement primary key is included, so the key of object is kept
+     * @param tableMeta
+     * @return upsert query
+     */
+    public String generateUpsertQuery(final LiteTableMeta tableMeta) {
+        final List<String> upsertFields = new ArrayList<String>(Arrays.asList(tableMeta.getInsertFields()));
+        for (String primaryKey : tableMeta.getPrimaryKeys()) {
+            if (!upsertFields.contains(primaryKey)) upsertFields.add(primaryKey);
+        }
+        tableMeta.setUpsertFields(upsertFields.toArray(new String[upsertFields.size()]));
+        StringBuffer query = new StringBuffer("INSERT INTO [" + tableMeta.getTableName() + "](");
+        StringBuffer params = new StringBuffer();
+        for (int i = 0; i < upsertFields.size(); i++) {
+            query.append("[").append(tableMeta.getColumns().get(upsertFields.get(i)).getColumnName()).append("]");
+            params.append("?");
+            if (i < upsertFields.size() - 1) {
+                query.append(",");
+                params.append(",");
+            }
+        }
+        if (tableMeta.getHashColumn() != null) {
+            query.append(",[").append(tableMeta.getHashColumn()).append("]");
+            params.append(",?");
+        }
         query.append(") VALUES (").append(params.toString()).append(")");
         return query.toString();
     }
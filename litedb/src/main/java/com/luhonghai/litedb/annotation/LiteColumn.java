@@ -85,4 +85,11 @@ public @interface  LiteColumn {
      * See more https://www.sqlite.org/datatype3.html
      */
     LiteColumnType dateColumnType() default LiteColumnType.INTEGER;
+
+    /**
+     * Store value as JSON text in a TEXT column.
+     * Support field type List, Collection, Set, Map, String[], JSONObject and JSONArray.
+     * Use LiteJsonIndex to query values inside the JSON text by index
+     */
+    boolean json() default false;
 }
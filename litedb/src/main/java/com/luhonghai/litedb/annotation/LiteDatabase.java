@@ -61,4 +61,19 @@ public @interface LiteDatabase {
      * Use real table name and column name in query
      */
     boolean useClassSchema() default false;
+
+    /**
+     * Verify tables on open when the generated schema is changed, without bumping version.
+     * The schema fingerprint is stored in table lite_meta, so unchanged schema costs one read on open
+     */
+    boolean syncSchemaOnOpen() default true;
+
+    /**
+     * Path of prebuilt SQLite database in assets, such as "db/catalog.db".
+     * It is copied as the database file on first open, instead of importing data row by row.
+     * Its user_version must be from 1 to version. Upgrade runs as usual after it is copied
+     * and tables are verified once even if syncSchemaOnOpen is false.
+     * Error of copy is reported to DatabaseListener.onError when database is opened
+     */
+    String prepackagedAsset() default "";
 }
@@ -0,0 +1,55 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Index values extracted from JSON column by paths.
+ *
+ * Extracted scalar values are stored in table lite_json_[table]_[column] as (path, value, row id),
+ * indexed by (path, value). Rows are added by bulk insert, update and upsert,
+ * and removed by triggers when the row is updated or deleted.
+ * Rows updated by ContentValues or raw SQL are marked by the update trigger and indexed again
+ * by LiteBaseDao.refreshJsonIndexes(), before every whereJson() query. Rows inserted by raw SQL are not indexed.
+ * Use LiteQuery.Builder.whereJson() to find rows by extracted value.
+ *
+ * Path support "$" for the root, ".name" for object member, "[n]" for array element
+ * and "[*]" for all array elements. For example: "$[*]", "$.author.name", "$.tags[*]"
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface LiteJsonIndex {
+
+    /**
+     * Paths of indexed values. Index all array elements by default
+     */
+    String[] paths() default {"$[*]"};
+}
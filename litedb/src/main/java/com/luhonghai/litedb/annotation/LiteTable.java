@@ -48,4 +48,38 @@ public @interface LiteTable {
      * To search annotation and field
      */
     Class allowedParent() default LiteEntity.class;
+
+    /**
+     * Maintain a hash of row content in hidden column _lite_hash.
+     * The hash is written by bulk insert and update. Required by LiteBaseDao.reconcile
+     * to detect changed rows without loading them.
+     * Rows changed by ContentValues or raw SQL have their hash cleared by trigger, so they are updated by reconcile
+     */
+    boolean contentHash() default false;
+
+    /**
+     * Maintain number of rows in table lite_counts by insert and delete triggers.
+     * LiteBaseDao.count() without selection reads the counter instead of scanning the table
+     */
+    boolean maintainCount() default false;
+
+    /**
+     * Table level indexes, such as composite indexes
+     */
+    LiteIndex[] indexes() default {};
+
+    /**
+     * Create table WITHOUT ROWID, clustered by primary key.
+     * Require a primary key that is not autoincrement. Below Android API level 21 (SQLite 3.8.2)
+     * the table is created with rowid.
+     * Full-text and JSON index tables refer to rows by doc id of the primary key,
+     * so a single column primary key is required and its value could not be updated
+     */
+    boolean withoutRowId() default false;
+
+    /**
+     * Field names of composite primary key, in key order.
+     * Override isPrimaryKey of columns. Autoincrement is not supported
+     */
+    String[] primaryKeys() default {};
 }
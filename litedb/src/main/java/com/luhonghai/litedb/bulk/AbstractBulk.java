@@ -26,13 +26,20 @@
 
 package com.luhonghai.litedb.bulk;
 
+import android.annotation.TargetApi;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import com.luhonghai.litedb.LiteBaseDao;
+import com.luhonghai.litedb.LiteJson;
+import com.luhonghai.litedb.LiteStatementCache;
+import com.luhonghai.litedb.LiteTransaction;
 import com.luhonghai.litedb.exception.InvalidAnnotationData;
 import com.luhonghai.litedb.exception.LiteDatabaseException;
 import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteJsonIndexMeta;
 import com.luhonghai.litedb.meta.LiteTableMeta;
 
 import java.io.ByteArrayOutputStream;
@@ -42,8 +49,10 @@ import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -56,22 +65,69 @@ import java.util.TimeZone;
  */
 public abstract class AbstractBulk<T> {
 
+    /**
+     * Listener for watch chunked bulk progress
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each chunk is committed
+         * @param checkpoint number of rows committed since the bulk began.
+         *                   Pass it to execute(list, checkpoint) to resume the run
+         * @param bytes estimated size of committed data
+         */
+        void onChunkCommitted(long checkpoint, long bytes);
+    }
+
     private final SQLiteDatabase database;
 
     private SQLiteStatement sqLiteStatement;
 
+    /**
+     * Other statements opened by getStatement(). Released on end
+     */
+    private final Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
     private final LiteTableMeta tableMeta;
 
     private final SimpleDateFormat sdfDateValue;
 
     private boolean useTransaction = true;
 
+    /**
+     * Joined unit of work. Null if this bulk manages its own transaction
+     */
+    private final LiteTransaction transaction;
+
+    /**
+     * Borrow compiled statement from this cache. Null to compile new one
+     */
+    private LiteStatementCache statementCache;
+
+    /**
+     * Commit every chunkRows rows. Zero to disable
+     */
+    private int chunkRows;
+
+    /**
+     * Commit every chunkBytes bytes of bound data. Zero to disable
+     */
+    private long chunkBytes;
+
+    private ProgressListener progressListener;
+
+    private long pendingRows;
+
+    private long pendingBytes;
+
+    private long committedRows;
+
+    private long committedBytes;
+
+    private boolean successful;
+
     public AbstractBulk(SQLiteDatabase database,
                         LiteTableMeta tableMeta) {
-        this.database = database;
-        this.tableMeta = tableMeta;
-        this.sdfDateValue = new SimpleDateFormat(LiteBaseDao.DEFAULT_DATE_FORMAT, Locale.getDefault());
-        this.sdfDateValue.setTimeZone(TimeZone.getTimeZone("UTC"));
+        this(database, tableMeta, null);
     }
 
     public AbstractBulk(SQLiteDatabase database,
@@ -80,6 +136,40 @@ public abstract class AbstractBulk<T> {
         this.useTransaction = useTransaction;
     }
 
+    /**
+     * Constructor. Borrow the compiled statement from cache
+     * @param database
+     * @param tableMeta
+     * @param useTransaction
+     * @param statementCache
+     */
+    public AbstractBulk(SQLiteDatabase database,
+                        LiteTableMeta tableMeta, boolean useTransaction,
+                        LiteStatementCache statementCache) {
+        this(database, tableMeta, useTransaction);
+        this.statementCache = statementCache;
+    }
+
+    /**
+     * Join the unit of work. Transaction and compiled statement are owned by the scope
+     * @param transaction
+     * @param tableMeta
+     */
+    public AbstractBulk(LiteTransaction transaction,
+                        LiteTableMeta tableMeta) {
+        this(transaction.getDatabase(), tableMeta, transaction);
+        this.useTransaction = false;
+    }
+
+    private AbstractBulk(SQLiteDatabase database,
+                         LiteTableMeta tableMeta, LiteTransaction transaction) {
+        this.database = database;
+        this.tableMeta = tableMeta;
+        this.transaction = transaction;
+        this.sdfDateValue = new SimpleDateFormat(LiteBaseDao.DEFAULT_DATE_FORMAT, Locale.getDefault());
+        this.sdfDateValue.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
     /**
      * The query will be passed to sqLiteStatement
      * @return query
@@ -102,13 +192,166 @@ public abstract class AbstractBulk<T> {
         return sqLiteStatement;
     }
 
+    /**
+     * Commit the transaction every chunkRows rows or chunkBytes bytes of bound data,
+     * whichever comes first. Keep the journal size bounded on very large run.
+     * Between chunks, the transaction is yielded by SQLiteDatabase.yieldIfContendedSafely()
+     * after each row when other thread waits for the database, so lock hold time is bounded too.
+     * Only work when this bulk manages its own transaction
+     * @param chunkRows number of rows per chunk. Zero to disable
+     * @param chunkBytes estimated bytes per chunk. Zero to disable
+     */
+    public void setChunkSize(int chunkRows, long chunkBytes) {
+        this.chunkRows = chunkRows;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Set listener for watch chunk progress
+     * @param progressListener
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Number of rows committed since the bulk began
+     * @return checkpoint to resume the run
+     */
+    public long getCommittedCount() {
+        return committedRows;
+    }
+
     /**
      * Begin transaction
      */
     public void begin() {
-        if (useTransaction)
+        if (transaction == null && useTransaction)
             database.beginTransaction();
-        sqLiteStatement = database.compileStatement(getQuery());
+        sqLiteStatement = openStatement(getQuery());
+    }
+
+    /**
+     * Get other statement of this bulk, such as insert into JSON index table.
+     * Statement is opened on first use and released on end
+     * @param query
+     * @return compiled statement
+     */
+    protected SQLiteStatement getStatement(String query) {
+        SQLiteStatement statement = statements.get(query);
+        if (statement == null) {
+            statement = openStatement(query);
+            statements.put(query, statement);
+        }
+        return statement;
+    }
+
+    private SQLiteStatement openStatement(String query) {
+        if (transaction != null) return transaction.getStatement(query);
+        if (statementCache != null) return statementCache.acquire(query);
+        return database.compileStatement(query);
+    }
+
+    private void closeStatement(String query, SQLiteStatement statement) {
+        if (statementCache != null) {
+            statementCache.release(query, statement);
+        } else {
+            statement.close();
+        }
+    }
+
+    /**
+     * Insert values extracted from JSON columns of inserted object to JSON index tables.
+     * Must be called after the row is inserted
+     * @param object
+     * @param rowId row id of inserted row
+     * @throws LiteDatabaseException
+     */
+    protected void indexJson(T object, long rowId) throws LiteDatabaseException {
+        if (tableMeta.getJsonIndexes().isEmpty()) return;
+        if (tableMeta.getDocTable() == null) {
+            indexJsonValues(object, rowId);
+            return;
+        }
+        // Row of WITHOUT ROWID table is indexed by doc id of its primary key
+        final SQLiteStatement insertDoc = getStatement(tableMeta.getInsertDocQuery());
+        bindObject(insertDoc, object, tableMeta.getPrimaryKey(), 1);
+        insertDoc.execute();
+        insertDoc.clearBindings();
+        final Long docId = findDocId(getKeyValues(object));
+        if (docId != null) indexJsonValues(object, docId);
+    }
+
+    /**
+     * Index JSON columns of updated object again.
+     * Old values are removed by update trigger, which also marks the row in pending table. The mark is cleared
+     * @param object
+     * @throws LiteDatabaseException
+     */
+    protected void reindexJson(T object) throws LiteDatabaseException {
+        reindexJson(object, getKeyValues(object));
+    }
+
+    /**
+     * Index JSON columns of object again, for row of given primary key
+     * @param object
+     * @param primaryKeys values of primary key columns
+     * @throws LiteDatabaseException
+     */
+    protected void reindexJson(T object, Object[] primaryKeys) throws LiteDatabaseException {
+        if (tableMeta.getJsonIndexes().isEmpty()) return;
+        final Long docId = findDocId(primaryKeys);
+        // Row is not found, nothing is updated
+        if (docId == null) return;
+        indexJsonValues(object, docId);
+        final SQLiteStatement pending = getStatement(LiteJsonIndexMeta.DELETE_PENDING_QUERY);
+        for (LiteJsonIndexMeta jsonIndexMeta : tableMeta.getJsonIndexes()) {
+            pending.bindString(1, jsonIndexMeta.getTableName());
+            pending.bindLong(2, docId);
+            pending.execute();
+            pending.clearBindings();
+        }
+    }
+
+    /**
+     * Find row id, or doc id of WITHOUT ROWID table, by primary key
+     * @param primaryKeys values of primary key columns
+     * @return doc id, null if not found
+     * @throws LiteDatabaseException
+     */
+    private Long findDocId(Object[] primaryKeys) throws LiteDatabaseException {
+        final SQLiteStatement statement = getStatement(tableMeta.getSelectRowIdQuery());
+        bindKeys(statement, primaryKeys, 1);
+        try {
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return null;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    private void indexJsonValues(T object, long docId) throws LiteDatabaseException {
+        for (LiteJsonIndexMeta jsonIndexMeta : tableMeta.getJsonIndexes()) {
+            final Object value;
+            try {
+                value = tableMeta.getColumns().get(jsonIndexMeta.getFieldName()).getValue(object);
+            } catch (IllegalAccessException e) {
+                throw new LiteDatabaseException("could not get field value", e);
+            }
+            if (value == null) continue;
+            final Object tree = LiteJson.toTree(value);
+            final SQLiteStatement statement = getStatement(jsonIndexMeta.getInsertQuery());
+            for (String path : jsonIndexMeta.getPaths()) {
+                for (Object extracted : LiteJson.extract(tree, path)) {
+                    statement.bindString(1, path);
+                    LiteBaseDao.bindArg(statement, 2, extracted);
+                    statement.bindLong(3, docId);
+                    statement.executeInsert();
+                    statement.clearBindings();
+                }
+            }
+        }
     }
 
     /**
@@ -119,6 +362,19 @@ public abstract class AbstractBulk<T> {
      * @throws LiteDatabaseException
      */
     protected void bindObject(T object, String fieldName, int index) throws LiteDatabaseException {
+        bindObject(sqLiteStatement, object, fieldName, index);
+    }
+
+    /**
+     * Bind object data to other statement of this bulk
+     * @param statement
+     * @param object
+     * @param fieldName
+     * @param index
+     * @throws LiteDatabaseException
+     */
+    protected void bindObject(SQLiteStatement statement, T object, String fieldName, int index)
+            throws LiteDatabaseException {
         final LiteColumnMeta meta = tableMeta.getColumns().get(fieldName);
         final String defaultValue = meta.getDefaultValue();
         final Field field = meta.getField();
@@ -132,16 +388,67 @@ public abstract class AbstractBulk<T> {
         if (!"".equals(defaultValue)) {
             fieldValue = defaultValue;
         }
+        bindValue(statement, fieldName, fieldValue, index);
+    }
+
+    /**
+     * Get values of primary key fields of object
+     * @param object
+     * @return values of primary key columns
+     * @throws LiteDatabaseException
+     */
+    protected Object[] getKeyValues(T object) throws LiteDatabaseException {
+        final String[] primaryKeys = tableMeta.getPrimaryKeys();
+        final Object[] values = new Object[primaryKeys.length];
+        for (int i = 0; i < primaryKeys.length; i++) {
+            try {
+                values[i] = tableMeta.getColumns().get(primaryKeys[i]).getValue(object);
+            } catch (IllegalAccessException e) {
+                throw new LiteDatabaseException("could not get field value", e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Bind values of primary key fields to statement
+     * @param statement
+     * @param primaryKeys values of primary key columns
+     * @param index index of the first key
+     * @return index after the last key
+     * @throws LiteDatabaseException
+     */
+    protected int bindKeys(SQLiteStatement statement, Object[] primaryKeys, int index)
+            throws LiteDatabaseException {
+        final String[] fieldNames = tableMeta.getPrimaryKeys();
+        for (int i = 0; i < fieldNames.length; i++) {
+            bindValue(statement, fieldNames[i], primaryKeys[i], index++);
+        }
+        return index;
+    }
+
+    /**
+     * Bind field value to statement, converted by field type
+     * @param statement
+     * @param fieldName
+     * @param fieldValue
+     * @param index
+     * @throws LiteDatabaseException
+     */
+    protected void bindValue(SQLiteStatement statement, String fieldName, Object fieldValue, int index)
+            throws LiteDatabaseException {
+        final LiteColumnMeta meta = tableMeta.getColumns().get(fieldName);
         if (fieldValue == null) {
-            sqLiteStatement.bindNull(index);
+            statement.bindNull(index);
         } else {
+            pendingBytes += estimateSize(fieldValue);
             switch (meta.getFieldType()) {
                 case BOOLEAN:
-                    sqLiteStatement.bindLong(index,
+                    statement.bindLong(index,
                             (Boolean.parseBoolean(fieldValue.toString()) ? 1 : 0));
                     break;
                 case BYTE:
-                    sqLiteStatement.bindLong(index,
+                    statement.bindLong(index,
                             Byte.valueOf(fieldValue.toString()));
                     break;
                 case SERIALIZABLE:
@@ -153,7 +460,7 @@ public abstract class AbstractBulk<T> {
                         objectOutputStream = new ObjectOutputStream(
                                 outputStream);
                         objectOutputStream.writeObject(fieldValue);
-                        sqLiteStatement.bindBlob(index, outputStream.toByteArray());
+                        statement.bindBlob(index, outputStream.toByteArray());
                         objectOutputStream.flush();
                         outputStream.flush();
                     } catch (IOException e) {
@@ -176,10 +483,10 @@ public abstract class AbstractBulk<T> {
                 case DATE:
                     switch (meta.getDateColumnType()) {
                         case TEXT:
-                            sqLiteStatement.bindString(index, sdfDateValue.format((Date) fieldValue));
+                            statement.bindString(index, sdfDateValue.format((Date) fieldValue));
                             break;
                         case INTEGER:
-                            sqLiteStatement.bindLong(index, ((Date) fieldValue).getTime());
+                            statement.bindLong(index, ((Date) fieldValue).getTime());
                             break;
                         default:
                             throw new LiteDatabaseException("Invalid date column type " + meta.getDateColumnType().toString()
@@ -187,30 +494,87 @@ public abstract class AbstractBulk<T> {
                     }
                     break;
                 case DOUBLE:
-                    sqLiteStatement.bindDouble(index, Double.parseDouble(fieldValue.toString()));
+                    statement.bindDouble(index, Double.parseDouble(fieldValue.toString()));
                     break;
                 case FLOAT:
-                    sqLiteStatement.bindDouble(index, Float.parseFloat(fieldValue.toString()));
+                    statement.bindDouble(index, Float.parseFloat(fieldValue.toString()));
                     break;
                 case INTEGER:
-                    sqLiteStatement.bindLong(index, Integer.parseInt(fieldValue.toString()));
+                    statement.bindLong(index, Integer.parseInt(fieldValue.toString()));
                     break;
                 case LONG:
-                    sqLiteStatement.bindLong(index, Long.parseLong(fieldValue.toString()));
+                    statement.bindLong(index, Long.parseLong(fieldValue.toString()));
                     break;
                 case SHORT:
-                    sqLiteStatement.bindLong(index, Short.parseShort(fieldValue.toString()));
+                    statement.bindLong(index, Short.parseShort(fieldValue.toString()));
                     break;
                 case STRING:
-                    sqLiteStatement.bindString(index, fieldValue.toString());
+                    statement.bindString(index, fieldValue.toString());
+                    break;
+                case JSON:
+                    statement.bindString(index, LiteJson.toJson(fieldValue));
                     break;
                 default:
-                    sqLiteStatement.bindNull(index);
+                    statement.bindNull(index);
                     break;
             }
         }
     }
 
+    /**
+     * Estimated size of bound value
+     * @param value
+     * @return size in bytes
+     */
+    private static long estimateSize(Object value) {
+        if (value instanceof String) return ((String) value).length();
+        if (value instanceof byte[]) return ((byte[]) value).length;
+        return 8;
+    }
+
+    /**
+     * Execute UPDATE or DELETE statement.
+     * SQLiteStatement.executeUpdateDelete is API level 11. Below it the database has a single connection,
+     * so changes() read right after the statement counts its rows
+     * @param statement
+     * @return the number of rows affected
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    protected int executeUpdateDelete(SQLiteStatement statement) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) return statement.executeUpdateDelete();
+        statement.execute();
+        return (int) getStatement("SELECT changes()").simpleQueryForLong();
+    }
+
+    /**
+     * Must be called after each row is executed.
+     * Commit current chunk if it is full, or yield it to waiting thread
+     */
+    protected void completeRow() {
+        pendingRows++;
+        if (transaction != null || !useTransaction) return;
+        if (chunkRows <= 0 && chunkBytes <= 0) return;
+        if ((chunkRows > 0 && pendingRows >= chunkRows)
+                || (chunkBytes > 0 && pendingBytes >= chunkBytes)) {
+            database.setTransactionSuccessful();
+            database.endTransaction();
+            commitPending();
+            database.beginTransaction();
+        } else if (database.yieldIfContendedSafely()) {
+            // Rows so far are committed by the yield
+            commitPending();
+        }
+    }
+
+    private void commitPending() {
+        committedRows += pendingRows;
+        committedBytes += pendingBytes;
+        pendingRows = 0;
+        pendingBytes = 0;
+        if (progressListener != null)
+            progressListener.onChunkCommitted(committedRows, committedBytes);
+    }
+
     /**
      *
      * @param list
@@ -218,12 +582,30 @@ public abstract class AbstractBulk<T> {
      * @throws LiteDatabaseException
      */
     public long[] execute(Collection<T> list) throws LiteDatabaseException {
-        if (list == null || list.size() == 0) return new long[]{};
-        long[] ids = new long[list.size()];
+        return execute(list, 0);
+    }
+
+    /**
+     * Resume the run from checkpoint. Skip all rows before checkpoint
+     * @param list
+     * @param checkpoint number of rows committed by previous run
+     * @return array of object id or number of updating data of executed rows
+     * @throws LiteDatabaseException
+     */
+    public long[] execute(Collection<T> list, long checkpoint) throws LiteDatabaseException {
+        if (list == null || list.size() <= checkpoint) return new long[]{};
+        long[] ids = new long[(int) (list.size() - checkpoint)];
         int count = 0;
+        long skip = checkpoint;
+        committedRows = Math.max(committedRows, checkpoint);
         Iterator<T> iterator = list.iterator();
         while (iterator.hasNext()) {
-            ids[count++] = execute(iterator.next());
+            T object = iterator.next();
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            ids[count++] = execute(object);
         }
         return ids;
     }
@@ -254,6 +636,7 @@ public abstract class AbstractBulk<T> {
      * Set transaction successful
      */
     public void success() {
+        successful = true;
         if (useTransaction)
             database.setTransactionSuccessful();
     }
@@ -262,7 +645,21 @@ public abstract class AbstractBulk<T> {
      * End transaction
      */
     public void end() {
-        if(useTransaction)
+        if (transaction != null) {
+            statements.clear();
+            return;
+        }
+        if (sqLiteStatement != null) {
+            closeStatement(getQuery(), sqLiteStatement);
+            sqLiteStatement = null;
+        }
+        for (Map.Entry<String, SQLiteStatement> statement : statements.entrySet()) {
+            closeStatement(statement.getKey(), statement.getValue());
+        }
+        statements.clear();
+        if(useTransaction) {
             database.endTransaction();
+            if (successful && pendingRows > 0) commitPending();
+        }
     }
 }
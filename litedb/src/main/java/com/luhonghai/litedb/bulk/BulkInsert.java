@@ -28,6 +28,8 @@ package com.luhonghai.litedb.bulk;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import com.luhonghai.litedb.LiteStatementCache;
+import com.luhonghai.litedb.LiteTransaction;
 import com.luhonghai.litedb.exception.LiteDatabaseException;
 import com.luhonghai.litedb.meta.LiteTableMeta;
 
@@ -49,6 +51,15 @@ public class BulkInsert<T> extends AbstractBulk<T> {
         super(database, tableMeta, useTransaction);
     }
 
+    public BulkInsert(SQLiteDatabase database, LiteTableMeta tableMeta, boolean useTransaction,
+                      LiteStatementCache statementCache) {
+        super(database, tableMeta, useTransaction, statementCache);
+    }
+
+    public BulkInsert(LiteTransaction transaction, LiteTableMeta tableMeta) {
+        super(transaction, tableMeta);
+    }
+
     @Override
     protected String getQuery() {
         return getTableMeta().getInsertQuery();
@@ -62,8 +73,13 @@ public class BulkInsert<T> extends AbstractBulk<T> {
             final String fieldName = fields[i];
             bindObject(object, fieldName, index);
         }
+        if (getTableMeta().getHashColumn() != null) {
+            getSqLiteStatement().bindLong(fields.length + 1, ContentHash.hash(getTableMeta(), object));
+        }
         long rowId = getSqLiteStatement().executeInsert();
         getSqLiteStatement().clearBindings();
+        indexJson(object, rowId);
+        completeRow();
         return rowId;
     }
 }
@@ -0,0 +1,348 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb.bulk;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.luhonghai.litedb.LiteBaseDao;
+import com.luhonghai.litedb.LiteJson;
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streaming import of a JSON array of objects.
+ *
+ * One thread reads the array element by element and maps each element to the entity
+ * by field name, column name or alias. The calling thread takes mapped objects from a bounded
+ * queue and inserts them with BulkInsert, committing every batch. Memory stays constant
+ * regardless of the input size and parsing overlaps with SQLite writes.
+ *
+ * Require API level 11 (android.util.JsonReader)
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class BulkJsonImport<T> {
+
+    private static final String TAG = "BulkJsonImport";
+
+    /**
+     * Default number of rows per transaction
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Default number of parsed objects waiting for insertion
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * Mark the end of parsed objects
+     */
+    private static final Object END = new Object();
+
+    private final LiteBaseDao<T> dao;
+
+    private final int batchSize;
+
+    private final int queueSize;
+
+    private final SimpleDateFormat sdfDateValue;
+
+    private AbstractBulk.ProgressListener progressListener;
+
+    /**
+     * Parser error. Set by parser thread
+     */
+    private volatile Throwable parseError;
+
+    public BulkJsonImport(LiteBaseDao<T> dao) {
+        this(dao, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param dao
+     * @param batchSize number of rows per transaction
+     * @param queueSize number of parsed objects waiting for insertion
+     */
+    public BulkJsonImport(LiteBaseDao<T> dao, int batchSize, int queueSize) {
+        this.dao = dao;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+        this.sdfDateValue = new SimpleDateFormat(LiteBaseDao.DEFAULT_DATE_FORMAT, Locale.getDefault());
+        this.sdfDateValue.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Set listener for watch committed batches
+     * @param progressListener
+     */
+    public void setProgressListener(AbstractBulk.ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Import JSON array from input stream. Stream is read as UTF-8 and is not closed.
+     * Require API level 11
+     * @param inputStream
+     * @return number of imported rows
+     * @throws LiteDatabaseException if API level is lower than 11 or import failed
+     */
+    public long execute(final InputStream inputStream) throws LiteDatabaseException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB)
+            throw new LiteDatabaseException("JSON import requires API level 11 (android.util.JsonReader). Current API level is "
+                    + Build.VERSION.SDK_INT);
+        final Map<String, LiteColumnMeta> columns = getColumnNames(dao.getTableMeta());
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(queueSize);
+        parseError = null;
+        final Thread parser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                parse(inputStream, columns, queue);
+            }
+        }, TAG);
+        parser.start();
+        long count = 0;
+        boolean finished = false;
+        final BulkInsert<T> bulkInsert = dao.newBulkInsert(true);
+        bulkInsert.setChunkSize(batchSize, 0);
+        bulkInsert.setProgressListener(progressListener);
+        bulkInsert.begin();
+        try {
+            while (true) {
+                Object item = queue.take();
+                if (item == END) break;
+                @SuppressWarnings("unchecked")
+                T object = (T) item;
+                bulkInsert.execute(object);
+                count++;
+            }
+            if (parseError != null)
+                throw new LiteDatabaseException("Could not parse JSON data", parseError);
+            bulkInsert.success();
+            finished = true;
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LiteDatabaseException("Interrupted while importing JSON data", e);
+        } finally {
+            bulkInsert.end();
+            if (!finished) parser.interrupt();
+        }
+    }
+
+    /**
+     * Map JSON names to column meta. Accept field name, column name and alias
+     * @param tableMeta
+     * @return column meta by JSON name
+     */
+    private static Map<String, LiteColumnMeta> getColumnNames(LiteTableMeta tableMeta) {
+        Map<String, LiteColumnMeta> names = new HashMap<String, LiteColumnMeta>();
+        for (LiteColumnMeta columnMeta : tableMeta.getColumns().values()) {
+            names.put(columnMeta.getColumnName(), columnMeta);
+            if (!"".equals(columnMeta.getAlias()))
+                names.put(columnMeta.getAlias(), columnMeta);
+        }
+        for (Map.Entry<String, LiteColumnMeta> entry : tableMeta.getColumns().entrySet()) {
+            names.put(entry.getKey(), entry.getValue());
+        }
+        return names;
+    }
+
+    /**
+     * Parser thread. Read the array and put mapped objects to the queue
+     * @param inputStream
+     * @param columns
+     * @param queue
+     */
+    private void parse(InputStream inputStream, Map<String, LiteColumnMeta> columns,
+                       BlockingQueue<Object> queue) {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+            reader.beginArray();
+            while (reader.hasNext()) {
+                queue.put(readObject(reader, columns));
+            }
+            reader.endArray();
+        } catch (InterruptedException e) {
+            return;
+        } catch (Throwable e) {
+            parseError = e;
+        }
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // Importer is stopped
+        }
+    }
+
+    /**
+     * Read one JSON object to new entity
+     * @param reader
+     * @param columns
+     * @return entity
+     * @throws IOException
+     * @throws LiteDatabaseException
+     */
+    private T readObject(JsonReader reader, Map<String, LiteColumnMeta> columns)
+            throws IOException, LiteDatabaseException {
+        final T object = dao.newInstance();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final LiteColumnMeta columnMeta = columns.get(reader.nextName());
+            if (columnMeta == null || reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            final Object value = readValue(reader, columnMeta);
+            if (value == null) continue;
+            try {
+                columnMeta.getField().set(object, value);
+            } catch (IllegalAccessException e) {
+                throw new LiteDatabaseException("Could not set value to object field from JSON", e);
+            }
+        }
+        reader.endObject();
+        return object;
+    }
+
+    /**
+     * Read JSON value that matches the field type
+     * @param reader
+     * @param columnMeta
+     * @return field value or null if JSON value is skipped
+     * @throws IOException
+     * @throws LiteDatabaseException
+     */
+    private Object readValue(JsonReader reader, LiteColumnMeta columnMeta)
+            throws IOException, LiteDatabaseException {
+        final JsonToken token = reader.peek();
+        switch (columnMeta.getFieldType()) {
+            case LONG:
+                return reader.nextLong();
+            case INTEGER:
+                return reader.nextInt();
+            case SHORT:
+                return (short) reader.nextInt();
+            case BYTE:
+                return (byte) reader.nextInt();
+            case DOUBLE:
+                return reader.nextDouble();
+            case FLOAT:
+                return (float) reader.nextDouble();
+            case BOOLEAN:
+                if (token == JsonToken.BOOLEAN) return reader.nextBoolean();
+                if (token == JsonToken.NUMBER) return reader.nextInt() != 0;
+                if (token == JsonToken.STRING) return Boolean.parseBoolean(reader.nextString());
+                break;
+            case STRING:
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) return reader.nextString();
+                if (token == JsonToken.BOOLEAN) return String.valueOf(reader.nextBoolean());
+                break;
+            case DATE:
+                if (token == JsonToken.NUMBER) return new Date(reader.nextLong());
+                if (token == JsonToken.STRING) {
+                    try {
+                        return sdfDateValue.parse(reader.nextString());
+                    } catch (ParseException e) {
+                        return null;
+                    }
+                }
+                break;
+            case JSON:
+                if (token == JsonToken.BEGIN_ARRAY || token == JsonToken.BEGIN_OBJECT) {
+                    return LiteJson.fromTree(readTree(reader), columnMeta.getField().getType());
+                }
+                break;
+            default:
+                break;
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * Read JSON value to tree of List, Map and scalar values, same as LiteJson
+     * @param reader
+     * @return tree
+     * @throws IOException
+     */
+    private static Object readTree(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                final List<Object> list = new ArrayList<Object>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    list.add(readTree(reader));
+                }
+                reader.endArray();
+                return list;
+            case BEGIN_OBJECT:
+                final Map<String, Object> map = new LinkedHashMap<String, Object>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    map.put(name, readTree(reader));
+                }
+                reader.endObject();
+                return map;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                final String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case BOOLEAN:
+                return reader.nextBoolean();
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+}
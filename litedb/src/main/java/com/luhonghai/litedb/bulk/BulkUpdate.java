@@ -28,6 +28,8 @@ package com.luhonghai.litedb.bulk;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import com.luhonghai.litedb.LiteStatementCache;
+import com.luhonghai.litedb.LiteTransaction;
 import com.luhonghai.litedb.exception.LiteDatabaseException;
 import com.luhonghai.litedb.meta.LiteTableMeta;
 
@@ -48,6 +50,15 @@ public class BulkUpdate<T> extends AbstractBulk<T> {
         super(database, tableMeta, useTransaction);
     }
 
+    public BulkUpdate(SQLiteDatabase database, LiteTableMeta tableMeta, boolean useTransaction,
+                      LiteStatementCache statementCache) {
+        super(database, tableMeta, useTransaction, statementCache);
+    }
+
+    public BulkUpdate(LiteTransaction transaction, LiteTableMeta tableMeta) {
+        super(transaction, tableMeta);
+    }
+
     @Override
     protected String getQuery() {
         return getTableMeta().getUpdateQuery();
@@ -55,15 +66,32 @@ public class BulkUpdate<T> extends AbstractBulk<T> {
 
     @Override
     public long execute(T object) throws LiteDatabaseException {
+        return execute(object, getKeyValues(object));
+    }
+
+    /**
+     * Update row of given primary key with values of object. Primary key fields of object are not used
+     * @param object
+     * @param primaryKeys values of primary key columns
+     * @return 1
+     * @throws LiteDatabaseException
+     */
+    public long execute(T object, Object[] primaryKeys) throws LiteDatabaseException {
         final String[] fields = getTableMeta().getUpdateFields();
         for (int i = 0; i < fields.length; i++) {
             int index = i + 1;
             final String fieldName = fields[i];
             bindObject(object, fieldName, index);
         }
-        bindObject(object, getTableMeta().getPrimaryKey(), fields.length + 1);
+        int keyIndex = fields.length + 1;
+        if (getTableMeta().getHashColumn() != null) {
+            getSqLiteStatement().bindLong(keyIndex++, ContentHash.hash(getTableMeta(), object));
+        }
+        bindKeys(getSqLiteStatement(), primaryKeys, keyIndex);
         getSqLiteStatement().execute();
         getSqLiteStatement().clearBindings();
+        reindexJson(object, primaryKeys);
+        completeRow();
         return 1;
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb.bulk;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.luhonghai.litedb.LiteStatementCache;
+import com.luhonghai.litedb.LiteTransaction;
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
+/**
+ * Insert or update objects by primary key.
+ *
+ * The row is updated in place by primary key, so it is never deleted and no delete trigger fires.
+ * The object is inserted only when no row is updated, a conflict on other unique index fails
+ * as a plain insert does.
+ * Autoincrement primary key with value 0 is bound as null, so a new key is generated.
+ */
+public class BulkUpsert<T> extends AbstractBulk<T> {
+
+    private String findQuery;
+
+    public BulkUpsert(SQLiteDatabase database, LiteTableMeta tableMeta) {
+        super(database, tableMeta);
+    }
+
+    public BulkUpsert(SQLiteDatabase database, LiteTableMeta tableMeta, boolean useTransaction) {
+        super(database, tableMeta, useTransaction);
+    }
+
+    public BulkUpsert(SQLiteDatabase database, LiteTableMeta tableMeta, boolean useTransaction,
+                      LiteStatementCache statementCache) {
+        super(database, tableMeta, useTransaction, statementCache);
+    }
+
+    public BulkUpsert(LiteTransaction transaction, LiteTableMeta tableMeta) {
+        super(transaction, tableMeta);
+    }
+
+    @Override
+    protected String getQuery() {
+        return getTableMeta().getUpsertQuery();
+    }
+
+    /**
+     * Update row by primary key, insert the object if no row is updated
+     * @param object
+     * @return 1 if the object is inserted, 0 if an existing row is updated
+     * @throws LiteDatabaseException
+     */
+    @Override
+    public long execute(T object) throws LiteDatabaseException {
+        final String[] fields = getTableMeta().getUpsertFields();
+        boolean newKey = false;
+        for (String fieldName : fields) {
+            final LiteColumnMeta columnMeta = getTableMeta().getColumns().get(fieldName);
+            if (columnMeta.isAutoincrement() && isNewKey(columnMeta, object)) newKey = true;
+        }
+        if (!newKey && update(object)) {
+            reindexJson(object);
+            completeRow();
+            return 0;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            int index = i + 1;
+            final String fieldName = fields[i];
+            final LiteColumnMeta columnMeta = getTableMeta().getColumns().get(fieldName);
+            if (columnMeta.isAutoincrement() && isNewKey(columnMeta, object)) {
+                getSqLiteStatement().bindNull(index);
+            } else {
+                bindObject(object, fieldName, index);
+            }
+        }
+        if (getTableMeta().getHashColumn() != null) {
+            getSqLiteStatement().bindLong(fields.length + 1, ContentHash.hash(getTableMeta(), object));
+        }
+        long rowId = getSqLiteStatement().executeInsert();
+        getSqLiteStatement().clearBindings();
+        indexJson(object, rowId);
+        completeRow();
+        return 1;
+    }
+
+    /**
+     * Update values of existing row by primary key.
+     * Table with primary key columns only has nothing to update, the row is looked up instead
+     * @param object
+     * @return true if the row exists
+     * @throws LiteDatabaseException
+     */
+    private boolean update(T object) throws LiteDatabaseException {
+        final String[] fields = getTableMeta().getUpdateFields();
+        final boolean keyOnly = fields.length == 0 && getTableMeta().getHashColumn() == null;
+        if (keyOnly && findQuery == null) {
+            findQuery = "SELECT count(*) FROM [" + getTableMeta().getTableName() + "] WHERE "
+                    + getTableMeta().getKeyCondition();
+        }
+        final SQLiteStatement statement = getStatement(keyOnly ? findQuery : getTableMeta().getUpdateQuery());
+        int index = 1;
+        if (!keyOnly) {
+            for (String fieldName : fields) {
+                bindObject(statement, object, fieldName, index++);
+            }
+            if (getTableMeta().getHashColumn() != null) {
+                statement.bindLong(index++, ContentHash.hash(getTableMeta(), object));
+            }
+        }
+        for (String primaryKey : getTableMeta().getPrimaryKeys()) {
+            bindObject(statement, object, primaryKey, index++);
+        }
+        try {
+            return keyOnly ? statement.simpleQueryForLong() > 0 : executeUpdateDelete(statement) > 0;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    private boolean isNewKey(LiteColumnMeta columnMeta, T object) throws LiteDatabaseException {
+        try {
+            final Object value = columnMeta.getValue(object);
+            return value == null || ((Number) value).longValue() == 0;
+        } catch (IllegalAccessException e) {
+            throw new LiteDatabaseException("could not get field value", e);
+        }
+    }
+}
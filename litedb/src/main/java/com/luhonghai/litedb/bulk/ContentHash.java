@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb.bulk;
+
+import com.luhonghai.litedb.LiteFieldType;
+import com.luhonghai.litedb.LiteJson;
+import com.luhonghai.litedb.exception.LiteDatabaseException;
+import com.luhonghai.litedb.meta.LiteColumnMeta;
+import com.luhonghai.litedb.meta.LiteTableMeta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 64-bit FNV-1a hash of the row content.
+ *
+ * Hash all fields that are written by bulk update, in field name order,
+ * with the same values that are bound to the statement.
+ */
+public final class ContentHash {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private ContentHash() {
+    }
+
+    /**
+     * Get content hash of object
+     * @param tableMeta
+     * @param object
+     * @return hash of all content fields
+     * @throws LiteDatabaseException
+     */
+    public static long hash(LiteTableMeta tableMeta, Object object) throws LiteDatabaseException {
+        long hash = OFFSET_BASIS;
+        for (String fieldName : tableMeta.getHashFields()) {
+            final LiteColumnMeta meta = tableMeta.getColumns().get(fieldName);
+            Object value;
+            try {
+                value = meta.getValue(object);
+            } catch (IllegalAccessException e) {
+                throw new LiteDatabaseException("could not get field value", e);
+            }
+            if (!"".equals(meta.getDefaultValue())) {
+                value = meta.getDefaultValue();
+            } else if (meta.getFieldType() == LiteFieldType.JSON) {
+                value = LiteJson.toJson(value);
+            }
+            hash = hashValue(hash, value);
+        }
+        return hash;
+    }
+
+    /**
+     * Get hash of texts, in order
+     * @param texts
+     * @return hash of all texts
+     * @throws LiteDatabaseException
+     */
+    public static long hash(List<String> texts) throws LiteDatabaseException {
+        long hash = OFFSET_BASIS;
+        for (String text : texts) {
+            hash = hashValue(hash, text);
+        }
+        return hash;
+    }
+
+    private static long hashValue(long hash, Object value) throws LiteDatabaseException {
+        if (value == null) {
+            return hashByte(hash, 0);
+        }
+        if (value instanceof String) {
+            hash = hashByte(hash, 1);
+            String text = (String) value;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                hash = hashByte(hash, c >>> 8);
+                hash = hashByte(hash, c);
+            }
+            return hashByte(hash, 0xff);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            hash = hashByte(hash, 2);
+            return hashLong(hash, Double.doubleToLongBits(((Number) value).doubleValue()));
+        }
+        if (value instanceof Number) {
+            hash = hashByte(hash, 3);
+            return hashLong(hash, ((Number) value).longValue());
+        }
+        if (value instanceof Boolean) {
+            hash = hashByte(hash, 3);
+            return hashLong(hash, (Boolean) value ? 1 : 0);
+        }
+        if (value instanceof Date) {
+            hash = hashByte(hash, 4);
+            return hashLong(hash, ((Date) value).getTime());
+        }
+        byte[] data;
+        if (value instanceof byte[]) {
+            data = (byte[]) value;
+        } else {
+            data = serialize(value);
+        }
+        hash = hashByte(hash, 5);
+        hash = hashLong(hash, data.length);
+        for (byte b : data) {
+            hash = hashByte(hash, b);
+        }
+        return hash;
+    }
+
+    private static long hashLong(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = hashByte(hash, (int) (value >>> (i * 8)));
+        }
+        return hash;
+    }
+
+    private static long hashByte(long hash, int b) {
+        hash ^= (b & 0xff);
+        return hash * PRIME;
+    }
+
+    private static byte[] serialize(Object value) throws LiteDatabaseException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = null;
+        try {
+            objectOutputStream = new ObjectOutputStream(outputStream);
+            objectOutputStream.writeObject(value);
+            objectOutputStream.flush();
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new LiteDatabaseException("could not hash object data", e);
+        } finally {
+            if (objectOutputStream != null) {
+                try {
+                    objectOutputStream.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Hai Lu @ luhonghai.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ */
+
+package com.luhonghai.litedb.meta;
+
+/**
+ * Index meta data of values extracted from JSON column
+ */
+public class LiteJsonIndexMeta {
+
+    /**
+     * Prefix of JSON index table name
+     */
+    public static final String TABLE_PREFIX = "lite_json_";
+
+    /**
+     * Rows whose JSON column is updated outside of bulk writes, waiting to be indexed again.
+     * Rows are added by update trigger
+     */
+    public static final String PENDING_TABLE = "lite_json_pending";
+
+    /**
+     * Raw query to create pending table
+     */
+    public static final String CREATE_PENDING_QUERY = "CREATE TABLE IF NOT EXISTS [" + PENDING_TABLE + "]"
+            + " ([index_table] TEXT NOT NULL, [doc] INTEGER NOT NULL, PRIMARY KEY ([index_table], [doc]))";
+
+    /**
+     * Raw query to remove pending row of index table and row id
+     */
+    public static final String DELETE_PENDING_QUERY = "DELETE FROM [" + PENDING_TABLE + "]"
+            + " WHERE [index_table] = ? AND [doc] = ?";
+
+    /**
+     * Field name of JSON column
+     */
+    private String fieldName;
+
+    /**
+     * JSON column name
+     */
+    private String columnName;
+
+    /**
+     * Index table name: lite_json_[table]_[column]
+     */
+    private String tableName;
+
+    /**
+     * Indexed paths
+     */
+    private String[] paths;
+
+    /**
+     * Raw query to create index table. Same as the query is stored in sqlite_master
+     */
+    private String createQuery;
+
+    /**
+     * Raw queries to create indexes of index table
+     */
+    private String[] createIndexQueries;
+
+    /**
+     * Names of triggers that remove values of updated or deleted rows.
+     * Updated rows are marked in pending table to be indexed again
+     */
+    private String[] triggerNames;
+
+    /**
+     * Raw queries to create triggers
+     */
+    private String[] triggerQueries;
+
+    /**
+     * Raw query to insert extracted value
+     */
+    private String insertQuery;
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public void setFieldName(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    public void setColumnName(String columnName) {
+        this.columnName = columnName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public String[] getPaths() {
+        return paths;
+    }
+
+    public void setPaths(String[] paths) {
+        this.paths = paths;
+    }
+
+    public String getCreateQuery() {
+        return createQuery;
+    }
+
+    public void setCreateQuery(String createQuery) {
+        this.createQuery = createQuery;
+    }
+
+    public String[] getCreateIndexQueries() {
+        return createIndexQueries;
+    }
+
+    public void setCreateIndexQueries(String[] createIndexQueries) {
+        this.createIndexQueries = createIndexQueries;
+    }
+
+    public String[] getTriggerNames() {
+        return triggerNames;
+    }
+
+    public void setTriggerNames(String[] triggerNames) {
+        this.triggerNames = triggerNames;
+    }
+
+    public String[] getTriggerQueries() {
+        return triggerQueries;
+    }
+
+    public void setTriggerQueries(String[] triggerQueries) {
+        this.triggerQueries = triggerQueries;
+    }
+
+    public String getInsertQuery() {
+        return insertQuery;
+    }
+
+    public void setInsertQuery(String insertQuery) {
+        this.insertQuery = insertQuery;
+    }
+
+    /**
+     * Check path is indexed
+     * @param path
+     * @return true if path is one of indexed paths
+     */
+    public boolean hasPath(String path) {
+        for (String indexedPath : paths) {
+            if (indexedPath.equals(path)) return true;
+        }
+        return false;
+    }
+}
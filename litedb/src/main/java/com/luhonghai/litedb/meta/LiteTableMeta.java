@@ -27,12 +27,37 @@
 package com.luhonghai.litedb.meta;
 
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Created by luhonghai on 9/10/15.
  * Table meta data save for quick access
  */
 public class LiteTableMeta {
+    /**
+     * Hidden column to store hash of row content
+     */
+    public static final String CONTENT_HASH_COLUMN = "_lite_hash";
+    /**
+     * Prefix of trigger name that clears content hash of rows changed without it
+     */
+    public static final String HASH_TRIGGER_PREFIX = "lite_hash_";
+    /**
+     * Table of row counters that are maintained by triggers
+     */
+    public static final String COUNT_TABLE = "lite_counts";
+    /**
+     * Key-value table of library metadata, such as schema fingerprint
+     */
+    public static final String META_TABLE = "lite_meta";
+    /**
+     * Prefix of full-text table name
+     */
+    public static final String FULL_TEXT_PREFIX = "lite_fts_";
+    /**
+     * Prefix of doc table name
+     */
+    public static final String DOC_TABLE_PREFIX = "lite_doc_";
     /**
      * Table name
      */
@@ -47,9 +72,29 @@ public class LiteTableMeta {
     private String updateQuery;
 
     /**
-     * Primary key name
+     * Raw query to select all columns, without condition
+     */
+    private String selectQuery;
+
+    /**
+     * Raw query to select object by primary key
+     */
+    private String selectByKeyQuery;
+
+    /**
+     * Condition to match row by primary key, such as [a] = ? AND [b] = ?
+     */
+    private String keyCondition;
+
+    /**
+     * Primary key name. First key field of composite primary key
      */
     private String primaryKey;
+
+    /**
+     * Field names of primary key, in key order
+     */
+    private String[] primaryKeys;
     /**
      * Fields to insert to database
      * Not include autoincrement field
@@ -73,6 +118,88 @@ public class LiteTableMeta {
 
     private String[] selectFields;
 
+    /**
+     * Hash column name. Null if content hash is not maintained
+     */
+    private String hashColumn;
+
+    /**
+     * Fields included in content hash, sorted by name
+     */
+    private String[] hashFields;
+
+    /**
+     * Table is created WITHOUT ROWID
+     */
+    private boolean withoutRowId;
+
+    /**
+     * Raw query to insert object of upsert, when no row is updated by primary key
+     */
+    private String upsertQuery;
+
+    /**
+     * Fields of upsert query. Insert fields and autoincrement primary key
+     */
+    private String[] upsertFields;
+
+    /**
+     * Table that maps primary key of WITHOUT ROWID table to integer doc id of full-text and JSON index tables.
+     * Null if rowid is the doc id
+     */
+    private String docTable;
+
+    /**
+     * Raw query to create doc table
+     */
+    private String createDocQuery;
+
+    /**
+     * Names of doc table triggers
+     */
+    private String[] docTriggerNames;
+
+    /**
+     * Raw queries to create doc table triggers
+     */
+    private String[] docTriggerQueries;
+
+    /**
+     * Raw query to add primary key to doc table if it is not added yet
+     */
+    private String insertDocQuery;
+
+    /**
+     * Full-text table that mirrors full-text columns. Null if table has no full-text column
+     */
+    private String fullTextTable;
+
+    /**
+     * Column names of full-text columns
+     */
+    private String[] fullTextColumns;
+
+    /**
+     * Indexes of table
+     */
+    private List<LiteIndexMeta> indexes;
+
+    /**
+     * Indexes of values extracted from JSON columns
+     */
+    private List<LiteJsonIndexMeta> jsonIndexes;
+
+    /**
+     * Raw query to select row id, or doc id of WITHOUT ROWID table, by primary key.
+     * Null if table has no JSON index
+     */
+    private String selectRowIdQuery;
+
+    /**
+     * Number of rows is maintained in count table
+     */
+    private boolean maintainCount;
+
     public String getTableName() {
         return tableName;
     }
@@ -97,6 +224,22 @@ public class LiteTableMeta {
         this.updateQuery = updateQuery;
     }
 
+    public String getSelectQuery() {
+        return selectQuery;
+    }
+
+    public void setSelectQuery(String selectQuery) {
+        this.selectQuery = selectQuery;
+    }
+
+    public String getSelectByKeyQuery() {
+        return selectByKeyQuery;
+    }
+
+    public void setSelectByKeyQuery(String selectByKeyQuery) {
+        this.selectByKeyQuery = selectByKeyQuery;
+    }
+
     public String getPrimaryKey() {
         if (primaryKey == null) return "";
         return primaryKey;
@@ -106,6 +249,31 @@ public class LiteTableMeta {
         this.primaryKey = primaryKey;
     }
 
+    public String[] getPrimaryKeys() {
+        if (primaryKeys == null) return new String[] {getPrimaryKey()};
+        return primaryKeys;
+    }
+
+    public void setPrimaryKeys(String[] primaryKeys) {
+        this.primaryKeys = primaryKeys;
+    }
+
+    /**
+     * Check if primary key has more than one column
+     * @return true if primary key is composite
+     */
+    public boolean isCompositeKey() {
+        return primaryKeys != null && primaryKeys.length > 1;
+    }
+
+    public String getKeyCondition() {
+        return keyCondition;
+    }
+
+    public void setKeyCondition(String keyCondition) {
+        this.keyCondition = keyCondition;
+    }
+
     public String[] getInsertFields() {
         return insertFields;
     }
@@ -145,4 +313,143 @@ public class LiteTableMeta {
     public void setSelectFields(String[] selectFields) {
         this.selectFields = selectFields;
     }
+
+    public String getHashColumn() {
+        return hashColumn;
+    }
+
+    public void setHashColumn(String hashColumn) {
+        this.hashColumn = hashColumn;
+    }
+
+    public String[] getHashFields() {
+        return hashFields;
+    }
+
+    public void setHashFields(String[] hashFields) {
+        this.hashFields = hashFields;
+    }
+
+    public boolean isMaintainCount() {
+        return maintainCount;
+    }
+
+    public void setMaintainCount(boolean maintainCount) {
+        this.maintainCount = maintainCount;
+    }
+
+    public List<LiteIndexMeta> getIndexes() {
+        return indexes;
+    }
+
+    public void setIndexes(List<LiteIndexMeta> indexes) {
+        this.indexes = indexes;
+    }
+
+    public String getFullTextTable() {
+        return fullTextTable;
+    }
+
+    public void setFullTextTable(String fullTextTable) {
+        this.fullTextTable = fullTextTable;
+    }
+
+    public String[] getFullTextColumns() {
+        return fullTextColumns;
+    }
+
+    public void setFullTextColumns(String[] fullTextColumns) {
+        this.fullTextColumns = fullTextColumns;
+    }
+
+    public boolean isWithoutRowId() {
+        return withoutRowId;
+    }
+
+    public void setWithoutRowId(boolean withoutRowId) {
+        this.withoutRowId = withoutRowId;
+    }
+
+    public String getUpsertQuery() {
+        return upsertQuery;
+    }
+
+    public void setUpsertQuery(String upsertQuery) {
+        this.upsertQuery = upsertQuery;
+    }
+
+    public String[] getUpsertFields() {
+        return upsertFields;
+    }
+
+    public void setUpsertFields(String[] upsertFields) {
+        this.upsertFields = upsertFields;
+    }
+
+    public List<LiteJsonIndexMeta> getJsonIndexes() {
+        return jsonIndexes;
+    }
+
+    public void setJsonIndexes(List<LiteJsonIndexMeta> jsonIndexes) {
+        this.jsonIndexes = jsonIndexes;
+    }
+
+    public String getSelectRowIdQuery() {
+        return selectRowIdQuery;
+    }
+
+    public void setSelectRowIdQuery(String selectRowIdQuery) {
+        this.selectRowIdQuery = selectRowIdQuery;
+    }
+
+    public String getDocTable() {
+        return docTable;
+    }
+
+    public void setDocTable(String docTable) {
+        this.docTable = docTable;
+    }
+
+    public String getCreateDocQuery() {
+        return createDocQuery;
+    }
+
+    public void setCreateDocQuery(String createDocQuery) {
+        this.createDocQuery = createDocQuery;
+    }
+
+    public String[] getDocTriggerNames() {
+        return docTriggerNames;
+    }
+
+    public void setDocTriggerNames(String[] docTriggerNames) {
+        this.docTriggerNames = docTriggerNames;
+    }
+
+    public String[] getDocTriggerQueries() {
+        return docTriggerQueries;
+    }
+
+    public void setDocTriggerQueries(String[] docTriggerQueries) {
+        this.docTriggerQueries = docTriggerQueries;
+    }
+
+    public String getInsertDocQuery() {
+        return insertDocQuery;
+    }
+
+    public void setInsertDocQuery(String insertDocQuery) {
+        this.insertDocQuery = insertDocQuery;
+    }
+
+    /**
+     * Get condition to match rows by doc id of full-text or JSON index table
+     * @param docQuery query that selects doc ids
+     * @return condition on rowid, or on primary key through doc table
+     */
+    public String getDocCondition(String docQuery) {
+        if (docTable == null) return "rowid IN (" + docQuery + ")";
+        return "[" + columns.get(getPrimaryKey()).getColumnName() + "] IN (SELECT [key] FROM [" + docTable
+                + "] WHERE [docid] IN (" + docQuery + "))";
+    }
 }